@@ -0,0 +1,138 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Renders frames of generated notes headlessly and measures the bytes allocated per frame by each stage of the export path with the allocation
+ * counters of the current thread. Exits with status 1 if a stage exceeds its budget, so a change that adds per-frame garbage is noticed.
+ * <p>
+ * Usage: {@code java -Djava.awt.headless=true -cp MIDIVisualizer.jar AllocationBudget [frames] [stage=bytes ...]}
+ * <br>
+ * The stages are nextTime, paint, paintTiles and addFrame. addFrame is skipped if the video library is not available.
+ */
+public class AllocationBudget {
+    /** frames rendered before measuring, so the measurement is not affected by class loading and compilation */
+    private static final int WARMUP_FRAMES = 300;
+    /** default number of measured frames */
+    private static final int FRAMES = 600;
+    /** frame size */
+    private static final int WIDTH = 1920, HEIGHT = 1080, FPS = 30;
+
+    public static void main(String[] args) throws IOException {
+        int frames = FRAMES;
+        Map<String, Long> budgets = new LinkedHashMap<>();
+        budgets.put("nextTime", 256L);
+        budgets.put("paint", 32768L);
+        budgets.put("paintTiles", 32768L);
+        budgets.put("addFrame", 65536L);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0)
+                frames = Integer.parseInt(arg);
+            else if (budgets.containsKey(arg.substring(0, separator)))
+                budgets.put(arg.substring(0, separator), Long.parseLong(arg.substring(separator + 1)));
+            else
+                throw new IllegalArgumentException("unknown stage " + arg.substring(0, separator));
+        }
+
+        MIDIVisualizer.loadImages();
+        MIDIVisualizer.backgroundColor = new Color(44, 44, 44);
+        Color[] colors = new Color[MIDIVisualizer.CHANNELS];
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = Color.getHSBColor(i / 16f, 0.7f, 0.9f);
+        TempoMap tempoMap = new TempoMap(480, 0, new long[]{0}, new int[]{500000});
+        NoteIndex noteIndex = generateNotes(tempoMap.toTicks((WARMUP_FRAMES + frames) * 1000000L / FPS));
+        RenderingPlayer player = new RenderingPlayer(noteIndex, tempoMap, new KeyStateIndex(noteIndex));
+        NoteStrip strip = new NoteStrip();
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+
+        VideoRenderer renderer = null;
+        File video = File.createTempFile("allocation", ".mp4");
+        try {
+            VideoRenderer.init();
+            renderer = new VideoRenderer(video.getPath(), "mp4", null, FPS, WIDTH, HEIGHT);
+        } catch (Throwable e) {
+            System.out.println("addFrame skipped, the video library is not available: " + e);
+            budgets.remove("addFrame");
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Map<String, Long> allocated = new LinkedHashMap<>();
+        for (String stage : budgets.keySet())
+            allocated.put(stage, 0L);
+        for (int frame = 0; frame < WARMUP_FRAMES + frames; frame++) {
+            boolean measure = frame >= WARMUP_FRAMES;
+            long before = threads.getThreadAllocatedBytes(thread);
+            player.nextTime(frame * 1000000L / FPS);
+            before = count(allocated, "nextTime", measure, before, threads.getThreadAllocatedBytes(thread));
+
+            Graphics g = image.getGraphics();
+            MIDIVisualizer.paintMidiPlayer(g, player, WIDTH, HEIGHT, 0, 52, colors, MIDIVisualizer.ALL_CHANNELS, null, null);
+            g.dispose();
+            before = count(allocated, "paint", measure, before, threads.getThreadAllocatedBytes(thread));
+
+            g = image.getGraphics();
+            MIDIVisualizer.paintMidiPlayer(g, player, WIDTH, HEIGHT, 0, 52, colors, MIDIVisualizer.ALL_CHANNELS, null, strip);
+            g.dispose();
+            before = count(allocated, "paintTiles", measure, before, threads.getThreadAllocatedBytes(thread));
+
+            if (renderer != null) {
+                renderer.addFrame(image);
+                count(allocated, "addFrame", measure, before, threads.getThreadAllocatedBytes(thread));
+            }
+        }
+        if (renderer != null)
+            renderer.finish();
+        video.delete();
+
+        boolean exceeded = false;
+        System.out.println(noteIndex.size() + " notes, " + frames + " frames");
+        for (Map.Entry<String, Long> stage : allocated.entrySet()) {
+            long perFrame = stage.getValue() / frames, budget = budgets.get(stage.getKey());
+            System.out.printf("%-12s %10d bytes/frame, budget %10d %s%n", stage.getKey(), perFrame, budget, perFrame > budget ? "EXCEEDED" : "ok");
+            exceeded |= perFrame > budget;
+        }
+        System.exit(exceeded ? 1 : 0);
+    }
+
+    /**
+     * adds the bytes allocated by a stage
+     *
+     * @return the allocated bytes of the thread after the stage
+     */
+    private static long count(Map<String, Long> allocated, String stage, boolean measure, long before, long after) {
+        if (measure)
+            allocated.merge(stage, after - before, Long::sum);
+        return after;
+    }
+
+    /**
+     * generates random notes on all channels and keys, notes of the same key do not overlap
+     *
+     * @param length length in ticks
+     * @return the notes
+     */
+    private static NoteIndex generateNotes(long length) {
+        Random random = new Random(0);
+        ArrayList<Note> notes = new ArrayList<>();
+        long[] free = new long[MIDIVisualizer.NOTE_COUNT]; // end of the last note of each key, notes of a key do not overlap
+        for (long tick = 0; tick < length; tick += 4 + random.nextInt(12)) {
+            int key = random.nextInt(MIDIVisualizer.NOTE_COUNT);
+            if (free[key] > tick)
+                continue;
+            long end = tick + 60 + random.nextInt(1920);
+            notes.add(new Note(random.nextInt(MIDIVisualizer.CHANNELS), key + 1, tick, end));
+            free[key] = end;
+        }
+        notes.sort(Comparator.comparingLong(Note::getEnd));
+        return new NoteIndex(notes);
+    }
+}
@@ -0,0 +1,213 @@
+import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the audio of a sequence offline with the software synthesizer of the JDK. The synthesizer is opened in stream mode, so no audio device is needed
+ * and the audio is rendered as fast as possible. Rendering runs on a background thread, the rendered chunks are passed to a {@link VideoRenderer} by
+ * {@link #writeUntil(VideoRenderer, long)}.
+ * <p>
+ * The stream mode is not part of the public API. On Java 9 and newer the package com.sun.media.sound has to be exported to this program,
+ * which the manifest of the jar file does.
+ */
+public class AudioRenderer {
+    /** sample rate of the rendered audio */
+    public static final int SAMPLE_RATE = 44100;
+    /** number of audio channels */
+    public static final int CHANNELS = 2;
+    /** bytes per frame, 16 bit per sample */
+    public static final int FRAME_SIZE = 2 * CHANNELS;
+    /** format of the rendered audio, 16 bit signed little endian */
+    public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+    /** number of frames rendered at once */
+    private static final int CHUNK_FRAMES = 4096;
+
+    /** synthesizer in stream mode */
+    private final Synthesizer synthesizer;
+    /** rendered audio of the synthesizer */
+    private final AudioInputStream stream;
+    /** the rendered events */
+    private final EventList events;
+    /**
+     * the rendered messages sorted by time, packed like in {@link #events}. They are taken in the order of {@link EventList}, whose stable merge of the tracks
+     * keeps the order of messages at the same time for any number of events, so they are not sorted again by a key combining the time and the index.
+     */
+    private final int[] messages;
+    /** time of each event in microseconds */
+    private final long[] micros;
+    /** rendered chunks that were not written yet */
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(64);
+    /** rendering thread */
+    private final Thread thread;
+    /** set to stop the rendering thread */
+    private volatile boolean stopped;
+    /** the chunk that is currently written, null if a new chunk has to be taken from {@link #chunks} */
+    private byte[] chunk;
+    /** number of bytes of {@link #chunk} that were already written */
+    private int chunkPosition;
+    /** number of frames passed to the video renderer */
+    private long writtenFrames;
+
+    /**
+     * create an audio renderer for the whole sequence and open the synthesizer
+     *
+     * @param events   events of the sequence to render
+     * @param tempoMap tempo map of the sequence
+     * @param channels bit mask of the audible channels, the other channels are muted
+     * @throws MidiUnavailableException if the synthesizer does not support the stream mode or cannot be opened
+     */
+    public AudioRenderer(EventList events, TempoMap tempoMap, int channels) throws MidiUnavailableException {
+        this(events, tempoMap, channels, 0);
+    }
+
+    /**
+     * Create an audio renderer that starts at the given time and open the synthesizer. The events before the start are not rendered,
+     * but the programs and controllers they set are sent at the start and the notes that are still held at the start are struck again.
+     *
+     * @param events   events of the sequence to render
+     * @param tempoMap tempo map of the sequence
+     * @param channels bit mask of the audible channels, the other channels are muted
+     * @param start    time of the first rendered frame in microseconds
+     * @throws MidiUnavailableException if the synthesizer does not support the stream mode or cannot be opened
+     */
+    public AudioRenderer(EventList events, TempoMap tempoMap, int channels, long start) throws MidiUnavailableException {
+        this.events = events;
+        int n = events.size();
+        int[] held = new int[MIDIVisualizer.CHANNELS * MIDIVisualizer.MIDI_NOTES]; // last note-on before the start of each note or 0
+        int[] sorted = new int[n + held.length];
+        long[] times = new long[n + held.length];
+        int kept = 0, event = 0;
+        for (; event < n && tempoMap.toMicros(events.getTick(event)) < start; event++) {
+            int message = events.getMessage(event);
+            int command = message < 0 ? -1 : EventRingBuffer.status(message) & 0xF0;
+            if (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF) {
+                boolean on = command == ShortMessage.NOTE_ON && EventRingBuffer.data2(message) > 0;
+                held[(EventRingBuffer.status(message) & 0x0F) * MIDIVisualizer.MIDI_NOTES + EventRingBuffer.data1(message)] = on ? message : 0;
+            } else {
+                sorted[kept++] = message; // programs and controllers at time 0
+            }
+        }
+        for (int message : held)
+            if (message != 0)
+                sorted[kept++] = message;
+        for (; event < n; event++) {
+            sorted[kept] = events.getMessage(event);
+            times[kept++] = tempoMap.toMicros(events.getTick(event)) - start;
+        }
+        messages = Arrays.copyOf(sorted, kept);
+        micros = Arrays.copyOf(times, kept);
+
+        synthesizer = MidiSystem.getSynthesizer();
+        try {
+            Class<?> audioSynthesizer = Class.forName("com.sun.media.sound.AudioSynthesizer");
+            if (!audioSynthesizer.isInstance(synthesizer))
+                throw new MidiUnavailableException("The default synthesizer does not support offline rendering");
+            Method openStream = audioSynthesizer.getMethod("openStream", AudioFormat.class, Map.class);
+            stream = (AudioInputStream) openStream.invoke(synthesizer, FORMAT, null);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw (MidiUnavailableException) new MidiUnavailableException("Offline rendering is not available: " + e).initCause(e);
+        } catch (InvocationTargetException e) {
+            throw (MidiUnavailableException) new MidiUnavailableException("The synthesizer could not be opened").initCause(e.getCause());
+        }
+        MidiChannel[] midiChannels = synthesizer.getChannels();
+        for (int i = 0; i < midiChannels.length; i++)
+            midiChannels[i].setMute((channels >> i & 1) == 0);
+        thread = new Thread(this::render, "AudioRenderer");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * starts rendering on the background thread
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Renders chunks of {@link #CHUNK_FRAMES} frames until stopped. The events of each chunk are sent to the synthesizer with their timestamps before the
+     * chunk is read from the stream. Blocks while enough chunks are waiting to be written.
+     */
+    private void render() {
+        try {
+            Receiver receiver = synthesizer.getReceiver();
+            int event = 0;
+            for (long frame = 0; !stopped; frame += CHUNK_FRAMES) {
+                long end = (frame + CHUNK_FRAMES) * 1000000 / SAMPLE_RATE;
+                for (; event < messages.length && micros[event] < end; event++)
+                    receiver.send(events.toMessage(messages[event]), micros[event]);
+                byte[] chunk = new byte[CHUNK_FRAMES * FRAME_SIZE];
+                for (int read = 0; read < chunk.length; ) {
+                    int length = stream.read(chunk, read, chunk.length - read);
+                    if (length < 0)
+                        throw new IOException("end of audio stream");
+                    read += length;
+                }
+                while (!stopped && !chunks.offer(chunk, 100, TimeUnit.MILLISECONDS)) ;
+            }
+        } catch (InterruptedException ignored) {
+        } catch (MidiUnavailableException | InvalidMidiDataException | IOException e) {
+            e.printStackTrace();
+        } finally {
+            stopped = true;
+            synthesizer.close();
+        }
+    }
+
+    /**
+     * Passes the rendered audio up to the given time to the video renderer. Waits for the rendering thread if necessary.
+     *
+     * @param renderer video renderer with an audio stream
+     * @param time     time in microseconds
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException          if the rendering thread stopped
+     */
+    public void writeUntil(VideoRenderer renderer, long time) throws InterruptedException, IOException {
+        writeUntil(new VideoRenderer[]{renderer}, time);
+    }
+
+    /**
+     * Passes the rendered audio up to the given time to several video renderers, the audio is only rendered once.
+     *
+     * @param renderers video renderers with an audio stream
+     * @param time      time in microseconds
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException          if the rendering thread stopped
+     */
+    public void writeUntil(VideoRenderer[] renderers, long time) throws InterruptedException, IOException {
+        long frames = time * SAMPLE_RATE / 1000000;
+        while (writtenFrames < frames) {
+            if (chunk == null) {
+                while ((chunk = chunks.poll(100, TimeUnit.MILLISECONDS)) == null)
+                    if (stopped && chunks.isEmpty())
+                        throw new IOException("audio rendering stopped");
+                chunkPosition = 0;
+            }
+            int length = (int) Math.min(chunk.length - chunkPosition, (frames - writtenFrames) * FRAME_SIZE);
+            for (VideoRenderer renderer : renderers)
+                renderer.addAudio(chunk, chunkPosition, length);
+            chunkPosition += length;
+            writtenFrames += length / FRAME_SIZE;
+            if (chunkPosition == chunk.length)
+                chunk = null;
+        }
+    }
+
+    /**
+     * stops the rendering thread and closes the synthesizer
+     */
+    public void stop() {
+        stopped = true;
+        if (thread.isAlive())
+            thread.interrupt();
+        else
+            synthesizer.close();
+    }
+}
@@ -0,0 +1,275 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The channel covering each pixel of a frame and how much of the pixel it covers. A frame is the base frame without notes and pressed keys
+ * blended with the color of the covering channel, so it is painted in any channel colors by {@link #recolor(byte[], Color[], BufferedImage)}.
+ * <p>
+ * The map is split from two paintings of the frame, one with all channels in {@link #BLACK} and one in {@link #CODES}, whose blue component is
+ * full for all channels and whose red and green components identify the channel. The coverage is the blue difference of the two paintings, the
+ * channel the red and green difference divided by it. Pixels blended from two channels, like the antialiased edges of overlapping notes of different
+ * channels on the same key, are assigned to the dominant channel.
+ * <p>
+ * A pixel whose channel is partly covered by a later layer, like the edge of a keyboard line on a pressed key, is not the base frame blended with
+ * the channel color. Its black painting is kept, the color is added to it.
+ */
+public class ChannelMap {
+    /** channel of the pixels that show the base frame */
+    public static final int NO_CHANNEL = 0xFF;
+    /** all channels in black */
+    public static final Color[] BLACK = new Color[16];
+    /** code color of each channel */
+    public static final Color[] CODES = new Color[16];
+    /** row marker of a row with the same channels and coverage as the previous row */
+    private static final int REPEATED_ROW = 0;
+    /** row marker of a row written as runs */
+    private static final int RUN_ROW = 1;
+    /** flag of the length of a run that copies the pixels of the previous row */
+    private static final int COPY_RUN = 0x8000;
+    /** marker of a frame in a stream, the end of the frames is marked with 0 */
+    private static final int FRAME = 1;
+    /** {@code BLEND[a][v]} is {@code v * a / 255}, rounded */
+    private static final byte[][] BLEND = new byte[256][256];
+
+    static {
+        for (int channel = 0; channel < CODES.length; channel++) {
+            BLACK[channel] = Color.BLACK;
+            CODES[channel] = new Color((channel & 3) * 85, (channel >> 2 & 3) * 85, 255);
+        }
+        for (int a = 0; a < 256; a++)
+            for (int v = 0; v < 256; v++)
+                BLEND[a][v] = (byte) ((v * a + 127) / 255);
+    }
+
+    /** size of the frame */
+    private final int width, height;
+    /** channel of each pixel or {@link #NO_CHANNEL} */
+    private final byte[] channels;
+    /** coverage of each pixel by its channel, 0 to 255 */
+    private final byte[] coverage;
+    /** number of pixels whose channel is partly covered by a later layer */
+    private int occludedCount;
+    /** index of each of these pixels */
+    private int[] occludedPixels = new int[64];
+    /** black painting of each of these pixels, BGR */
+    private byte[] occludedBlack = new byte[64 * 3];
+
+    /**
+     * create an empty map
+     *
+     * @param width  frame width
+     * @param height frame height
+     */
+    public ChannelMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        channels = new byte[width * height];
+        coverage = new byte[width * height];
+    }
+
+    /**
+     * Splits the channels from two paintings of a frame.
+     *
+     * @param black frame painted with the channel colors {@link #BLACK}, {@link BufferedImage#TYPE_INT_RGB}
+     * @param coded the same frame painted with the channel colors {@link #CODES}, {@link BufferedImage#TYPE_INT_RGB}
+     * @param base  pixels of the frame without notes and pressed keys, BGR
+     */
+    public void split(BufferedImage black, BufferedImage coded, byte[] base) {
+        int[] blackPixels = ((DataBufferInt) black.getRaster().getDataBuffer()).getData();
+        int[] codedPixels = ((DataBufferInt) coded.getRaster().getDataBuffer()).getData();
+        occludedCount = 0;
+        for (int i = 0; i < channels.length; i++) {
+            int b = blackPixels[i], c = codedPixels[i];
+            int k = (c & 0xFF) - (b & 0xFF);
+            if (k <= 0) {
+                channels[i] = (byte) NO_CHANNEL;
+                coverage[i] = 0;
+                continue;
+            }
+            int red = Math.max(0, Math.min(3, Math.round(3f * ((c >> 16 & 0xFF) - (b >> 16 & 0xFF)) / k)));
+            int green = Math.max(0, Math.min(3, Math.round(3f * ((c >> 8 & 0xFF) - (b >> 8 & 0xFF)) / k)));
+            channels[i] = (byte) (red | green << 2);
+            coverage[i] = (byte) k;
+            if (k < 255) {
+                byte[] baseShare = BLEND[255 - k];
+                int p = i * 3;
+                // the black painting of an unoccluded pixel is the base darkened by the coverage, up to rounding
+                if (Math.abs((b & 0xFF) - (baseShare[base[p] & 0xFF] & 0xFF)) > 2 || Math.abs((b >> 8 & 0xFF) - (baseShare[base[p + 1] & 0xFF] & 0xFF)) > 2
+                        || Math.abs((b >> 16 & 0xFF) - (baseShare[base[p + 2] & 0xFF] & 0xFF)) > 2)
+                    addOccluded(i, (byte) b, (byte) (b >> 8), (byte) (b >> 16));
+            }
+        }
+    }
+
+    /**
+     * adds a pixel whose channel is partly covered by a later layer
+     *
+     * @param pixel index of the pixel
+     * @param blue  blue component of its black painting
+     * @param green green component of its black painting
+     * @param red   red component of its black painting
+     */
+    private void addOccluded(int pixel, byte blue, byte green, byte red) {
+        if (occludedCount == occludedPixels.length) {
+            occludedPixels = Arrays.copyOf(occludedPixels, occludedCount * 2);
+            occludedBlack = Arrays.copyOf(occludedBlack, occludedCount * 6);
+        }
+        occludedPixels[occludedCount] = pixel;
+        occludedBlack[occludedCount * 3] = blue;
+        occludedBlack[occludedCount * 3 + 1] = green;
+        occludedBlack[occludedCount * 3 + 2] = red;
+        occludedCount++;
+    }
+
+    /**
+     * Paints the frame in the given channel colors by blending the base frame with the color of the channel of each pixel.
+     *
+     * @param base   pixels of the frame without notes and pressed keys, BGR
+     * @param colors display color for each midi channel
+     * @param frame  the painted frame, {@link BufferedImage#TYPE_3BYTE_BGR} of the size of the map
+     */
+    public void recolor(byte[] base, Color[] colors, BufferedImage frame) {
+        byte[] pixels = ((DataBufferByte) frame.getRaster().getDataBuffer()).getData();
+        System.arraycopy(base, 0, pixels, 0, pixels.length);
+        byte[] bgr = new byte[CODES.length * 3];
+        for (int channel = 0; channel < CODES.length; channel++) {
+            bgr[channel * 3] = (byte) colors[channel].getBlue();
+            bgr[channel * 3 + 1] = (byte) colors[channel].getGreen();
+            bgr[channel * 3 + 2] = (byte) colors[channel].getRed();
+        }
+        for (int i = 0, p = 0; i < coverage.length; i++, p += 3) {
+            int k = coverage[i] & 0xFF;
+            if (k == 0)
+                continue;
+            int c = (channels[i] & 0xF) * 3;
+            if (k == 255) {
+                pixels[p] = bgr[c];
+                pixels[p + 1] = bgr[c + 1];
+                pixels[p + 2] = bgr[c + 2];
+                continue;
+            }
+            byte[] colorShare = BLEND[k], baseShare = BLEND[255 - k];
+            for (int component = 0; component < 3; component++)
+                pixels[p + component] = (byte) (colorShare[bgr[c + component] & 0xFF] + baseShare[base[p + component] & 0xFF]);
+        }
+        for (int i = 0; i < occludedCount; i++) {
+            int pixel = occludedPixels[i], p = pixel * 3, c = (channels[pixel] & 0xF) * 3;
+            byte[] colorShare = BLEND[coverage[pixel] & 0xFF];
+            for (int component = 0; component < 3; component++)
+                pixels[p + component] = (byte) Math.min(255, (colorShare[bgr[c + component] & 0xFF] & 0xFF) + (occludedBlack[i * 3 + component] & 0xFF));
+        }
+    }
+
+    /**
+     * Writes the map as a frame of a stream. Each row is either marked as a repetition of the previous row or written as runs. A run either
+     * copies pixels of the previous row, like the lanes of the keys without a note starting or ending in the row, or repeats one channel and
+     * coverage. The pixels whose channel is partly covered by a later layer follow the rows.
+     *
+     * @param out the stream
+     * @throws IOException if the frame could not be written
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeByte(FRAME);
+        for (int y = 0, row = 0; y < height; y++, row += width) {
+            if (y > 0 && isRepeated(row, row + width)) {
+                out.writeByte(REPEATED_ROW);
+                continue;
+            }
+            out.writeByte(RUN_ROW);
+            for (int x = 0; x < width; ) {
+                int start = row + x, length = 1;
+                if (y > 0 && isRepeated(start, start + 1)) {
+                    while (x + length < width && isRepeated(start + length, start + length + 1))
+                        length++;
+                    out.writeShort(COPY_RUN | length - 1);
+                } else {
+                    byte channel = channels[start], k = coverage[start];
+                    while (x + length < width && channels[start + length] == channel && coverage[start + length] == k
+                            && (y == 0 || !isRepeated(start + length, start + length + 1)))
+                        length++;
+                    out.writeShort(length - 1);
+                    out.writeByte(channel);
+                    out.writeByte(k);
+                }
+                x += length;
+            }
+        }
+        out.writeInt(occludedCount);
+        for (int i = 0; i < occludedCount; i++) {
+            out.writeInt(occludedPixels[i]);
+            out.write(occludedBlack, i * 3, 3);
+        }
+    }
+
+    /**
+     * @param from index of the first pixel, not in the first row
+     * @param to   index after the last pixel
+     * @return true if the pixels equal the pixels of the previous row
+     */
+    private boolean isRepeated(int from, int to) {
+        for (int i = from, previous = from - width; i < to; i++, previous++)
+            if (channels[i] != channels[previous] || coverage[i] != coverage[previous])
+                return false;
+        return true;
+    }
+
+    /**
+     * reads the next frame of a stream written by {@link #write(DataOutputStream)}
+     *
+     * @param in the stream
+     * @return false if the stream has no further frame
+     * @throws IOException if the frame could not be read
+     */
+    public boolean read(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() != FRAME)
+            return false;
+        for (int y = 0, row = 0; y < height; y++, row += width) {
+            int marker = in.readUnsignedByte();
+            if (marker == REPEATED_ROW && y > 0) {
+                System.arraycopy(channels, row - width, channels, row, width);
+                System.arraycopy(coverage, row - width, coverage, row, width);
+                continue;
+            }
+            if (marker != RUN_ROW)
+                throw new IOException("invalid row marker " + marker);
+            for (int x = 0; x < width; ) {
+                int run = in.readUnsignedShort(), length = (run & ~COPY_RUN) + 1, start = row + x;
+                if (x + length > width || (run & COPY_RUN) != 0 && y == 0)
+                    throw new IOException("invalid run");
+                if ((run & COPY_RUN) != 0) {
+                    System.arraycopy(channels, start - width, channels, start, length);
+                    System.arraycopy(coverage, start - width, coverage, start, length);
+                } else {
+                    byte channel = in.readByte(), k = in.readByte();
+                    Arrays.fill(channels, start, start + length, channel);
+                    Arrays.fill(coverage, start, start + length, k);
+                }
+                x += length;
+            }
+        }
+        occludedCount = 0;
+        for (int count = in.readInt(); occludedCount < count; ) {
+            int pixel = in.readInt();
+            if (pixel < 0 || pixel >= channels.length)
+                throw new IOException("invalid pixel " + pixel);
+            addOccluded(pixel, in.readByte(), in.readByte(), in.readByte());
+        }
+        return true;
+    }
+
+    /**
+     * marks the end of the frames of a stream
+     *
+     * @param out the stream
+     * @throws IOException if the marker could not be written
+     */
+    public static void writeEnd(DataOutputStream out) throws IOException {
+        out.writeByte(0);
+    }
+}
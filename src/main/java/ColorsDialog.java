@@ -11,6 +11,10 @@ import java.awt.event.WindowEvent;
 public class ColorsDialog extends JDialog {
     /** text fields for color hex codes */
     private final JTextField[] textFields;
+    /** check boxes to show and hide the channels */
+    private final JCheckBox[] visibleBoxes;
+    /** check boxes to mute and unmute the channels */
+    private final JCheckBox[] audibleBoxes;
     /** text field for background color */
     private final JTextField tfBackground;
     /** general size for text fields */
@@ -21,7 +25,7 @@ public class ColorsDialog extends JDialog {
     public ColorsDialog(MIDIVisualizer parent) {
         super();
         this.parent = parent;
-        setTitle("Set colors");
+        setTitle("Channel settings");
         setResizable(false);
         setUndecorated(true);
         setIconImage(MIDIVisualizer.icon);
@@ -33,6 +37,8 @@ public class ColorsDialog extends JDialog {
         gbc.insets.top = 7;
         gbc.insets.left = 20;
         textFields = new JTextField[MIDIVisualizer.CHANNELS];
+        visibleBoxes = new JCheckBox[MIDIVisualizer.CHANNELS];
+        audibleBoxes = new JCheckBox[MIDIVisualizer.CHANNELS];
         for (int i = 0; i < MIDIVisualizer.CHANNELS; i++) {
             gbc.gridx = 0;
             gbc.gridy = i;
@@ -40,11 +46,17 @@ public class ColorsDialog extends JDialog {
             JLabel label = new JLabel("Channel " + (i + 1));
             panel.add(label, gbc);
             gbc.gridx = 1;
-            gbc.insets.right = 20;
             textFields[i] = new JTextField(toHex(MIDIVisualizer.channelColors[i]));
             textFields[i].setPreferredSize(tfSize);
             textFields[i].setHorizontalAlignment(SwingConstants.CENTER);
             panel.add(textFields[i], gbc);
+            gbc.gridx = 2;
+            visibleBoxes[i] = new JCheckBox("Visible", (MIDIVisualizer.visibleChannels >> i & 1) != 0);
+            panel.add(visibleBoxes[i], gbc);
+            gbc.gridx = 3;
+            gbc.insets.right = 20;
+            audibleBoxes[i] = new JCheckBox("Audible", (MIDIVisualizer.audibleChannels >> i & 1) != 0);
+            panel.add(audibleBoxes[i], gbc);
         }
 
         gbc.gridx = 0;
@@ -63,7 +75,7 @@ public class ColorsDialog extends JDialog {
         gbc.insets.bottom = gbc.insets.top;
         gbc.insets.top = 10;
         gbc.gridx = 0;
-        gbc.gridwidth = 2;
+        gbc.gridwidth = 4;
         JButton ok = new JButton("OK");
         ok.addActionListener(event -> exit());
         ok.setPreferredSize(new Dimension(70, 22));
@@ -92,19 +104,24 @@ public class ColorsDialog extends JDialog {
     }
 
     /**
-     * checks the text in all text fields and changes the channel colors if possible, then disposes this dialog
+     * checks the text in all text fields and changes the channel colors if possible, applies the visible and audible channels, then disposes this dialog
      */
     public void exit() {
         Color col;
+        int visible = 0, audible = 0;
         for (int i = 0; i < MIDIVisualizer.CHANNELS; i++) {
             if ((col = toColor(textFields[i].getText())) != null)
                 MIDIVisualizer.channelColors[i] = col;
+            if (visibleBoxes[i].isSelected())
+                visible |= 1 << i;
+            if (audibleBoxes[i].isSelected())
+                audible |= 1 << i;
         }
         col = toColor(tfBackground.getText());
         if (col != null)
             MIDIVisualizer.backgroundColor = col;
         dispose();
-        parent.repaint();
+        parent.setChannels(visible, audible);
     }
 
     /**
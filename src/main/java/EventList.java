@@ -0,0 +1,181 @@
+import javax.sound.midi.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The playable events of a sequence in compact arrays, merged from all tracks and sorted by their ticks. A short message is packed into an int
+ * by {@link EventRingBuffer#pack(int, int, int)}, so an event takes 12 bytes instead of a {@link MidiEvent} and its message.
+ * System exclusive messages are kept as objects, meta messages are dropped, the tempo changes are contained in the {@link TempoMap}.
+ * <p>
+ * The list is created from a sequence that was prepared by a {@link NoteIndexer}, afterwards the sequence is not needed for playback or the audio track.
+ */
+public class EventList {
+    /** tick of each event */
+    private final long[] ticks;
+    /** each event as packed short message or -1 - the index of its message in {@link #longMessages} */
+    private final int[] messages;
+    /** the system exclusive messages */
+    private final MidiMessage[] longMessages;
+    /** length of the sequence in ticks */
+    private final long tickLength;
+
+    /**
+     * Create the event list of a sequence. The tracks are merged like a sequencer plays them: events at the same tick are ordered by their track
+     * and their position in the track. The tracks are kept in a heap ordered by their next event, so the merge does not compare all tracks per event.
+     *
+     * @param sequence the sequence, not modified
+     */
+    public EventList(Sequence sequence) {
+        Track[] tracks = sequence.getTracks();
+        int count = 0;
+        for (Track track : tracks)
+            count += track.size();
+        long[] ticks = new long[count];
+        int[] messages = new int[count];
+        ArrayList<MidiMessage> longMessages = new ArrayList<>();
+        int[] positions = new int[tracks.length];
+        long[] nextTicks = new long[tracks.length];
+        int[] heap = new int[tracks.length];
+        int size = 0;
+        for (int t = 0; t < tracks.length; t++)
+            if (tracks[t].size() > 0) {
+                nextTicks[t] = tracks[t].get(0).getTick();
+                heap[size++] = t;
+            }
+        for (int i = size / 2 - 1; i >= 0; i--)
+            siftDown(heap, size, i, nextTicks);
+        int n = 0;
+        while (size > 0) {
+            int next = heap[0];
+            long nextTick = nextTicks[next];
+            MidiMessage message = tracks[next].get(positions[next]++).getMessage();
+            if (positions[next] < tracks[next].size())
+                nextTicks[next] = tracks[next].get(positions[next]).getTick();
+            else
+                heap[0] = heap[--size];
+            siftDown(heap, size, 0, nextTicks);
+            if (message instanceof MetaMessage)
+                continue;
+            ticks[n] = nextTick;
+            if (message instanceof ShortMessage) {
+                ShortMessage shortMessage = (ShortMessage) message;
+                messages[n++] = EventRingBuffer.pack(shortMessage.getStatus(), shortMessage.getData1(), shortMessage.getData2());
+            } else {
+                messages[n++] = -1 - longMessages.size();
+                longMessages.add(message);
+            }
+        }
+        this.ticks = Arrays.copyOf(ticks, n);
+        this.messages = Arrays.copyOf(messages, n);
+        this.longMessages = longMessages.toArray(new MidiMessage[0]);
+        tickLength = sequence.getTickLength();
+    }
+
+    /**
+     * moves a track down the heap of the merge until the next events of its children are later
+     *
+     * @param heap      tracks ordered by their next event
+     * @param size      number of tracks in the heap
+     * @param index     position of the track in the heap
+     * @param nextTicks tick of the next event of each track
+     */
+    private static void siftDown(int[] heap, int size, int index, long[] nextTicks) {
+        int track = heap[index];
+        while (2 * index + 1 < size) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && before(heap[child + 1], heap[child], nextTicks))
+                child++;
+            if (!before(heap[child], track, nextTicks))
+                break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = track;
+    }
+
+    /**
+     * @return true if the next event of the first track is played before the next event of the second track
+     */
+    private static boolean before(int track1, int track2, long[] nextTicks) {
+        return nextTicks[track1] < nextTicks[track2] || nextTicks[track1] == nextTicks[track2] && track1 < track2;
+    }
+
+    /**
+     * @return the number of events
+     */
+    public int size() {
+        return ticks.length;
+    }
+
+    /**
+     * @param event index of the event
+     * @return the tick of the event
+     */
+    public long getTick(int event) {
+        return ticks[event];
+    }
+
+    /**
+     * @param event index of the event
+     * @return the event as packed short message, negative for a system exclusive message, see {@link #toMessage(int)}
+     */
+    public int getMessage(int event) {
+        return messages[event];
+    }
+
+    /**
+     * @param tick a tick
+     * @return the index of the first event at or after the tick, {@link #size()} if there is none
+     */
+    public int indexOf(long tick) {
+        int index = Arrays.binarySearch(ticks, tick);
+        if (index < 0)
+            return -index - 1;
+        while (index > 0 && ticks[index - 1] == tick)
+            index--;
+        return index;
+    }
+
+    /**
+     * getter for {@link #tickLength}
+     *
+     * @return the length of the sequence in ticks
+     */
+    public long getTickLength() {
+        return tickLength;
+    }
+
+    /**
+     * creates the message of an event
+     *
+     * @param message packed short message or negative index of a system exclusive message, see {@link #getMessage(int)}
+     * @return a new short message or the system exclusive message
+     * @throws InvalidMidiDataException if the packed message is invalid
+     */
+    public MidiMessage toMessage(int message) throws InvalidMidiDataException {
+        if (message < 0)
+            return longMessages[-1 - message];
+        return new ShortMessage(EventRingBuffer.status(message), EventRingBuffer.data1(message), EventRingBuffer.data2(message));
+    }
+
+    /**
+     * Creates a single track sequence of the events and the tempo changes, for example to play the events with a {@link Sequencer}.
+     *
+     * @param tempoMap tempo map of the sequence the events were created from
+     * @return a new sequence
+     * @throws InvalidMidiDataException if an event is invalid
+     */
+    public Sequence toSequence(TempoMap tempoMap) throws InvalidMidiDataException {
+        Sequence sequence = new Sequence(tempoMap.getFramesPerSecond(), tempoMap.getResolution());
+        Track track = sequence.createTrack();
+        long[] tempoTicks = tempoMap.getTicks();
+        int[] tempos = tempoMap.getTempos();
+        for (int i = 0; i < tempoTicks.length; i++) {
+            int tempo = tempos[i];
+            track.add(new MidiEvent(new MetaMessage(0x51, new byte[]{(byte) (tempo >> 16), (byte) (tempo >> 8), (byte) tempo}, 3), tempoTicks[i]));
+        }
+        for (int i = 0; i < ticks.length; i++)
+            track.add(new MidiEvent(toMessage(messages[i]), ticks[i]));
+        return sequence;
+    }
+}
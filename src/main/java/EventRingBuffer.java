@@ -0,0 +1,101 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring buffer for midi events with a single producer and a single consumer.
+ * Each event consists of a packed short message and a timestamp, both are stored in preallocated arrays, so no objects are created per event.
+ */
+public class EventRingBuffer {
+    /** packed messages: status | data1 &lt;&lt; 8 | data2 &lt;&lt; 16 */
+    private final int[] messages;
+    /** timestamps of the events */
+    private final long[] times;
+    /** capacity - 1, the capacity is a power of two */
+    private final int mask;
+    /** number of events written by the producer, only written by the producer */
+    private final AtomicLong head = new AtomicLong();
+    /** number of events read by the consumer, only written by the consumer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * create a ring buffer
+     *
+     * @param capacity minimum capacity, rounded up to the next power of two
+     */
+    public EventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        messages = new int[size];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event. May only be called by the producer thread.
+     *
+     * @param message packed message
+     * @param time    timestamp
+     * @return false if the buffer is full and the event was dropped
+     */
+    public boolean offer(int message, long time) {
+        long h = head.get();
+        if (h - tail.get() > mask)
+            return false;
+        messages[(int) h & mask] = message;
+        times[(int) h & mask] = time;
+        head.lazySet(h + 1); // publishes the event to the consumer
+        return true;
+    }
+
+    /**
+     * Removes as many events as fit into the given arrays. May only be called by the consumer thread.
+     *
+     * @param messages array receiving the packed messages
+     * @param times    array receiving the timestamps
+     * @return number of removed events
+     */
+    public int drain(int[] messages, long[] times) {
+        long t = tail.get();
+        int count = (int) Math.min(head.get() - t, Math.min(messages.length, times.length));
+        for (int i = 0; i < count; i++) {
+            messages[i] = this.messages[(int) (t + i) & mask];
+            times[i] = this.times[(int) (t + i) & mask];
+        }
+        tail.lazySet(t + count); // frees the slots for the producer
+        return count;
+    }
+
+    /**
+     * pack a short message
+     *
+     * @param status status byte
+     * @param data1  first data byte
+     * @param data2  second data byte
+     * @return packed message
+     */
+    public static int pack(int status, int data1, int data2) {
+        return (status & 0xFF) | (data1 & 0xFF) << 8 | (data2 & 0xFF) << 16;
+    }
+
+    /**
+     * @param message packed short message
+     * @return the status byte
+     */
+    public static int status(int message) {
+        return message & 0xFF;
+    }
+
+    /**
+     * @param message packed short message
+     * @return the first data byte
+     */
+    public static int data1(int message) {
+        return message >> 8 & 0xFF;
+    }
+
+    /**
+     * @param message packed short message
+     * @return the second data byte
+     */
+    public static int data2(int message) {
+        return message >> 16 & 0xFF;
+    }
+}
@@ -0,0 +1,86 @@
+import javax.swing.*;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * A video export that is executed by the {@link ExportManager}. All settings are copied and a {@link MidiPlayer#snapshot()} of the file is requested
+ * when the job is created, so the user can continue playing, zooming, changing colors and opening other files while the job is waiting or running.
+ */
+public class ExportJob implements Runnable {
+    /** the notes, tempo map and events of the exported file, taken from its player at submission */
+    private final CompletableFuture<MidiPlayer.Snapshot> snapshot;
+    /** the exported video file or the directory of the single frames */
+    private final File target;
+    /** true to export single png frames instead of a video */
+    private final boolean singleFrames;
+    /** the settings of the export at the time of submission */
+    private final VideoExport export;
+    /** parent frame, used to show errors */
+    private final MIDIVisualizer parent;
+    /** shows the progress and cancels the job */
+    private final ProgressDialog progressDialog;
+    /** set when the user cancels the job */
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    /**
+     * Creates an export job and shows its progress dialog. Has to be called on the event dispatch thread.
+     *
+     * @param parent       parent frame
+     * @param frame        frame of the progress dialog
+     * @param player       player of the exported file, does not have to be loaded yet and may be closed before the job runs
+     * @param target       the video file or the directory of the single frames
+     * @param singleFrames true to export single png frames instead of a video
+     * @param export       the settings of the export
+     */
+    public ExportJob(MIDIVisualizer parent, JFrame frame, MidiPlayer player, File target, boolean singleFrames, VideoExport export) {
+        this.parent = parent;
+        snapshot = player.snapshot();
+        this.target = target;
+        this.singleFrames = singleFrames;
+        this.export = export;
+        progressDialog = new ProgressDialog(frame, 1, () -> cancelled.set(true));
+        progressDialog.setTitle((export.getPreviewScale() < 1 ? "Queued preview: " : "Queued: ") + target.getName());
+    }
+
+    /**
+     * Renders the video. Waits until the file is loaded if necessary and does nothing if the job was cancelled before.
+     * The progress dialog is updated on the event dispatch thread.
+     */
+    @Override
+    public void run() {
+        if (cancelled.get())
+            return;
+        SwingUtilities.invokeLater(() -> progressDialog.setTitle((export.getPreviewScale() < 1 ? "Rendering preview: " : "Rendering: ") + target.getName()));
+        try {
+            MidiPlayer.Snapshot data = snapshot.get();
+            int frameCount = export.frameCount(data.getEvents(), data.tempoMap);
+            SwingUtilities.invokeLater(() -> progressDialog.setMaximum(frameCount));
+            KeyStateIndex keyStates = new KeyStateIndex(data.noteIndex.filter(export.getVisibleChannels()));
+            IntConsumer progress = frame -> SwingUtilities.invokeLater(() -> progressDialog.update(frame));
+            if (singleFrames)
+                export.renderFrames(target, data.noteIndex, data.tempoMap, keyStates, progress, cancelled);
+            else
+                export.renderVideo(target, data.getEvents(), data.noteIndex, data.tempoMap, keyStates, progress, cancelled);
+            SwingUtilities.invokeLater(progressDialog::dispose);
+        } catch (Exception e) {
+            e.printStackTrace();
+            SwingUtilities.invokeLater(progressDialog::dispose);
+            if (!singleFrames)
+                for (File video : export.getTargets(target))
+                    video.delete();
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(parent, "Export of " + target.getName() + " failed", "Export error",
+                    JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
+    /**
+     * getter for {@link #progressDialog}
+     *
+     * @return the progress dialog of this job
+     */
+    public ProgressDialog getProgressDialog() {
+        return progressDialog;
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queue of export jobs, the {@link ExportJob}s of the window or the jobs of the {@link RenderServer}. The jobs are executed by a fixed number of worker threads, further jobs wait in the queue.
+ */
+public class ExportManager {
+    /** executes the jobs */
+    private final ThreadPoolExecutor executor;
+    /** number of submitted jobs that are not finished */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * create an export manager
+     *
+     * @param threads maximum number of jobs that are executed at the same time
+     */
+    public ExportManager(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "Export-" + count.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * adds a job to the queue
+     *
+     * @param job export job
+     */
+    public void submit(Runnable job) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                job.run();
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * @return number of jobs that are waiting or running
+     */
+    public int getPendingJobs() {
+        return pending.get();
+    }
+}
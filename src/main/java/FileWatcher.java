@@ -0,0 +1,85 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a file with a {@link WatchService} on its directory and calls a listener on a background thread when the file was written or replaced.
+ * Programs write a file in several steps, so the listener is called when no further change of the file was reported for {@link #SETTLE_MILLIS}.
+ */
+public class FileWatcher {
+    /** time in milliseconds without changes of the file before the listener is called */
+    private static final long SETTLE_MILLIS = 300;
+
+    /** the watched file */
+    private final File file;
+    /** watches the directory of the file */
+    private final WatchService service;
+    /** called after the file changed */
+    private final Runnable listener;
+
+    /**
+     * starts watching a file
+     *
+     * @param file     the file
+     * @param listener called on the watching thread after the file changed, the next changes are reported after it returned
+     * @throws IOException if the directory of the file cannot be watched
+     */
+    public FileWatcher(File file, Runnable listener) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.listener = listener;
+        Path directory = this.file.getParentFile().toPath();
+        service = directory.getFileSystem().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(this::watch, "FileWatcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * waits for changes of the file until the watcher is closed, runs on the watching thread
+     */
+    private void watch() {
+        try {
+            while (true) {
+                if (!isChanged(service.take()))
+                    continue;
+                long settled = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+                for (long remaining; (remaining = settled - System.nanoTime()) > 0; ) {
+                    WatchKey key = service.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (key != null && isChanged(key))
+                        settled = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+                }
+                listener.run();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * takes the events of a key and resets it
+     *
+     * @param key signalled key of the directory
+     * @return true if an event concerns the file or events were lost
+     */
+    private boolean isChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents())
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getName().equals(String.valueOf(event.context())))
+                changed = true;
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * stops watching, the listener is not called anymore unless it is running
+     */
+    public void close() {
+        try {
+            service.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.io.*;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Persistent cache of exported frames. The frames of a video export are stored as {@link ChannelMap}s in a frame file of the cache directory,
+ * which is named after a key of all export settings except the channel colors. An export with the same key reads the channel maps and recolors
+ * them instead of painting the frames. The least recently used frame files are deleted when the cache directory exceeds its maximum size.
+ */
+public class FrameCache {
+    /** first bytes of a frame file */
+    private static final int MAGIC = 0x4D564643; // MVFC
+    /** version of the file format, has to be increased whenever the format changes */
+    private static final int VERSION = 1;
+    /** file extension of frame files */
+    private static final String EXTENSION = ".frames";
+
+    /** directory containing the frame files */
+    private final File directory;
+    /** maximum size of all frame files in bytes */
+    private final long maxSize;
+
+    /**
+     * a frame file that is being written, it replaces the frame file of its key when it is stored
+     */
+    public class Writer {
+        /** the frame file */
+        private final File file;
+        /** the written file, renamed to the frame file when it is stored */
+        private final File tmp;
+        /** stream of the written file */
+        public final DataOutputStream out;
+
+        private Writer(File file, File tmp) throws IOException {
+            this.file = file;
+            this.tmp = tmp;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        }
+
+        /**
+         * marks the end of the frames, replaces the frame file of the key and deletes the least recently used frame files
+         */
+        public void store() {
+            try {
+                ChannelMap.writeEnd(out);
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                discard();
+                return;
+            }
+            if ((!file.exists() || file.delete()) && tmp.renameTo(file))
+                evict();
+            else
+                tmp.delete();
+        }
+
+        /**
+         * deletes the written file, for example if the export was cancelled
+         */
+        public void discard() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * create a frame cache
+     *
+     * @param directory cache directory, created if it does not exist
+     * @param maxSize   maximum size of all frame files in bytes
+     */
+    public FrameCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * opens the frame file of a key
+     *
+     * @param key    key of the export settings
+     * @param width  frame width
+     * @param height frame height
+     * @return a stream positioned at the first frame or null if there is no valid frame file for the key
+     */
+    public DataInputStream open(long key, int width, int height) {
+        File file = frameFile(key);
+        if (!file.isFile())
+            return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != key || in.readInt() != width || in.readInt() != height) {
+                in.close();
+                return null;
+            }
+            file.setLastModified(System.currentTimeMillis()); // marks the file as recently used
+            return in;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * starts writing the frame file of a key, the frames are written with {@link ChannelMap#write(DataOutputStream)}
+     *
+     * @param key    key of the export settings
+     * @param width  frame width
+     * @param height frame height
+     * @return the writer or null if the cache directory cannot be written
+     */
+    public Writer create(long key, int width, int height) {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            return null;
+        File file = frameFile(key);
+        try {
+            // exports with the same key may run at the same time, each writes its own file
+            Writer writer = new Writer(file, File.createTempFile(file.getName(), ".tmp", directory));
+            writer.out.writeInt(MAGIC);
+            writer.out.writeInt(VERSION);
+            writer.out.writeLong(key);
+            writer.out.writeInt(width);
+            writer.out.writeInt(height);
+            return writer;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * deletes the least recently used frame files until the total size of the cache is at most {@link #maxSize}
+     */
+    private void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - 1 && total > maxSize; i++) { // the newest file is always kept
+            long length = files[i].length();
+            if (files[i].delete())
+                total -= length;
+        }
+    }
+
+    /**
+     * @return the frame file of a key
+     */
+    private File frameFile(long key) {
+        return new File(directory, String.format("%016x", key) + EXTENSION);
+    }
+}
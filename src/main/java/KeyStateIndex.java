@@ -0,0 +1,189 @@
+import java.util.Arrays;
+
+/**
+ * Reconstructs the pressed keys at an arbitrary tick. The note-on and note-off events of all notes are replayed once and the key state is saved
+ * every {@link #CHECKPOINT_INTERVAL} events. The key state at a tick is restored from the last checkpoint before this tick and at most
+ * {@link #CHECKPOINT_INTERVAL} following events, thus seeking takes the same time at any position of any file.
+ * <p>
+ * A key is pressed at tick t by a note with start &lt;= t &lt; end. Events at the same tick are replayed note-off first,
+ * so a note starting where another one ends on the same key keeps the key pressed.
+ */
+public class KeyStateIndex {
+    /** number of events between two checkpoints */
+    private static final int CHECKPOINT_INTERVAL = 4096;
+
+    /** the indexed notes */
+    private final NoteIndex noteIndex;
+    /** positions of the notes in the note index sorted by the start ticks */
+    private final int[] byStart;
+    /** for each checkpoint the number of replayed note-on events */
+    private final int[] checkpointOns;
+    /** for each checkpoint the number of replayed note-off events, which are the first notes of the note index */
+    private final int[] checkpointOffs;
+    /** for each checkpoint the tick of the last replayed event or {@link Long#MIN_VALUE} if no event was replayed */
+    private final long[] checkpointTicks;
+    /** for each checkpoint the channel playing each key, {@link MIDIVisualizer#NOTE_COUNT} bytes per checkpoint */
+    private final byte[] checkpointStates;
+
+    /**
+     * create the checkpoints for a note index
+     *
+     * @param noteIndex the notes
+     */
+    public KeyStateIndex(NoteIndex noteIndex) {
+        this.noteIndex = noteIndex;
+        int size = noteIndex.size();
+        byStart = sortByStart(noteIndex);
+        int count = (int) ((2L * size) / CHECKPOINT_INTERVAL) + 1;
+        checkpointOns = new int[count];
+        checkpointOffs = new int[count];
+        checkpointTicks = new long[count];
+        checkpointStates = new byte[count * MIDIVisualizer.NOTE_COUNT];
+
+        byte[] state = new byte[MIDIVisualizer.NOTE_COUNT];
+        Arrays.fill(state, NotePlayer.NO_CHANNEL);
+        int ons = 0, offs = 0;
+        long tick = Long.MIN_VALUE;
+        for (int checkpoint = 0; checkpoint < count; checkpoint++) {
+            if (checkpoint > 0)
+                for (int i = 0; i < CHECKPOINT_INTERVAL; i++) {
+                    if (nextIsOff(ons, offs)) {
+                        tick = noteIndex.get(offs).getEnd();
+                        state[noteIndex.get(offs++).getNote()] = NotePlayer.NO_CHANNEL;
+                    } else {
+                        Note note = noteIndex.get(byStart[ons++]);
+                        tick = note.getStart();
+                        press(note, state);
+                    }
+                }
+            checkpointOns[checkpoint] = ons;
+            checkpointOffs[checkpoint] = offs;
+            checkpointTicks[checkpoint] = tick;
+            System.arraycopy(state, 0, checkpointStates, checkpoint * MIDIVisualizer.NOTE_COUNT, MIDIVisualizer.NOTE_COUNT);
+        }
+    }
+
+    /**
+     * @param ons  number of replayed note-on events
+     * @param offs number of replayed note-off events
+     * @return true if the next event is a note-off event
+     */
+    private boolean nextIsOff(int ons, int offs) {
+        if (ons == byStart.length)
+            return true;
+        return offs < noteIndex.size() && noteIndex.get(offs).getEnd() <= noteIndex.get(byStart[ons]).getStart();
+    }
+
+    /**
+     * replays the note-on event of a note, notes without duration never press their key
+     */
+    private static void press(Note note, byte[] state) {
+        if (note.getEnd() > note.getStart())
+            state[note.getNote()] = (byte) note.getChannel();
+    }
+
+    /**
+     * Sorts the positions of the notes by their start ticks. Notes with the same start keep their order.
+     *
+     * @param noteIndex the notes
+     * @return positions in the note index sorted by the start ticks
+     */
+    private static int[] sortByStart(NoteIndex noteIndex) {
+        int size = noteIndex.size();
+        int[] positions = new int[size], buffer = new int[size];
+        long[] starts = new long[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = i;
+            starts[i] = noteIndex.get(i).getStart();
+        }
+        // bottom-up merge sort, the notes are sorted by their end and thus already nearly sorted by their start
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int mid = Math.min(low + width, size), high = Math.min(low + 2 * width, size);
+                if (mid == high || starts[positions[mid - 1]] <= starts[positions[mid]]) {
+                    System.arraycopy(positions, low, buffer, low, high - low);
+                    continue;
+                }
+                for (int i = low, left = low, right = mid; i < high; i++)
+                    buffer[i] = right == high || left < mid && starts[positions[left]] <= starts[positions[right]] ? positions[left++] : positions[right++];
+            }
+            int[] swap = positions;
+            positions = buffer;
+            buffer = swap;
+        }
+        return positions;
+    }
+
+    /**
+     * Writes the channel playing each key at the given tick into the state array.
+     *
+     * @param tick  tick position
+     * @param state array of at least {@link MIDIVisualizer#NOTE_COUNT} bytes, receives the channel (0-15) or {@link NotePlayer#NO_CHANNEL} for each key
+     */
+    public void stateAt(long tick, byte[] state) {
+        int low = 0, high = checkpointTicks.length - 1;
+        while (low < high) { // last checkpoint with checkpointTicks <= tick
+            int mid = (low + high + 1) >>> 1;
+            if (checkpointTicks[mid] <= tick)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        System.arraycopy(checkpointStates, low * MIDIVisualizer.NOTE_COUNT, state, 0, MIDIVisualizer.NOTE_COUNT);
+        int ons = checkpointOns[low], offs = checkpointOffs[low];
+        while (true) {
+            if (nextIsOff(ons, offs)) {
+                if (offs == noteIndex.size() || noteIndex.get(offs).getEnd() > tick)
+                    return;
+                state[noteIndex.get(offs++).getNote()] = NotePlayer.NO_CHANNEL;
+            } else {
+                Note note = noteIndex.get(byStart[ons++]);
+                if (note.getStart() > tick)
+                    return;
+                press(note, state);
+            }
+        }
+    }
+
+    /**
+     * Writes the channel playing each key at the given tick into the state array without a key state index, for example while it is created.
+     * Only the notes that end or start within {@link NoteIndex#getMaxDuration()} of the tick are scanned. For each key the last note-on and note-off
+     * event at or before the tick is searched, so the result is the same as from {@link #stateAt(long, byte[])}.
+     *
+     * @param noteIndex the notes
+     * @param channels  bit mask of the channels whose notes are taken
+     * @param tick      tick position
+     * @param state     array of at least {@link MIDIVisualizer#NOTE_COUNT} bytes, receives the channel (0-15) or {@link NotePlayer#NO_CHANNEL} for each key
+     */
+    public static void scanStateAt(NoteIndex noteIndex, int channels, long tick, byte[] state) {
+        Arrays.fill(state, 0, MIDIVisualizer.NOTE_COUNT, NotePlayer.NO_CHANNEL);
+        long[] lastOn = new long[MIDIVisualizer.NOTE_COUNT], lastOff = new long[MIDIVisualizer.NOTE_COUNT];
+        Arrays.fill(lastOn, Long.MIN_VALUE);
+        Arrays.fill(lastOff, Long.MIN_VALUE);
+        int end = noteIndex.startBound(tick);
+        for (int i = noteIndex.firstEndingFrom(tick - noteIndex.getMaxDuration()); i < end; i++) {
+            Note note = noteIndex.get(i);
+            if ((channels >> note.getChannel() & 1) == 0 || note.getStart() > tick)
+                continue;
+            int key = note.getNote();
+            if (note.getEnd() <= tick)
+                lastOff[key] = Math.max(lastOff[key], note.getEnd());
+            if (note.getEnd() > note.getStart() && note.getStart() >= lastOn[key]) { // notes with the same start are replayed in the order of the index
+                lastOn[key] = note.getStart();
+                state[key] = (byte) note.getChannel();
+            }
+        }
+        for (int key = 0; key < MIDIVisualizer.NOTE_COUNT; key++)
+            if (lastOff[key] > lastOn[key]) // events at the same tick are replayed note-off first
+                state[key] = NotePlayer.NO_CHANNEL;
+    }
+
+    /**
+     * getter for {@link #noteIndex}
+     *
+     * @return the indexed notes
+     */
+    public NoteIndex getNoteIndex() {
+        return noteIndex;
+    }
+}
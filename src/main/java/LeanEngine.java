@@ -0,0 +1,202 @@
+import javax.sound.midi.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays an {@link EventList} on the synthesizer of a {@link MidiOutput} without a sequencer. A playback thread sends each event when the
+ * {@link System#nanoTime()} clock reaches its time and parks until the next event. The messages are created only when they are sent,
+ * so no object per event is held while playing and the sequence can be released after loading.
+ * <p>
+ * When playing starts at a new position, the programs, controllers and pitch bends set before the position are sent first, like the sequencer chases them.
+ */
+public class LeanEngine implements PlaybackEngine {
+    /** number of controllers of a channel */
+    private static final int CONTROLLERS = 128;
+
+    /** the synthesizer, closed with this engine */
+    private final MidiOutput output;
+    /** receiver of the synthesizer, null if there is no synthesizer */
+    private final Receiver synthesizer;
+    /** converts the ticks of the events to microseconds, null until loaded */
+    private volatile TempoMap tempoMap;
+    /** for each channel and key true if a note-on was sent without note-off */
+    private final boolean[] sounding = new boolean[MIDIVisualizer.CHANNELS * MIDIVisualizer.MIDI_NOTES];
+    /** receives the played short messages, may be null */
+    private volatile Receiver receiver;
+    /** the played events, null until loaded */
+    private volatile EventList events;
+    /** the playback thread, null while stopped */
+    private Thread thread;
+    /** true while the playback thread should run */
+    private volatile boolean running;
+    /** position in ticks while stopped */
+    private volatile long positionTicks;
+    /** position in microseconds at {@link #startNanos} */
+    private volatile long startMicros;
+    /** {@link System#nanoTime()} when playing started */
+    private volatile long startNanos;
+    /** index of the next event, only changed by the playback thread while playing */
+    private int next;
+    /** true if the state of the channels at the position has to be sent before playing */
+    private boolean chase;
+
+    /**
+     * create an engine for the synthesizer of an output
+     *
+     * @param output the output, its sequencer is not used
+     * @throws MidiUnavailableException if the synthesizer has no receiver
+     */
+    public LeanEngine(MidiOutput output) throws MidiUnavailableException {
+        this.output = output;
+        synthesizer = output.getSynthesizer() == null ? null : output.getSynthesizer().getReceiver();
+    }
+
+    @Override
+    public synchronized void load(Sequence sequence, EventList events, TempoMap tempoMap) {
+        stop();
+        this.tempoMap = tempoMap;
+        this.events = events;
+        setTickPosition(0);
+    }
+
+    @Override
+    public boolean usesEvents() {
+        return true;
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public synchronized void start() {
+        EventList events = this.events;
+        if (thread != null || events == null)
+            return;
+        if (chase) { // after a new position, otherwise the playing continues at the first event that was not sent yet
+            chase(events);
+            next = events.indexOf(positionTicks);
+            chase = false;
+        }
+        startMicros = tempoMap.toMicros(positionTicks);
+        startNanos = System.nanoTime();
+        running = true;
+        thread = new Thread(() -> play(events), "LeanEngine");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Sends the events in time until stopped or all events are sent. Runs on the playback thread.
+     *
+     * @param events the played events
+     */
+    private void play(EventList events) {
+        while (running && next < events.size()) {
+            long wait = startNanos + (tempoMap.toMicros(events.getTick(next)) - startMicros) * 1000 - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(this, wait);
+            else
+                send(events, events.getMessage(next++));
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (thread == null)
+            return;
+        positionTicks = getTickPosition();
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        for (int i = 0; i < sounding.length; i++)
+            if (sounding[i])
+                send(events, EventRingBuffer.pack(ShortMessage.NOTE_OFF | i / MIDIVisualizer.MIDI_NOTES, i % MIDIVisualizer.MIDI_NOTES, 0));
+    }
+
+    @Override
+    public long getTickPosition() {
+        if (!running)
+            return positionTicks;
+        return tempoMap.toTicks(startMicros + (System.nanoTime() - startNanos) / 1000);
+    }
+
+    @Override
+    public synchronized void setTickPosition(long tick) {
+        positionTicks = tick;
+        chase = true;
+    }
+
+    /**
+     * sends the last program, controller values and pitch bend of each channel before the position
+     *
+     * @param events the played events
+     */
+    private void chase(EventList events) {
+        int[] state = new int[MIDIVisualizer.CHANNELS * (CONTROLLERS + 2)]; // packed messages, 0 if not set
+        for (int i = 0, end = events.indexOf(positionTicks); i < end; i++) {
+            int message = events.getMessage(i);
+            if (message < 0)
+                continue;
+            int offset = (EventRingBuffer.status(message) & 0x0F) * (CONTROLLERS + 2);
+            switch (EventRingBuffer.status(message) & 0xF0) {
+                case ShortMessage.CONTROL_CHANGE:
+                    state[offset + EventRingBuffer.data1(message)] = message;
+                    break;
+                case ShortMessage.PROGRAM_CHANGE:
+                    state[offset + CONTROLLERS] = message;
+                    break;
+                case ShortMessage.PITCH_BEND:
+                    state[offset + CONTROLLERS + 1] = message;
+                    break;
+            }
+        }
+        for (int message : state)
+            if (message != 0)
+                send(events, message);
+    }
+
+    /**
+     * sends a message to the synthesizer and, if it is a short message, to the {@link #receiver}
+     *
+     * @param events  the played events
+     * @param message packed message, see {@link EventList#getMessage(int)}
+     */
+    private void send(EventList events, int message) {
+        if (message >= 0) {
+            int command = EventRingBuffer.status(message) & 0xF0;
+            int key = (EventRingBuffer.status(message) & 0x0F) * MIDIVisualizer.MIDI_NOTES + EventRingBuffer.data1(message);
+            if (command == ShortMessage.NOTE_ON && EventRingBuffer.data2(message) > 0)
+                sounding[key] = true;
+            else if (command == ShortMessage.NOTE_ON || command == ShortMessage.NOTE_OFF)
+                sounding[key] = false;
+        }
+        try {
+            MidiMessage midiMessage = events.toMessage(message);
+            if (synthesizer != null)
+                synthesizer.send(midiMessage, -1);
+            Receiver receiver = this.receiver;
+            if (receiver != null && message >= 0)
+                receiver.send(midiMessage, -1);
+        } catch (InvalidMidiDataException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Synthesizer getSynthesizer() {
+        return output.getSynthesizer();
+    }
+
+    @Override
+    public synchronized void close() {
+        stop();
+        output.close();
+    }
+}
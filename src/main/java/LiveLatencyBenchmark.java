@@ -0,0 +1,85 @@
+import javax.sound.midi.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Plays a midi file on a sequencer into a {@link LivePlayer} and paints it like the window does, to measure the latency from receiving a note-on event
+ * to painting it and the allocation of the frames.
+ * <p>
+ * Usage: {@code java -Djava.awt.headless=true -cp MIDIVisualizer.jar LiveLatencyBenchmark [seconds] file.mid}
+ * <br>
+ * The mean and maximum input-to-paint latency, the painted frames per second and the bytes allocated by {@link LivePlayer#update()} per frame are printed.
+ */
+public class LiveLatencyBenchmark {
+    /** default playing time in seconds */
+    private static final int SECONDS = 20;
+    /** size of the painted frames */
+    private static final int WIDTH = 1920, HEIGHT = 1080;
+    /** frame interval of the live view in nanoseconds, like its repaint timer */
+    private static final long FRAME_NANOS = 4000000;
+
+    public static void main(String[] args) throws IOException, InvalidMidiDataException, MidiUnavailableException {
+        int seconds = SECONDS;
+        File file = null;
+        for (String arg : args) {
+            if (arg.matches("\\d+"))
+                seconds = Integer.parseInt(arg);
+            else
+                file = new File(arg);
+        }
+        if (file == null) {
+            System.err.println("usage: LiveLatencyBenchmark [seconds] file.mid");
+            System.exit(2);
+        }
+        MIDIVisualizer.loadImages();
+        MIDIVisualizer.backgroundColor = new Color(44, 44, 44);
+        Color[] colors = new Color[MIDIVisualizer.CHANNELS];
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = Color.getHSBColor(i / 16f, 0.7f, 0.9f);
+
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        sequencer.open();
+        sequencer.setSequence(MidiSystem.getSequence(file));
+        LivePlayer player = new LivePlayer(null, sequencer, false);
+        BufferedImage view = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        sequencer.start();
+        long start = System.nanoTime(), end = start + seconds * 1000000000L, updateBytes = 0;
+        int frames = 0;
+        for (long next = start; next < end && sequencer.isRunning(); next += FRAME_NANOS) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                sleep(wait);
+            long before = threads.getThreadAllocatedBytes(thread);
+            player.update();
+            updateBytes += threads.getThreadAllocatedBytes(thread) - before;
+            Graphics g = view.getGraphics();
+            MIDIVisualizer.paintMidiPlayer(g, player, WIDTH, HEIGHT, 0, 52, colors, MIDIVisualizer.ALL_CHANNELS, null, null);
+            g.dispose();
+            player.framePainted();
+            frames++;
+        }
+        long nanos = System.nanoTime() - start;
+        sequencer.stop();
+        player.close();
+        System.out.printf("%d notes, latency mean %.2f ms, max %.2f ms, %.1f fps, update %d bytes per frame%n", player.getLatencyCount(),
+                player.getMeanLatency(), player.getMaxLatency(), frames * 1e9 / nanos, updateBytes / Math.max(frames, 1));
+        System.exit(0);
+    }
+
+    /**
+     * @param nanos time to sleep in nanoseconds
+     */
+    private static void sleep(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
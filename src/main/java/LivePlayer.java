@@ -0,0 +1,246 @@
+import javax.sound.midi.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Visualizes a live performance received from the transmitter of a midi device. The events are passed from the transmitter thread to the painting thread
+ * by a lock-free {@link EventRingBuffer}. Notes are created while they are played and scroll upwards, notes that left the screen are retired.
+ */
+public class LivePlayer implements NotePlayer, Receiver {
+    /** ticks per second of the live timeline, equal to 120 bpm at a resolution of 480 ticks per quarter note */
+    private static final int TICKS_PER_SECOND = 960;
+    /** finished notes are kept while they are less than this many pixels above the keyboard */
+    private static final int RETAINED_PIXELS = 8192;
+
+    /** events received from the transmitter */
+    private final EventRingBuffer events = new EventRingBuffer(4096);
+    /** buffers for draining {@link #events} */
+    private final int[] drainedMessages = new int[256];
+    private final long[] drainedTimes = new long[256];
+    /** finished notes sorted by the end ticks */
+    private final ArrayDeque<Note> finished = new ArrayDeque<>();
+    /** for each channel and note (index 0-87) the start tick of the currently playing note or -1 */
+    private final long[][] startTicks = new long[MIDIVisualizer.CHANNELS][MIDIVisualizer.NOTE_COUNT];
+    /** saves for each note (index 0-87) the channel on which this note is played or {@link #NO_CHANNEL} if the note is not played */
+    private final byte[] playing;
+    /** {@link System#nanoTime()} at tick 0 */
+    private final long startTime = System.nanoTime();
+    /** parent frame */
+    private final MIDIVisualizer parent;
+    /** source of the events, closed with this player */
+    private final MidiDevice device;
+    /** true if {@link MIDIVisualizer#NOTE_OFFSET} is added to the received notes */
+    private final boolean transpose;
+    /** the timer which is used to repaint the parent frame */
+    private Timer timer;
+    /**
+     * finished and playing notes, rebuilt only when a note started or ended. The playing notes extend {@link #RETAINED_PIXELS} below the keyboard,
+     * which hides them, so they grow with the time without being created again each frame.
+     */
+    private NoteIndex noteIndex = new NoteIndex(new ArrayList<>());
+    /** the tick until which {@link #noteIndex} can be shown, half the extension of the playing notes beyond the tick it was built at */
+    private long noteIndexValid;
+    /** current tick position, updated by {@link #update()} */
+    private long ticks;
+
+    /** number, sum of the timestamps and oldest timestamp of the note-on events that were drained but not painted yet */
+    private int pendingEvents;
+    private long pendingTimeSum, pendingOldest;
+    /** input-to-paint latency statistics in nanoseconds */
+    private long latencySum, latencyMax, latencyCount;
+
+    /**
+     * create a live player and connect it to the transmitter of the given device
+     *
+     * @param parent    parent frame
+     * @param device    midi input device, opened if necessary and closed with this player
+     * @param transpose true to add {@link MIDIVisualizer#NOTE_OFFSET} to the received notes
+     * @throws MidiUnavailableException if the device cannot be opened or has no transmitter
+     */
+    public LivePlayer(MIDIVisualizer parent, MidiDevice device, boolean transpose) throws MidiUnavailableException {
+        this.parent = parent;
+        this.device = device;
+        this.transpose = transpose;
+        playing = new byte[MIDIVisualizer.NOTE_COUNT];
+        Arrays.fill(playing, NO_CHANNEL);
+        for (long[] arr : startTicks)
+            Arrays.fill(arr, -1);
+        if (!device.isOpen())
+            device.open();
+        device.getTransmitter().setReceiver(this);
+    }
+
+    /**
+     * called by the transmitter thread, the only producer of {@link #events}
+     */
+    @Override
+    public void send(MidiMessage message, long timeStamp) {
+        if (!(message instanceof ShortMessage))
+            return;
+        ShortMessage sm = (ShortMessage) message;
+        if (sm.getCommand() != ShortMessage.NOTE_ON && sm.getCommand() != ShortMessage.NOTE_OFF)
+            return;
+        if (!events.offer(EventRingBuffer.pack(sm.getStatus(), sm.getData1(), sm.getData2()), System.nanoTime()))
+            System.err.println("live input buffer overflow, event dropped");
+    }
+
+    /**
+     * Processes the received events and updates the notes. Has to be called by the painting thread before each frame.
+     * The notes are only rebuilt if a note started or ended or the playing notes do not reach the keyboard anymore.
+     */
+    public void update() {
+        int count;
+        boolean changed = false;
+        while ((count = events.drain(drainedMessages, drainedTimes)) > 0) {
+            for (int i = 0; i < count; i++) {
+                int status = EventRingBuffer.status(drainedMessages[i]), velocity = EventRingBuffer.data2(drainedMessages[i]);
+                int channel = status & 0x0F, note = EventRingBuffer.data1(drainedMessages[i]) + (transpose ? MIDIVisualizer.NOTE_OFFSET : 0) - 1;
+                if (note < 0 || note >= MIDIVisualizer.NOTE_COUNT)
+                    continue;
+                long tick = toTicks(drainedTimes[i]);
+                if ((status & 0xF0) == ShortMessage.NOTE_ON && velocity > 0) {
+                    if (startTicks[channel][note] == -1) {
+                        startTicks[channel][note] = tick;
+                        changed = true;
+                    }
+                    playing[note] = (byte) channel;
+                    if (pendingEvents++ == 0)
+                        pendingOldest = drainedTimes[i];
+                    pendingTimeSum += drainedTimes[i];
+                } else if (startTicks[channel][note] != -1) {
+                    finished.add(new Note(channel, note + 1, startTicks[channel][note], Math.max(tick, startTicks[channel][note])));
+                    startTicks[channel][note] = -1;
+                    changed = true;
+                    if (playing[note] == channel)
+                        playing[note] = NO_CHANNEL;
+                }
+            }
+        }
+        ticks = toTicks(System.nanoTime());
+        if (!changed && ticks < noteIndexValid)
+            return;
+        while (!finished.isEmpty() && finished.peekFirst().getEnd() < ticks - (long) RETAINED_PIXELS * MIDIVisualizer.TICKS_PER_PIXEL)
+            finished.pollFirst();
+
+        long extension = (long) RETAINED_PIXELS * MIDIVisualizer.TICKS_PER_PIXEL;
+        ArrayList<Note> notes = new ArrayList<>(finished.size() + 16);
+        notes.addAll(finished);
+        for (int channel = 0; channel < MIDIVisualizer.CHANNELS; channel++)
+            for (int note = 0; note < MIDIVisualizer.NOTE_COUNT; note++)
+                if (startTicks[channel][note] != -1)
+                    notes.add(new Note(channel, note + 1, startTicks[channel][note], ticks + extension));
+        noteIndex = new NoteIndex(notes);
+        noteIndexValid = ticks + extension / 2;
+    }
+
+    /**
+     * Has to be called by the painting thread after each frame, measures the latency from receiving a note-on event to painting it.
+     */
+    public void framePainted() {
+        long now = System.nanoTime();
+        if (pendingEvents > 0) {
+            latencySum += pendingEvents * now - pendingTimeSum;
+            latencyCount += pendingEvents;
+            latencyMax = Math.max(latencyMax, now - pendingOldest);
+            pendingEvents = 0;
+            pendingTimeSum = 0;
+        }
+    }
+
+    /**
+     * @return the mean latency from receiving a note-on event to painting it in milliseconds, 0 if no note was painted yet
+     */
+    public double getMeanLatency() {
+        return latencyCount == 0 ? 0 : latencySum / 1e6 / latencyCount;
+    }
+
+    /**
+     * @return the maximum latency from receiving a note-on event to painting it in milliseconds
+     */
+    public double getMaxLatency() {
+        return latencyMax / 1e6;
+    }
+
+    /**
+     * @return the number of painted note-on events
+     */
+    public long getLatencyCount() {
+        return latencyCount;
+    }
+
+    /**
+     * convert a {@link System#nanoTime()} timestamp to ticks of the live timeline
+     */
+    private long toTicks(long time) {
+        return (time - startTime) * TICKS_PER_SECOND / 1000000000L;
+    }
+
+    /**
+     * starts the timer to update the ui
+     */
+    public synchronized void start() {
+        if (timer != null)
+            return;
+        timer = new Timer(true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                parent.repaint();
+            }
+        }, 0, 4);
+    }
+
+    /**
+     * stops the timer and closes the midi device
+     */
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        device.close();
+    }
+
+    @Override
+    public byte getChannel(int note) {
+        try {
+            return playing[note];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return NO_CHANNEL;
+        }
+    }
+
+    /**
+     * getter for {@link #noteIndex}
+     *
+     * @return the notes at the time of the last {@link #update()}
+     */
+    @Override
+    public NoteIndex getNoteIndex() {
+        return noteIndex;
+    }
+
+    /**
+     * getter for {@link #ticks}
+     *
+     * @return the tick position at the time of the last {@link #update()}
+     */
+    @Override
+    public long getTicks() {
+        return ticks;
+    }
+
+    @Override
+    public boolean isPaused() {
+        return false;
+    }
+
+    @Override
+    public boolean isLive() {
+        return true;
+    }
+}
@@ -8,6 +8,7 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.RoundRectangle2D;
 import java.awt.image.BufferedImage;
@@ -16,11 +17,17 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.Properties;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * MIDIVisualizer can read, play and export MIDI files.
@@ -65,7 +72,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class MIDIVisualizer extends JPanel {
     /** displayed text in the 'About' window */
-    public static final String infoText = "Shortcuts:\nFullscreen: F\nReset zoom: ESC\nExport video: Ctrl + E\nOpen MIDI: Ctrl + O\nRestart sequence: W\nMute: M\n\n\n\n"
+    public static final String infoText = "Shortcuts:\nFullscreen: F\nReset zoom: ESC\nExport video: Ctrl + E\nExport preview: Ctrl + Shift + E\nOpen MIDI: Ctrl + O\nLive MIDI input: Ctrl + L\nRestart sequence: W\nSeek: Left / Right or click the timeline\nMute: M\n\n\n\n"
             + "Leon Bartmann 2021\nReleased under the GNU GPL3 License\n<www.gnu.org/licenses/gpl-3.0>";
 
     /** number of notes supported by midi */
@@ -75,23 +82,47 @@ public class MIDIVisualizer extends JPanel {
     /** number of white keys of the {@link #NOTE_COUNT} notes */
     private static final int WHITE_KEYS = 52;
     /** Determines the speed at which the notes move down at playback. Can be configured in the config file. */
-    private static int TICKS_PER_PIXEL = 10;
+    static int TICKS_PER_PIXEL = 10;
+    /** height of the timeline at the top of the window, clicking or dragging in this area seeks */
+    private static final int TIMELINE_HEIGHT = 8;
+    /** time in microseconds that is skipped by the arrow keys */
+    private static final long SEEK_STEP = 5000000;
+    /** default length of an exported clip in seconds */
+    private static final long CLIP_LENGTH = 30;
     /** size of the original keyboard */
     private static final int KEYBOARD_WIDTH = 8827, KEYBOARD_HEIGHT = 866;
     /** Offset of the notes, added when read from the midi file. Can be configured in the config file. */
     public static int NOTE_OFFSET = 0;
     /** number of midi channels */
     public static final int CHANNELS = 16;
+    /** bit mask of all midi channels */
+    public static final int ALL_CHANNELS = (1 << CHANNELS) - 1;
+    /** distance of the control points of a quarter circle approximated by a cubic curve, relative to the radius */
+    private static final float ARC_CONTROL = 0.5522848f;
+    /** minimum number of notes in the painted range to paint them in lanes on several threads, see {@link #paintNoteLanes} */
+    private static final int LANE_MIN_NOTES = 1024;
+    /** path the notes are appended to before they are filled, one per painting thread so its arrays are reused */
+    private static final ThreadLocal<Path2D.Float> NOTE_PATH = ThreadLocal.withInitial(() -> new Path2D.Float(Path2D.WIND_NON_ZERO, 4096));
     /** saves the display color for each midi channel */
     public static final Color[] channelColors = new Color[CHANNELS];
+    /** bit mask of the channels whose notes are shown, bit i is set for channel i. Can be configured in the config file. */
+    static volatile int visibleChannels = ALL_CHANNELS;
+    /** bit mask of the channels that are played, bit i is set for channel i. Can be configured in the config file. */
+    static volatile int audibleChannels = ALL_CHANNELS;
+    /** the audible channels before all channels were muted by the shortcut */
+    private static int unmutedChannels = ALL_CHANNELS;
 
     /** most left and most right note, range from 0 to {@link #WHITE_KEYS} */
     private int leftNote = 0, rightNote = WHITE_KEYS;
 
-    /** file-chooser of this frame */
+    /** file-chooser of this frame, created by {@link #getFileChooser()} */
     private static JFileChooser fileChooser;
     /** the player playing the midi files */
     private static MidiPlayer player;
+    /** the running playlist, null if the files are opened one by one */
+    private static Playlist playlist;
+    /** the player showing the live midi input, shown instead of {@link #player} if not null */
+    private static LivePlayer livePlayer;
     /** main frame */
     private final JFrame frame;
     /** Images for background and the black key. Can be configured by putting a background.png next to the executable. */
@@ -102,8 +133,38 @@ public class MIDIVisualizer extends JPanel {
     private static Properties properties;
     /** background color, only used if no background image exists in the execution directory */
     public static Color backgroundColor;
+    /** cache of note indices, null if disabled in the config file */
+    static NoteCache noteCache;
+    /** cache of exported frames as channel maps, null if disabled in the config file */
+    static FrameCache frameCache;
+    /** pre-rendered note roll of the live view, null if disabled in the config file */
+    private static NoteStrip liveStrip;
+    /** frames of the playing file rendered ahead on a background thread, null if disabled in the config file */
+    private static RenderAhead renderAhead;
+    /** true if the notes are painted from pre-rendered tiles, see {@link NoteStrip}. Can be configured in the config file. */
+    private static boolean noteTiles = true;
+    /** output latency of the synthesizer in microseconds that the shown time is behind the playback, -1 to ask the synthesizer, see {@link VisualClock} */
+    static long audioLatency = -1;
+    /** number of threads painting the notes into an image, 1 to paint them on the calling thread. Can be configured in the config file. */
+    static int paintThreads = 1;
+    /** threads painting note lanes besides the calling thread, created when first needed */
+    private static ExecutorService lanePool;
+    /** shows the playing file at the time of its {@link VisualClock} */
+    private RenderingPlayer visualPlayer;
+    /** executes the video exports */
+    private static ExportManager exportManager;
+    /** reloads the opened file when it was written, null if no file is watched */
+    private FileWatcher fileWatcher;
+    /** the watched file, null if no file is watched */
+    private volatile File watchedFile;
+    /** notes per track of the watched file, a new version of the file only indexes its changed tracks again */
+    private volatile TrackIndex watchedTracks;
+    /** the shown player of the watched file, a new version is only shown if this player is still shown, only used on the event dispatch thread */
+    private MidiPlayer watchedPlayer;
     /** x position for the zoom range. Uses {@link Integer} to allow null values. */
     private Integer dragStart, mouseDragPos;
+    /** true while the timeline is dragged */
+    private boolean scrubbing;
     /**
      * file extension filters for export and open dialogs
      */
@@ -116,8 +177,6 @@ public class MIDIVisualizer extends JPanel {
         System.setProperty("log4j2.formatMsgNoLookups", "true");
         try {
             executionDirectory = new File(MIDIVisualizer.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParent();
-            blackKey = ImageIO.read(Objects.requireNonNull(MIDIVisualizer.class.getResourceAsStream("blackKey.png")));
-            icon = ImageIO.read(Objects.requireNonNull(MIDIVisualizer.class.getResourceAsStream("icon.png")));
 
             try (BufferedReader reader = new BufferedReader(new FileReader(executionDirectory + File.separator + "properties.config"))) {
                 properties = new Properties();
@@ -127,11 +186,18 @@ public class MIDIVisualizer extends JPanel {
                 properties = new Properties();
                 properties.load(MIDIVisualizer.class.getResourceAsStream("properties.config"));
             }
+            // the images are decoded while the look and feel is set up
+            FutureTask<Void> images = new FutureTask<>(() -> {
+                loadImages();
+                try {
+                    background = ImageIO.read(new File(executionDirectory + File.separator + properties.get("BACKGROUND_IMAGE")));
+                } catch (Exception ignored) {
+                }
+                return null;
+            });
+            new Thread(images, "ImageLoader").start();
+            FlatDarkLaf.setup();
             backgroundColor = ColorsDialog.toColor((String) properties.get("BACKGROUND_COLOR"));
-            try {
-                background = ImageIO.read(new File(executionDirectory + File.separator + properties.get("BACKGROUND_IMAGE")));
-            } catch (Exception ignored) {
-            }
             for (int i = 0; i < CHANNELS; i++) {
                 channelColors[i] = ColorsDialog.toColor((String) properties.get("Channel_" + (i + 1)));
                 if (channelColors[i] == null)
@@ -151,24 +217,164 @@ public class MIDIVisualizer extends JPanel {
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            noteTiles = !"OFF".equals(properties.get("NOTE_TILES"));
+            MidiOutput.lean = "LEAN".equals(properties.get("PLAYBACK_ENGINE"));
+            try {
+                String latency = properties.getProperty("AUDIO_LATENCY", "AUTO");
+                audioLatency = "AUTO".equals(latency) ? -1 : Math.max(0, Long.parseLong(latency) * 1000);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            try {
+                String threads = properties.getProperty("PAINT_THREADS", "AUTO");
+                paintThreads = "AUTO".equals(threads) ? Runtime.getRuntime().availableProcessors() : Math.max(1, Integer.parseInt(threads));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            visibleChannels = ALL_CHANNELS & ~parseChannels(properties.getProperty("HIDDEN_CHANNELS"));
+            audibleChannels = ALL_CHANNELS & ~parseChannels(properties.getProperty("MUTED_CHANNELS"));
+            String cacheDirectory = properties.getProperty("INDEX_CACHE", "cache");
+            if (!"OFF".equals(cacheDirectory)) {
+                File directory = new File(cacheDirectory);
+                if (!directory.isAbsolute())
+                    directory = new File(executionDirectory, cacheDirectory);
+                long cacheSize = 512;
+                try {
+                    cacheSize = Long.parseLong(properties.getProperty("INDEX_CACHE_SIZE", "512"));
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+                noteCache = new NoteCache(directory, cacheSize * 1024 * 1024);
+            }
+            String frameDirectory = properties.getProperty("EXPORT_FRAME_CACHE", "OFF");
+            if (!"OFF".equals(frameDirectory)) {
+                File directory = new File(frameDirectory);
+                if (!directory.isAbsolute())
+                    directory = new File(executionDirectory, frameDirectory);
+                long cacheSize = 4096;
+                try {
+                    cacheSize = Long.parseLong(properties.getProperty("EXPORT_FRAME_CACHE_SIZE", "4096"));
+                } catch (NumberFormatException e) {
+                    e.printStackTrace();
+                }
+                frameCache = new FrameCache(directory, cacheSize * 1024 * 1024);
+            }
+            if (noteTiles)
+                liveStrip = new NoteStrip();
+            try {
+                int renderAheadFrames = Integer.parseInt(properties.getProperty("RENDER_AHEAD", "3"));
+                if (renderAheadFrames > 0)
+                    renderAhead = new RenderAhead(renderAheadFrames, liveStrip);
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            int exportThreads = 2;
+            try {
+                exportThreads = Math.max(1, Integer.parseInt(properties.getProperty("EXPORT_THREADS", "2")));
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            exportManager = new ExportManager(exportThreads);
+            images.get();
 
-            new MIDIVisualizer();
-        } catch (IOException | URISyntaxException e) {
+            if (args.length > 0 && "--cds-training".equals(args[0])) {
+                trainClassDataSharing();
+            } else if (args.length > 0 && "--server".equals(args[0])) {
+                new RenderServer(args.length > 1 ? Integer.parseInt(args[1]) : 8080, exportManager, properties).start();
+            } else if (args.length > 0 && "--worker".equals(args[0])) {
+                // the protocol has no authentication, so the worker is only reachable from other hosts if configured
+                String address = args.length > 2 ? args[2] : properties.getProperty("WORKER_ADDRESS", "").trim();
+                new RenderWorker(address.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address),
+                        args.length > 1 ? Integer.parseInt(args[1]) : 8081, exportManager).start();
+            } else if (args.length > 0 && "--farm".equals(args[0])) {
+                int status = 0;
+                try {
+                    RenderFarm.run(args, properties);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    status = 1;
+                }
+                System.exit(status);
+            } else {
+                MIDIVisualizer visualizer = new MIDIVisualizer();
+                if (args.length > 0) {
+                    File source = new File(args[0]);
+                    SwingUtilities.invokeLater(() -> visualizer.openPlaylist(source));
+                }
+            }
+        } catch (IOException | URISyntaxException | InterruptedException e) {
             e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
         }
     }
 
+    /**
+     * Loads the classes used at startup, loading a file and painting without showing a window and exits.
+     * Used to create a class data sharing archive with -XX:ArchiveClassesAtExit, see the cds profile of the pom.
+     */
+    private static void trainClassDataSharing() {
+        try {
+            Sequence sequence = new Sequence(Sequence.PPQ, 480);
+            Track track = sequence.createTrack();
+            for (int i = 0; i < 64; i++) {
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, i % CHANNELS, 40 + i % 48, 64), i * 240L));
+                track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, i % CHANNELS, 40 + i % 48, 0), i * 240L + 480));
+            }
+            NoteIndex noteIndex = new NoteIndex(new NoteIndexer(sequence).indexUntil(Long.MAX_VALUE));
+            RenderingPlayer renderingPlayer = new RenderingPlayer(noteIndex, new TempoMap(sequence), new KeyStateIndex(noteIndex));
+            BufferedImage img = new BufferedImage(1280, 720, BufferedImage.TYPE_3BYTE_BGR);
+            for (NoteStrip strip : new NoteStrip[]{null, new NoteStrip()}) {
+                Graphics g = img.getGraphics();
+                paintMidiPlayer(g, renderingPlayer, img.getWidth(), img.getHeight(), 0, WHITE_KEYS, channelColors, visibleChannels, null, strip);
+                g.dispose();
+            }
+            MidiOutput.take().close();
+        } catch (InvalidMidiDataException | MidiUnavailableException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * loads the images of the black keys and the icon from the resources
+     *
+     * @throws IOException if an image cannot be read
+     */
+    static void loadImages() throws IOException {
+        blackKey = ImageIO.read(Objects.requireNonNull(MIDIVisualizer.class.getResourceAsStream("blackKey.png")));
+        icon = ImageIO.read(Objects.requireNonNull(MIDIVisualizer.class.getResourceAsStream("icon.png")));
+    }
+
     public MIDIVisualizer() throws IOException {
         super();
-        FlatDarkLaf.setup();
         JPopupMenu menu = new JPopupMenu();
         JMenuItem menuOpen = new JMenuItem("Open midi");
         menuOpen.addActionListener(event -> loadFile());
         menu.add(menuOpen);
+        JMenuItem menuPlaylist = new JMenuItem("Open playlist");
+        menuPlaylist.addActionListener(event -> {
+            JFileChooser chooser = getFileChooser();
+            chooser.setFileFilter(null);
+            chooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+            chooser.setSelectedFile(new File(""));
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+                openPlaylist(chooser.getSelectedFile());
+        });
+        menu.add(menuPlaylist);
+        JMenuItem menuLive = new JMenuItem("Live midi input");
+        menuLive.addActionListener(event -> connectLiveInput());
+        menu.add(menuLive);
         JMenuItem menuExport = new JMenuItem("Export video");
-        menuExport.addActionListener(event -> new Thread(MIDIVisualizer.this::exportVideo).start());
+        menuExport.addActionListener(event -> exportVideo(false));
         menu.add(menuExport);
-        JMenuItem menuColors = new JMenuItem("Color settings");
+        JMenuItem menuClip = new JMenuItem("Export clip");
+        menuClip.addActionListener(event -> exportClip());
+        menu.add(menuClip);
+        JMenuItem menuPreview = new JMenuItem("Export preview");
+        menuPreview.addActionListener(event -> exportVideo(true));
+        menu.add(menuPreview);
+        JMenuItem menuColors = new JMenuItem("Channel settings");
         menuColors.addActionListener(event -> new ColorsDialog(MIDIVisualizer.this));
         menu.add(menuColors);
         JMenuItem menuInfo = new JMenuItem("About");
@@ -201,6 +407,20 @@ public class MIDIVisualizer extends JPanel {
                 menuOpen.doClick();
             }
         });
+        getInputMap().put(KeyStroke.getKeyStroke("control L"), "CTRLL");
+        getActionMap().put("CTRLL", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                menuLive.doClick();
+            }
+        });
+        getInputMap().put(KeyStroke.getKeyStroke("control shift E"), "CTRLSHIFTE");
+        getActionMap().put("CTRLSHIFTE", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                menuPreview.doClick();
+            }
+        });
         getInputMap().put(KeyStroke.getKeyStroke("control E"), "CTRLE");
         getActionMap().put("CTRLE", new AbstractAction() {
             @Override
@@ -216,6 +436,32 @@ public class MIDIVisualizer extends JPanel {
                     player.restart();
             }
         });
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0), "LEFT");
+        getActionMap().put("LEFT", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                seekBy(-SEEK_STEP);
+            }
+        });
+        getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0), "RIGHT");
+        getActionMap().put("RIGHT", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                seekBy(SEEK_STEP);
+            }
+        });
+        getInputMap().put(KeyStroke.getKeyStroke("M"), "M");
+        getActionMap().put("M", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (audibleChannels != 0) {
+                    unmutedChannels = audibleChannels;
+                    setChannels(visibleChannels, 0);
+                } else {
+                    setChannels(visibleChannels, unmutedChannels);
+                }
+            }
+        });
         getInputMap().put(KeyStroke.getKeyStroke("F"), "F");
         getActionMap().put("F", new AbstractAction() {
             @Override
@@ -239,8 +485,14 @@ public class MIDIVisualizer extends JPanel {
         addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                if (SwingUtilities.isLeftMouseButton(e))
-                    dragStart = e.getX();
+                if (SwingUtilities.isLeftMouseButton(e)) {
+                    if (e.getY() < TIMELINE_HEIGHT && player != null && livePlayer == null) {
+                        scrubbing = true;
+                        seekTo(e.getX());
+                    } else {
+                        dragStart = e.getX();
+                    }
+                }
                 repaint();
             }
 
@@ -248,6 +500,7 @@ public class MIDIVisualizer extends JPanel {
             public void mouseReleased(MouseEvent e) {
                 if (!SwingUtilities.isLeftMouseButton(e))
                     return;
+                scrubbing = false;
                 if (dragStart != null && mouseDragPos != null) {
                     zoom();
                     repaint();
@@ -259,16 +512,23 @@ public class MIDIVisualizer extends JPanel {
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (SwingUtilities.isLeftMouseButton(e)) {
+                if (scrubbing) {
+                    seekTo(e.getX());
+                } else if (SwingUtilities.isLeftMouseButton(e)) {
                     mouseDragPos = e.getX();
                     repaint();
                 }
             }
         });
 
-        fileChooser = new JFileChooser();
-        fileChooser.setMultiSelectionEnabled(false);
-        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                // the sound bank is loaded while the user selects a file, the file chooser is created when the event queue is idle
+                MidiOutput.prepare();
+                SwingUtilities.invokeLater(() -> getFileChooser());
+            }
+        });
 
         frame.pack();
         frame.setLocationRelativeTo(null);
@@ -277,99 +537,186 @@ public class MIDIVisualizer extends JPanel {
         frame.setVisible(true);
 
         SwingUtilities.updateComponentTreeUI(frame);
-        SwingUtilities.updateComponentTreeUI(fileChooser);
     }
 
     /**
-     * Displays a file-chooser to select the export file and format and starts rendering the video.
-     * Blocks the executing thread until rendering is finished or cancelled.
+     * creates the file chooser when it is needed for the first time
+     *
+     * @return the file-chooser of this frame
      */
-    private synchronized void exportVideo() {
+    private static JFileChooser getFileChooser() {
+        if (fileChooser == null) {
+            fileChooser = new JFileChooser();
+            fileChooser.setMultiSelectionEnabled(false);
+            fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+            SwingUtilities.updateComponentTreeUI(fileChooser);
+        }
+        return fileChooser;
+    }
+
+    /**
+     * Asks for a time range and exports it as video, see {@link #exportVideo(boolean, long, long)}. The range defaults to
+     * {@link #CLIP_LENGTH} from the current position. Has to be called on the event dispatch thread.
+     */
+    private void exportClip() {
+        if (player == null)
+            return;
+        long position = player.getTempoMap().toMicros(player.getTicks()) / 1000000;
+        String range = (String) JOptionPane.showInputDialog(this, "Range (minutes:seconds - minutes:seconds):", "Export clip", JOptionPane.PLAIN_MESSAGE,
+                null, null, formatTime(position) + " - " + formatTime(position + CLIP_LENGTH));
+        if (range == null)
+            return;
+        try {
+            String[] parts = range.split("-");
+            if (parts.length != 2)
+                throw new IllegalArgumentException("a range needs a start and an end");
+            long start = parseTime(parts[0]), end = parseTime(parts[1]);
+            if (end <= start)
+                throw new IllegalArgumentException("the end is not after the start");
+            exportVideo(false, start, end);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Invalid range: " + e.getMessage(), "Export clip", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * parses a time of a clip
+     *
+     * @param time seconds or minutes:seconds, the seconds may have a fraction
+     * @return the time in microseconds
+     * @throws IllegalArgumentException if the time is invalid
+     */
+    static long parseTime(String time) {
+        String[] parts = time.trim().split(":");
+        if (parts.length > 2)
+            throw new IllegalArgumentException("invalid time " + time.trim());
+        double seconds = Double.parseDouble(parts[parts.length - 1]);
+        if (parts.length == 2)
+            seconds += Integer.parseInt(parts[0].trim()) * 60;
+        if (seconds < 0 || Double.isNaN(seconds))
+            throw new IllegalArgumentException("invalid time " + time.trim());
+        return (long) (seconds * 1000000);
+    }
+
+    /**
+     * @param seconds time in seconds
+     * @return the time as minutes:seconds
+     */
+    private static String formatTime(long seconds) {
+        return seconds / 60 + ":" + (seconds % 60 < 10 ? "0" : "") + seconds % 60;
+    }
+
+    /**
+     * Displays a file-chooser to select the export file and adds an export job for the current file to the {@link #exportManager}.
+     * The current zoom and colors are used for the video. Has to be called on the event dispatch thread.
+     *
+     * @param preview true to export a quick preview video with reduced resolution and frame rate, see {@link ExportJob}
+     */
+    private void exportVideo(boolean preview) {
+        exportVideo(preview, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Displays a file-chooser to select the export file and adds an export job for a time range of the current file to the {@link #exportManager}.
+     * The export starts directly at the start of the range. Has to be called on the event dispatch thread.
+     *
+     * @param preview true to export a quick preview video with reduced resolution and frame rate, see {@link ExportJob}
+     * @param start   start of the range in microseconds
+     * @param end     end of the range in microseconds, {@link Long#MAX_VALUE} for the end of the file
+     */
+    private void exportVideo(boolean preview, long start, long end) {
         if (player == null)
             return;
-        player.stop();
         int width = Integer.parseInt((String) properties.get("EXPORT_WIDTH")), height = Integer.parseInt((String) properties.get("EXPORT_HEIGHT"));
         int fps = Integer.parseInt((String) properties.get("EXPORT_FPS"));
-        AtomicBoolean cancelled = new AtomicBoolean(false);
-        ProgressDialog progressDialog = null;
-        if (!"SINGLE_FRAMES".equals(properties.get("EXPORT_MODE"))) {
-            VideoRenderer renderer = null;
-            File file = null;
+        boolean singleFrames = !preview && "SINGLE_FRAMES".equals(properties.get("EXPORT_MODE"));
+        double previewScale = 1;
+        if (preview) {
             try {
-                fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
-                fileChooser.setFileFilter(exportFilter);
-                fileChooser.setSelectedFile(new File(""));
-                if (fileChooser.showSaveDialog(this) == JFileChooser.CANCEL_OPTION)
-                    return;
-                file = fileChooser.getSelectedFile();
-                if (!file.isDirectory() && !file.getPath().toLowerCase().endsWith(".mp4"))
-                    file = new File(file + ".mp4");
-                if (file.exists()
-                        && JOptionPane.showConfirmDialog(this, "Overwrite existing file?", "File already exists", JOptionPane.YES_NO_OPTION) == JOptionPane.NO_OPTION)
-                    return;
-                progressDialog = new ProgressDialog(frame, (int) (player.getSequence().getMicrosecondLength() * fps / 1000000), () -> cancelled.set(true));
-                VideoRenderer.init();
-                RenderingPlayer renderingPlayer = new RenderingPlayer(player.getSequence(), player.getNotes());
-                frame.setEnabled(false);
-                renderer = new VideoRenderer(file.getPath(), "mp4", null, fps, width, height);
-                int frame = 0;
-                do {
-                    BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-                    Graphics g = img.getGraphics();
-                    paintMidiPlayer(g, renderingPlayer, width, height, null);
-                    g.dispose();
-                    renderer.addFrame(img);
-                    frame++;
-                    renderingPlayer.nextTime(frame * 1000000L / fps);
-                    progressDialog.update(frame);
-                } while (!cancelled.get() && !renderingPlayer.isAtEnd());
-                renderer.finish();
-                if (!cancelled.get())
-                    progressDialog.dispose();
-            } catch (Exception e) {
+                previewScale = Double.parseDouble(properties.getProperty("EXPORT_PREVIEW_SCALE", "0.5"));
+            } catch (NumberFormatException e) {
                 e.printStackTrace();
-                if (progressDialog != null)
-                    progressDialog.dispose();
-                if (renderer != null)
-                    renderer.finish();
-                if (file != null)
-                    file.delete();
-                JOptionPane.showMessageDialog(this, "Export of the video failed", "Export error", JOptionPane.ERROR_MESSAGE);
             }
+            previewScale = Math.max(0.05, Math.min(previewScale, 1));
+            fps = Math.max(1, (int) Math.round(fps * previewScale));
+        }
+        JFileChooser chooser = getFileChooser();
+        File file;
+        if (!singleFrames) {
+            chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+            chooser.setFileFilter(exportFilter);
+            chooser.setSelectedFile(new File(""));
+            if (chooser.showSaveDialog(this) == JFileChooser.CANCEL_OPTION)
+                return;
+            file = chooser.getSelectedFile();
+            if (!file.isDirectory() && !file.getPath().toLowerCase().endsWith(".mp4"))
+                file = new File(file + ".mp4");
+            if (file.exists()
+                    && JOptionPane.showConfirmDialog(this, "Overwrite existing file?", "File already exists", JOptionPane.YES_NO_OPTION) == JOptionPane.NO_OPTION)
+                return;
         } else {
-            try {
-                fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
-                fileChooser.setFileFilter(null);
-                fileChooser.setSelectedFile(fileChooser.getSelectedFile().isFile() ? fileChooser.getSelectedFile() : fileChooser.getSelectedFile().getParentFile());
-                if (fileChooser.showSaveDialog(this) == JFileChooser.CANCEL_OPTION)
-                    return;
-                File dir = fileChooser.getSelectedFile();
-                if (!dir.exists() && !dir.createNewFile())
-                    throw new Exception();
-                progressDialog = new ProgressDialog(frame, (int) (player.getSequence().getMicrosecondLength() * fps / 1000000), () -> cancelled.set(true));
-                RenderingPlayer renderingPlayer = new RenderingPlayer(player.getSequence(), player.getNotes());
-                frame.setEnabled(false);
-                int frame = 0;
-                do {
-                    BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-                    Graphics g = img.getGraphics();
-                    paintMidiPlayer(g, renderingPlayer, width, height, null);
-                    g.dispose();
-                    ImageIO.write(img, "png", new File(dir.getAbsolutePath() + File.separator + "frame " + frame + ".png"));
-                    frame++;
-                    renderingPlayer.nextTime(frame * 1000000L / fps);
-                    progressDialog.update(frame);
-                } while (!cancelled.get() && !renderingPlayer.isAtEnd());
-                if (!cancelled.get())
-                    progressDialog.dispose();
-            } catch (Exception e) {
-                if (progressDialog != null)
-                    progressDialog.dispose();
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            chooser.setFileFilter(null);
+            chooser.setSelectedFile(chooser.getSelectedFile().isFile() ? chooser.getSelectedFile() : chooser.getSelectedFile().getParentFile());
+            if (chooser.showSaveDialog(this) == JFileChooser.CANCEL_OPTION)
+                return;
+            file = chooser.getSelectedFile();
+            if (!file.exists() && !file.mkdirs()) {
                 JOptionPane.showMessageDialog(this, "Export of the video failed", "Export error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        }
+        VideoExport export = new VideoExport(width, height, fps, previewScale, !"OFF".equals(properties.get("EXPORT_AUDIO")), noteTiles && !preview,
+                leftNote, rightNote, channelColors, visibleChannels, audibleChannels);
+        if (!preview && !singleFrames)
+            export.setAdditionalSizes(parseSizes(properties.getProperty("EXPORT_ADDITIONAL_SIZES", "")));
+        export.setRange(start, end);
+        export.setBandHeight(parseBandHeight(properties.getProperty("EXPORT_BAND_HEIGHT", "AUTO")));
+        if (!preview)
+            export.setFrameCache(frameCache);
+        ExportJob job = new ExportJob(this, frame, player, file, singleFrames, export);
+        ProgressDialog dialog = job.getProgressDialog();
+        dialog.setLocation(dialog.getX(), dialog.getY() + exportManager.getPendingJobs() * dialog.getHeight());
+        exportManager.submit(job);
+    }
+
+    /**
+     * parses the height of the bands the video frames are rendered in
+     *
+     * @param bandHeight AUTO or the rows of a band, 0 to render whole frames
+     * @return the rows of a band or {@link VideoExport#AUTO_BANDS}
+     */
+    static int parseBandHeight(String bandHeight) {
+        try {
+            return Math.max(0, Integer.parseInt(bandHeight.trim()));
+        } catch (NumberFormatException e) {
+            return VideoExport.AUTO_BANDS;
+        }
+    }
+
+    /**
+     * parses a list of video sizes
+     *
+     * @param sizes sizes like 1280x720 separated by commas, invalid sizes are skipped, the encoder needs even and positive widths and heights
+     * @return the sizes
+     */
+    static Dimension[] parseSizes(String sizes) {
+        ArrayList<Dimension> result = new ArrayList<>();
+        for (String size : sizes.split(",")) {
+            String[] parts = size.trim().split("x");
+            try {
+                if (parts.length != 2)
+                    continue;
+                Dimension dimension = new Dimension(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+                if (dimension.width > 0 && dimension.height > 0 && dimension.width % 2 == 0 && dimension.height % 2 == 0)
+                    result.add(dimension);
+                else
+                    System.err.println("skipping the export size " + size.trim() + ", width and height have to be even and positive");
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
             }
         }
-        frame.setEnabled(true);
-        frame.toFront();
+        return result.toArray(new Dimension[0]);
     }
 
     /**
@@ -387,26 +734,262 @@ public class MIDIVisualizer extends JPanel {
 
     /**
      * Allows the user to import a new midi file. Does not consider if another midi file is currently loaded.
+     * The file is loaded on a background thread, the new player is shown as soon as the notes of the first seconds are indexed.
      */
     private synchronized void loadFile() {
-        fileChooser.setFileFilter(openFilter);
-        fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
-        fileChooser.setSelectedFile(new File(""));
-        if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+        JFileChooser chooser = getFileChooser();
+        chooser.setFileFilter(openFilter);
+        chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        chooser.setSelectedFile(new File(""));
+        if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+            File file = chooser.getSelectedFile();
+            closePlaylist();
+            stopWatching();
+            new Thread(() -> {
+                try {
+                    // only stop current player if no exception occurred while loading the new sequence
+                    boolean watching = "ON".equals(properties.get("WATCH_FILE"));
+                    MidiPlayer opened = MidiPlayer.open(this, file, newPlayer -> SwingUtilities.invokeLater(() -> showPlayer(newPlayer)), watching);
+                    if (watching)
+                        SwingUtilities.invokeLater(() -> watch(file, opened));
+                } catch (InvalidMidiDataException | MidiUnavailableException e) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "The loaded file does not point to valid MIDI file data recognized by the system",
+                            "Error loading file", JOptionPane.ERROR_MESSAGE));
+                } catch (Exception e) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "The selected file could not be read", "Error loading file",
+                            JOptionPane.ERROR_MESSAGE));
+                }
+            }, "MidiLoader").start();
+        }
+    }
+
+    /**
+     * Starts watching an opened file, each new version of the file is shown like {@link #reloadFile(File)} does it. Has to be called on the event dispatch
+     * thread. The file is not watched if another player is shown since it was opened.
+     *
+     * @param file   the opened file
+     * @param opened the player of the file, opened with its notes per track
+     */
+    private void watch(File file, MidiPlayer opened) {
+        if (player != opened || opened.getTrackIndex() == null) // another file was opened in the meantime or the player was closed while loading
+            return;
+        synchronized (this) {
+            stopWatching();
             try {
-                MidiPlayer newPlayer = new MidiPlayer(this, MidiSystem.getSequence(fileChooser.getSelectedFile()));
-                if (player != null) { // only stop current player if no exception occurred while loading the new sequence
-                    player.stop();
+                fileWatcher = new FileWatcher(file, () -> reloadFile(file));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            watchedFile = file;
+            watchedTracks = opened.getTrackIndex();
+            watchedPlayer = opened;
+        }
+        MidiOutput.prepare(); // the output of the next version is opened in advance
+    }
+
+    /**
+     * Loads the new version of the watched file and shows it at the position of the current player, it continues playing if the current player is playing.
+     * Only the changed tracks are indexed again, see {@link MidiPlayer#reload(MIDIVisualizer, File, TrackIndex)}. Runs on the thread of the {@link FileWatcher}.
+     *
+     * @param file the watched file
+     */
+    private void reloadFile(File file) {
+        try {
+            MidiPlayer newPlayer = MidiPlayer.reload(this, file, watchedTracks);
+            synchronized (this) {
+                if (file.equals(watchedFile))
+                    watchedTracks = newPlayer.getTrackIndex();
+            }
+            MidiOutput.prepare();
+            SwingUtilities.invokeLater(() -> {
+                MidiPlayer previous = player;
+                if (!file.equals(watchedFile) || previous == null || previous != watchedPlayer) { // another file was opened in the meantime
+                    newPlayer.close();
+                    return;
                 }
-                player = newPlayer;
-                repaint();
-            } catch (InvalidMidiDataException | MidiUnavailableException e) {
-                JOptionPane.showMessageDialog(this, "The loaded file does not point to valid MIDI file data recognized by the system", "Error loading file",
-                        JOptionPane.ERROR_MESSAGE);
-            } catch (Exception e) {
-                JOptionPane.showMessageDialog(this, "The selected file could not be read", "Error loading file", JOptionPane.ERROR_MESSAGE);
+                watchedPlayer = newPlayer;
+                boolean playing = !previous.isPaused();
+                long tick = previous.getTicks() * newPlayer.getTempoMap().getResolution() / previous.getTempoMap().getResolution();
+                showPlayer(newPlayer);
+                newPlayer.seek(tick);
+                if (playing)
+                    newPlayer.start();
+            });
+        } catch (InvalidMidiDataException | IOException e) {
+            System.err.println("the new version of " + file.getName() + " could not be loaded, the previous version is kept: " + e.getMessage());
+        } catch (MidiUnavailableException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * stops watching the opened file
+     */
+    private synchronized void stopWatching() {
+        if (fileWatcher != null) {
+            fileWatcher.close();
+            fileWatcher = null;
+        }
+        watchedFile = null;
+        watchedTracks = null;
+        watchedPlayer = null;
+    }
+
+    /**
+     * Shows a new player instead of the current player or live input, which are closed. Has to be called on the event dispatch thread.
+     *
+     * @param newPlayer the new player
+     */
+    void showPlayer(MidiPlayer newPlayer) {
+        if (player != null)
+            player.close();
+        if (livePlayer != null) {
+            livePlayer.close();
+            livePlayer = null;
+        }
+        player = newPlayer;
+        repaint();
+    }
+
+    /**
+     * Plays the files of a directory or list file one after another, replacing a running playlist. Has to be called on the event dispatch thread.
+     *
+     * @param source directory or list file, see {@link Playlist#read(File)}
+     */
+    private void openPlaylist(File source) {
+        try {
+            java.util.List<File> files = Playlist.read(source);
+            closePlaylist();
+            stopWatching();
+            playlist = new Playlist(this, files, "ON".equals(properties.get("PLAYLIST_LOOP")));
+            playlist.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "The playlist could not be read", "Error loading playlist", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * stops the running playlist, the current player is kept
+     */
+    private static void closePlaylist() {
+        if (playlist != null) {
+            playlist.close();
+            playlist = null;
+        }
+    }
+
+    /**
+     * parse a comma separated list of channel numbers
+     *
+     * @param list channel numbers from 1 to 16, may be null
+     * @return bit mask of the listed channels, bit i is set for channel i + 1
+     */
+    static int parseChannels(String list) {
+        int mask = 0;
+        if (list == null)
+            return mask;
+        for (String channel : list.split(",")) {
+            if (channel.trim().isEmpty())
+                continue;
+            try {
+                int number = Integer.parseInt(channel.trim());
+                if (number >= 1 && number <= CHANNELS)
+                    mask |= 1 << number - 1;
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * sets the visible and audible channels and applies them to the current player
+     *
+     * @param visible bit mask of the visible channels
+     * @param audible bit mask of the audible channels
+     */
+    void setChannels(int visible, int audible) {
+        visibleChannels = visible;
+        audibleChannels = audible;
+        if (player != null)
+            player.updateChannels();
+        repaint();
+    }
+
+    /**
+     * seeks the current player relative to its position
+     *
+     * @param micros time to skip in microseconds, negative to seek backwards
+     */
+    private void seekBy(long micros) {
+        if (player == null || livePlayer != null)
+            return;
+        TempoMap tempoMap = player.getTempoMap();
+        player.seek(tempoMap.toTicks(Math.max(0, tempoMap.toMicros(player.getTicks()) + micros)));
+    }
+
+    /**
+     * seeks the current player to the position of the timeline at the given x coordinate
+     *
+     * @param x x coordinate in this panel
+     */
+    private void seekTo(int x) {
+        if (player != null)
+            player.seek(player.getTickLength() * Math.max(0, Math.min(x, getWidth())) / Math.max(getWidth(), 1));
+    }
+
+    /**
+     * Lets the user select a midi input device and shows its live input. Besides the devices of the system, the loaded file can be used as a virtual input,
+     * it is then played by a separate sequencer whose transmitter feeds the live player.
+     */
+    private void connectLiveInput() {
+        java.util.List<MidiDevice> devices = new java.util.ArrayList<>();
+        java.util.List<String> names = new java.util.ArrayList<>();
+        for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+            try {
+                MidiDevice device = MidiSystem.getMidiDevice(info);
+                if (device.getMaxTransmitters() != 0 && !(device instanceof Sequencer)) {
+                    devices.add(device);
+                    names.add(info.getName());
+                }
+            } catch (MidiUnavailableException ignored) {
             }
         }
+        if (player != null && player.isSequenceLoaded())
+            names.add("Virtual input: loaded file");
+        if (names.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "No midi input device found", "Live midi input", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Object choice = JOptionPane.showInputDialog(this, "Input device:", "Live midi input", JOptionPane.PLAIN_MESSAGE, null, names.toArray(), names.get(0));
+        if (choice == null)
+            return;
+        int selected = names.indexOf(choice);
+        try {
+            LivePlayer newPlayer;
+            if (selected < devices.size()) {
+                newPlayer = new LivePlayer(this, devices.get(selected), true);
+            } else {
+                Sequencer sequencer = MidiSystem.getSequencer();
+                sequencer.open();
+                sequencer.setSequence(player.getEvents().toSequence(player.getTempoMap())); // the events are already transposed
+                newPlayer = new LivePlayer(this, sequencer, false);
+                sequencer.start();
+            }
+            closePlaylist();
+            stopWatching();
+            if (player != null)
+                player.pause();
+            if (livePlayer != null)
+                livePlayer.close();
+            livePlayer = newPlayer;
+            livePlayer.start();
+        } catch (MidiUnavailableException | InvalidMidiDataException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "The midi input device could not be opened", "Live midi input", JOptionPane.ERROR_MESSAGE);
+        }
     }
 
     /**
@@ -415,7 +998,7 @@ public class MIDIVisualizer extends JPanel {
      * @param note note ranging from 0 to 87
      * @return true if the note with the specified number is a white key
      */
-    private static boolean isWhiteKey(int note) {
+    static boolean isWhiteKey(int note) {
         note = note % 12;
         return !(note == 1 || note == 4 || note == 6 || note == 9 || note == 11);
     }
@@ -429,7 +1012,7 @@ public class MIDIVisualizer extends JPanel {
      * @param note note ranging from 0 to 87
      * @return the number of the key
      */
-    private static int noteToColoredKey(int note) {
+    static int noteToColoredKey(int note) {
         int octave = note / 12;
         int key;
         switch (note % 12) {
@@ -472,7 +1055,7 @@ public class MIDIVisualizer extends JPanel {
      * @param key white key number
      * @return the number of the corresponding note
      */
-    private static int whiteKeyToNote(int key) {
+    static int whiteKeyToNote(int key) {
         int octave = key / 7;
         int note;
         switch (key % 7) {
@@ -508,27 +1091,74 @@ public class MIDIVisualizer extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
 
-        paintMidiPlayer(g, player, this.getWidth(), this.getHeight(), this);
+        if (livePlayer != null) {
+            livePlayer.update();
+            paintMidiPlayer(g, livePlayer, this.getWidth(), this.getHeight(), leftNote, rightNote, channelColors, visibleChannels, this, null);
+            livePlayer.framePainted();
+            return;
+        }
+        if (renderAhead == null || !renderAhead.paint(g, player, getWidth(), getHeight(), leftNote, rightNote, channelColors, visibleChannels))
+            paintMidiPlayer(g, visiblePlayer(), this.getWidth(), this.getHeight(), leftNote, rightNote, channelColors, visibleChannels, this, liveStrip);
+        if (dragStart != null && mouseDragPos != null) {
+            int noteHeight = getHeight() - keyboardHeight(getWidth(), leftNote, rightNote);
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawLine(dragStart, 0, dragStart, noteHeight);
+            g.drawLine(mouseDragPos, 0, mouseDragPos, noteHeight);
+            g.setColor(new Color(0, 0, 0, 50));
+            g.fillRect(dragStart, 0, mouseDragPos - dragStart, noteHeight);
+        }
+        if (player != null) {
+            long length = player.getTickLength();
+            g.setColor(new Color(0, 0, 0, 128));
+            g.fillRect(0, 0, getWidth(), TIMELINE_HEIGHT);
+            g.setColor(player.isLoaded() ? Color.LIGHT_GRAY : Color.GRAY);
+            g.fillRect(0, 0, length == 0 ? 0 : (int) (Math.min(player.getTicks(), length) * getWidth() / length), TIMELINE_HEIGHT);
+        }
+    }
+
+    /**
+     * While the file plays, its notes and keys are reconstructed at the time of its {@link VisualClock}, which follows the sound instead of the engine.
+     *
+     * @return the player to paint
+     */
+    private NotePlayer visiblePlayer() {
+        if (player == null || player.isPaused() || !player.isLoaded())
+            return player;
+        KeyStateIndex keyStates = player.getKeyStates(visibleChannels);
+        if (keyStates == null) // created on a background thread, until then the keys of the engine are shown
+            return player;
+        if (visualPlayer == null || visualPlayer.getKeyStates() != keyStates || visualPlayer.getNoteIndex() != player.getNoteIndex())
+            visualPlayer = new RenderingPlayer(player.getNoteIndex(), player.getTempoMap(), keyStates);
+        visualPlayer.nextTime(player.getVisualMicros());
+        return visualPlayer;
     }
 
     /**
      * Paints a {@link NotePlayer} with the given graphics object in the given size.
-     * The keyboard-section that is printed is determined by {@link #leftNote} and {@link #rightNote}.
+     * The keyboard-section that is printed is determined by leftNote and rightNote.
      * The keyboard always spans the whole width and is aligned on the bottom.
      * The background is scaled to match the remaining space above the keyboard and is painted centered.
+     * Antialiasing is used unless it is explicitly turned off for the graphics object.
      *
      * @param g          graphics object
      * @param player     the midi player, provides the notes and key-press states
      * @param areaWidth  paint area width
      * @param areaHeight paint area height
+     * @param leftNote   most left white key
+     * @param rightNote  most right white key
+     * @param colors     display color for each midi channel
+     * @param channels   bit mask of the visible channels
      * @param observer   image observer for images, may be null
+     * @param strip      pre-rendered note roll for this paint area or null to paint the notes directly
      */
-    private void paintMidiPlayer(Graphics g, NotePlayer player, int areaWidth, int areaHeight, ImageObserver observer) {
+    static void paintMidiPlayer(Graphics g, NotePlayer player, int areaWidth, int areaHeight, int leftNote, int rightNote, Color[] colors, int channels,
+                                ImageObserver observer, NoteStrip strip) {
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        if (g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING) != RenderingHints.VALUE_ANTIALIAS_OFF)
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
         float kbScale = 1f * areaWidth * WHITE_KEYS / (rightNote - leftNote) / KEYBOARD_WIDTH;
-        int kbHeight = Math.round(KEYBOARD_HEIGHT * kbScale);
+        int kbHeight = keyboardHeight(areaWidth, leftNote, rightNote);
 
         if (background == null) {
             g.setColor(backgroundColor);
@@ -541,14 +1171,15 @@ public class MIDIVisualizer extends JPanel {
         }
 
         if (player != null) {
-            for (Note note : player.getNotes()) {
-                g2d.setColor(channelColors[note.getChannel()]);
-                int x = isWhiteKey(note.getNote()) ?
-                        ((noteToColoredKey(note.getNote()) - leftNote) * areaWidth / (rightNote - leftNote) + (areaWidth / (rightNote - leftNote) - whiteNoteWidth(areaWidth)) / 2)
-                        : ((noteToColoredKey(note.getNote()) + 1 - leftNote) * areaWidth / (rightNote - leftNote) - blackNoteWidth(areaWidth) / 2);
-                float y = (areaHeight - kbHeight) + (float) (player.getTicks() - note.getEnd()) / TICKS_PER_PIXEL;
-                g2d.fill(new RoundRectangle2D.Float(x, y, widthForNote(note.getNote(), areaWidth), (float) note.getDuration() / TICKS_PER_PIXEL, 5, 5));
-            }
+            long ticks = player.getTicks();
+            if (player.isLive())
+                paintNotes(g2d, player.getNoteIndex(), ticks - (long) (areaHeight - kbHeight) * TICKS_PER_PIXEL, ticks, areaWidth, leftNote, rightNote,
+                        colors, channels, true);
+            else if (strip != null)
+                strip.paint(g2d, player.getNoteIndex(), ticks, areaWidth, areaHeight - kbHeight, leftNote, rightNote, colors, channels, observer);
+            else
+                paintNotes(g2d, player.getNoteIndex(), ticks, ticks + (long) (areaHeight - kbHeight) * TICKS_PER_PIXEL, areaWidth, leftNote, rightNote,
+                        colors, channels, false);
         }
 
         g.setColor(new Color(191, 191, 191));
@@ -559,8 +1190,8 @@ public class MIDIVisualizer extends JPanel {
             float x = 1f * i * areaWidth / (rightNote - leftNote);
             g2d.draw(new Line2D.Float(x, areaHeight - kbHeight + 1.5f * kbScale/* remove tip */, x, areaHeight));
             int note = whiteKeyToNote(i + leftNote);
-            if (player != null && player.isPlaying(note)) {
-                g2d.setColor(channelColors[player.getChannel(note)]);
+            if (player != null && player.isPlaying(note) && (channels >> player.getChannel(note) & 1) != 0) {
+                g2d.setColor(colors[player.getChannel(note)]);
                 g2d.fill(new Rectangle2D.Float(x + 1.5f * kbScale, areaHeight - kbHeight, kbScale * KEYBOARD_WIDTH / WHITE_KEYS - 3 * kbScale, kbHeight));
                 g2d.setColor(Color.BLACK);
             }
@@ -571,28 +1202,243 @@ public class MIDIVisualizer extends JPanel {
                 int x = (noteToColoredKey(i) + 1 - leftNote) * areaWidth / (rightNote - leftNote) - Math.round(kbScale * blackKey.getWidth() / 2);
                 int width = Math.round(kbScale * blackKey.getWidth()), height = Math.round(kbScale * blackKey.getHeight());
                 g.drawImage(blackKey, x, areaHeight - kbHeight, width, height, observer);
-                if (player != null && player.isPlaying(i)) {
-                    g.setColor(channelColors[player.getChannel(i)]);
+                if (player != null && player.isPlaying(i) && (channels >> player.getChannel(i) & 1) != 0) {
+                    g.setColor(colors[player.getChannel(i)]);
                     g.fillRect(x, areaHeight - kbHeight, width, height);
                 }
             }
+    }
 
-        if (this == observer && dragStart != null && mouseDragPos != null) {
-            g.setColor(Color.LIGHT_GRAY);
-            g.drawLine(dragStart, 0, dragStart, areaHeight - kbHeight);
-            g.drawLine(mouseDragPos, 0, mouseDragPos, areaHeight - kbHeight);
-            g.setColor(new Color(0, 0, 0, 50));
-            g.fillRect(dragStart, 0, mouseDragPos - dragStart, areaHeight - kbHeight);
+    /**
+     * height of the keyboard, which is scaled to span the whole width
+     *
+     * @param areaWidth paint area width
+     * @param leftNote  most left white key
+     * @param rightNote most right white key
+     * @return keyboard height in pixels
+     */
+    static int keyboardHeight(int areaWidth, int leftNote, int rightNote) {
+        return Math.round(KEYBOARD_HEIGHT * (1f * areaWidth * WHITE_KEYS / (rightNote - leftNote) / KEYBOARD_WIDTH));
+    }
+
+    /**
+     * Paints all notes overlapping the tick range from fromTick to toTick. The paint area above the keyboard is mapped to this tick range.
+     * Usually the notes fall down onto the keyboard and toTick is located at y = 0. If upwards is set, the notes scroll upwards from the keyboard
+     * and fromTick is located at y = 0.
+     *
+     * @param g2d       graphics object
+     * @param index     the notes
+     * @param fromTick  first tick of the paint area
+     * @param toTick    last tick of the paint area
+     * @param areaWidth paint area width
+     * @param leftNote  most left white key
+     * @param rightNote most right white key
+     * @param colors    display color for each midi channel
+     * @param channels  bit mask of the visible channels, the notes of hidden channels are skipped without iterating them
+     * @param upwards   true if the notes scroll upwards
+     */
+    static void paintNotes(Graphics2D g2d, NoteIndex index, long fromTick, long toTick, int areaWidth, int leftNote, int rightNote, Color[] colors,
+                           int channels, boolean upwards) {
+        // accelerated pipelines validate and upload a mask per fill, so the notes of a channel are filled at once. The software renderer scans
+        // the bounds of each fill, which is faster for many small notes than for a path covering the whole area.
+        boolean batched = g2d.getDeviceConfiguration().getDevice().getType() != GraphicsDevice.TYPE_IMAGE_BUFFER;
+        if (!batched && paintThreads > 1 && paintNoteLanes(g2d, index, fromTick, toTick, areaWidth, leftNote, rightNote, colors, channels, upwards))
+            return;
+        Path2D.Float path = NOTE_PATH.get();
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            if ((channels >> channel & 1) == 0)
+                continue;
+            NoteIndex partition = index.getChannel(channel);
+            int i = partition.firstEndingFrom(fromTick), end = partition.startBound(toTick);
+            if (i >= end)
+                continue;
+            g2d.setColor(colors[channel]);
+            path.reset();
+            for (; i < end; i++) {
+                Note note = partition.get(i);
+                if (note.getStart() > toTick)
+                    continue;
+                int x = noteX(note.getNote(), areaWidth, leftNote, rightNote);
+                float y = (float) (upwards ? note.getStart() - fromTick : toTick - note.getEnd()) / TICKS_PER_PIXEL;
+                appendNote(path, x, y, widthForNote(note.getNote(), areaWidth, leftNote, rightNote), (float) note.getDuration() / TICKS_PER_PIXEL);
+                if (!batched) {
+                    g2d.fill(path);
+                    path.reset();
+                }
+            }
+            if (batched)
+                g2d.fill(path);
+        }
+    }
+
+    /**
+     * Paints the notes into an image in vertical lanes on up to {@link #paintThreads} threads. The lanes are split between the keys E and F or B and C,
+     * where no black key lies on the border, so the notes of neighbouring lanes are 2/5 of a key apart and each thread writes its own pixels of the raster.
+     * The borders are chosen so that each lane holds about the same number of notes of the painted range. Each lane paints its channels in order and
+     * the notes of a key in the order of their ends, like {@link #paintNotes}, so the image is the same as painted by one thread.
+     *
+     * @return false if the range contains less than {@link #LANE_MIN_NOTES} notes, then nothing was painted
+     * @see #paintNotes(Graphics2D, NoteIndex, long, long, int, int, int, Color[], int, boolean)
+     */
+    private static boolean paintNoteLanes(Graphics2D g2d, NoteIndex index, long fromTick, long toTick, int areaWidth, int leftNote, int rightNote, Color[] colors,
+                                          int channels, boolean upwards) {
+        int[] from = new int[CHANNELS], to = new int[CHANNELS];
+        int total = 0;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            if ((channels >> channel & 1) == 0)
+                continue;
+            NoteIndex partition = index.getChannel(channel);
+            from[channel] = partition.firstEndingFrom(fromTick);
+            to[channel] = Math.max(from[channel], partition.startBound(toTick));
+            total += to[channel] - from[channel];
+        }
+        if (total < LANE_MIN_NOTES)
+            return false;
+        int[] keyCounts = new int[NOTE_COUNT];
+        for (int channel = 0; channel < CHANNELS; channel++)
+            if (from[channel] < to[channel])
+                for (int key = 0; key < NOTE_COUNT; key++) {
+                    int[] lane = index.getChannel(channel).getKeyLane(key);
+                    keyCounts[key] += lowerBound(lane, to[channel]) - lowerBound(lane, from[channel]);
+                }
+        int[] borders = new int[paintThreads + 1]; // first key of each lane
+        int lanes = 1, sum = 0;
+        for (int key = 0; key < NOTE_COUNT && lanes < paintThreads; key++) {
+            if ((key % 12 == 3 || key % 12 == 8) && sum >= (long) total * lanes / paintThreads) // C or F
+                borders[lanes++] = key;
+            sum += keyCounts[key];
         }
+        borders[lanes] = NOTE_COUNT;
+
+        ArrayList<Future<?>> painting = new ArrayList<>();
+        for (int lane = 0; lane < lanes; lane++) {
+            Graphics2D laneGraphics = (Graphics2D) g2d.create();
+            int firstKey = borders[lane], endKey = borders[lane + 1];
+            Runnable paint = () -> {
+                paintKeys(laneGraphics, index, from, to, firstKey, endKey, fromTick, toTick, areaWidth, leftNote, rightNote, colors, upwards);
+                laneGraphics.dispose();
+            };
+            if (lane == lanes - 1)
+                paint.run();
+            else
+                painting.add(lanePool().submit(paint));
+        }
+        for (Future<?> future : painting) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * paints the notes of a range of keys one by one, see {@link #paintNoteLanes}
+     *
+     * @param from for each channel the position of the first note in the painted range in the partition of the channel
+     * @param to   for each channel the end of the painted range in the partition of the channel, the same as from for hidden channels
+     */
+    private static void paintKeys(Graphics2D g2d, NoteIndex index, int[] from, int[] to, int firstKey, int endKey, long fromTick, long toTick, int areaWidth,
+                                  int leftNote, int rightNote, Color[] colors, boolean upwards) {
+        Path2D.Float path = NOTE_PATH.get();
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            if (from[channel] >= to[channel])
+                continue;
+            NoteIndex partition = index.getChannel(channel);
+            g2d.setColor(colors[channel]);
+            for (int key = firstKey; key < endKey; key++) {
+                int[] lane = partition.getKeyLane(key);
+                int x = noteX(key, areaWidth, leftNote, rightNote), width = widthForNote(key, areaWidth, leftNote, rightNote);
+                for (int i = lowerBound(lane, from[channel]), end = lowerBound(lane, to[channel]); i < end; i++) {
+                    Note note = partition.get(lane[i]);
+                    if (note.getStart() > toTick)
+                        continue;
+                    float y = (float) (upwards ? note.getStart() - fromTick : toTick - note.getEnd()) / TICKS_PER_PIXEL;
+                    path.reset();
+                    appendNote(path, x, y, width, (float) note.getDuration() / TICKS_PER_PIXEL);
+                    g2d.fill(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param values ascending values
+     * @param value  searched value
+     * @return the position of the first value that is not less than the searched value
+     */
+    private static int lowerBound(int[] values, int value) {
+        int position = Arrays.binarySearch(values, value);
+        return position < 0 ? -position - 1 : position;
+    }
+
+    /**
+     * @return the threads painting note lanes, see {@link #paintNoteLanes}
+     */
+    private static synchronized ExecutorService lanePool() {
+        if (lanePool == null)
+            lanePool = Executors.newFixedThreadPool(paintThreads - 1, runnable -> {
+                Thread thread = new Thread(runnable, "NoteLanes");
+                thread.setDaemon(true);
+                return thread;
+            });
+        return lanePool;
+    }
+
+    /**
+     * Appends the outline of a note to a path. The outline is the same as the one of a {@link RoundRectangle2D} with an arc size of 5,
+     * but it is appended without creating objects and the path is filled without the allocations of filling a new shape.
+     *
+     * @param path   path of the notes of a channel
+     * @param x      left edge
+     * @param y      top edge
+     * @param width  width of the note
+     * @param height height of the note
+     */
+    private static void appendNote(Path2D.Float path, float x, float y, float width, float height) {
+        float rw = Math.min(width, 5) / 2, rh = Math.min(height, 5) / 2;
+        float cw = rw * (1 - ARC_CONTROL), ch = rh * (1 - ARC_CONTROL);
+        float right = x + width, bottom = y + height;
+        path.moveTo(x, y + rh);
+        path.lineTo(x, bottom - rh);
+        path.curveTo(x, bottom - ch, x + cw, bottom, x + rw, bottom);
+        path.lineTo(right - rw, bottom);
+        path.curveTo(right - cw, bottom, right, bottom - ch, right, bottom - rh);
+        path.lineTo(right, y + rh);
+        path.curveTo(right, y + ch, right - cw, y, right - rw, y);
+        path.lineTo(x + rw, y);
+        path.curveTo(x + cw, y, x, y + ch, x, y + rh);
+        path.closePath();
+    }
+
+    /**
+     * get the x position of the note block for any note
+     *
+     * @param note      note number, ranging from 0 to 87
+     * @param areaWidth width of the whole paint area in pixels
+     * @param leftNote  most left white key
+     * @param rightNote most right white key
+     * @return the x position in pixels of the left edge of the note block
+     */
+    static int noteX(int note, int areaWidth, int leftNote, int rightNote) {
+        return isWhiteKey(note) ?
+                ((noteToColoredKey(note) - leftNote) * areaWidth / (rightNote - leftNote) + (areaWidth / (rightNote - leftNote) - whiteNoteWidth(areaWidth, leftNote, rightNote)) / 2)
+                : ((noteToColoredKey(note) + 1 - leftNote) * areaWidth / (rightNote - leftNote) - blackNoteWidth(areaWidth, leftNote, rightNote) / 2);
     }
 
     /**
      * get the display width for white-key notes
      *
      * @param areaWidth width of the whole paint area in pixels
+     * @param leftNote  most left white key
+     * @param rightNote most right white key
      * @return the display width in pixels for the note blocks corresponding to white keys
      */
-    private int whiteNoteWidth(int areaWidth) {
+    private static int whiteNoteWidth(int areaWidth, int leftNote, int rightNote) {
         return areaWidth / (rightNote - leftNote) * 3 / 5;
     }
 
@@ -600,9 +1446,11 @@ public class MIDIVisualizer extends JPanel {
      * get the display width for black-key notes
      *
      * @param areaWidth width of the whole paint area in pixels
+     * @param leftNote  most left white key
+     * @param rightNote most right white key
      * @return the display width in pixels for the note blocks corresponding to black keys
      */
-    private int blackNoteWidth(int areaWidth) {
+    private static int blackNoteWidth(int areaWidth, int leftNote, int rightNote) {
         return areaWidth / (rightNote - leftNote) * 2 / 5;
     }
 
@@ -611,9 +1459,11 @@ public class MIDIVisualizer extends JPanel {
      *
      * @param note      note number, ranging from 0 to 87
      * @param areaWidth width of the whole paint area in pixels
+     * @param leftNote  most left white key
+     * @param rightNote most right white key
      * @return the display width in pixels for the note blocks, depending on whether this note corresponds to a white or black key
      */
-    private int widthForNote(int note, int areaWidth) {
-        return isWhiteKey(note) ? whiteNoteWidth(areaWidth) : blackNoteWidth(areaWidth);
+    static int widthForNote(int note, int areaWidth, int leftNote, int rightNote) {
+        return isWhiteKey(note) ? whiteNoteWidth(areaWidth, leftNote, rightNote) : blackNoteWidth(areaWidth, leftNote, rightNote);
     }
 }
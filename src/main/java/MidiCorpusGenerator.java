@@ -0,0 +1,285 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Writes Standard MIDI Files with random notes for scaling and throughput tests, see {@link ThroughputSuite}.
+ * The file is streamed to the disk, so files with more notes than fit into a {@link javax.sound.midi.Sequence} can be generated.
+ * <p>
+ * Usage: {@code java -cp MIDIVisualizer.jar MidiCorpusGenerator file.mid [setting=value ...]}
+ * <br>
+ * The settings are notes, density (notes per second at 120 bpm), polyphony (maximum number of simultaneous notes per track), tracks, channels,
+ * tempoChanges and seed.
+ */
+public class MidiCorpusGenerator {
+    /** ticks per quarter note */
+    private static final int RESOLUTION = 480;
+    /** ticks per second at the initial tempo of 120 bpm */
+    private static final int TICKS_PER_SECOND = RESOLUTION * 2;
+    /** lowest and highest generated midi key, the keys of a piano */
+    private static final int LOWEST_KEY = 21, HIGHEST_KEY = 108;
+
+    /** total number of notes */
+    long notes = 10000;
+    /** notes per second of all tracks at 120 bpm */
+    double density = 20;
+    /** maximum number of simultaneous notes of a track, at most the number of keys */
+    int polyphony = 8;
+    /** number of tracks containing notes, the tempo changes are in an additional first track */
+    int tracks = 1;
+    /** number of used channels */
+    int channels = 1;
+    /** number of tempo changes after the initial tempo */
+    int tempoChanges = 0;
+    /** seed of the random numbers, the same settings and seed generate the same file */
+    long seed = 0;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: MidiCorpusGenerator file.mid [notes=10000] [density=20] [polyphony=8] [tracks=1] [channels=1] [tempoChanges=0] [seed=0]");
+            System.exit(2);
+        }
+        MidiCorpusGenerator generator = new MidiCorpusGenerator();
+        for (int i = 1; i < args.length; i++)
+            generator.set(args[i]);
+        long start = System.nanoTime();
+        generator.write(new File(args[0]));
+        System.out.println("Generated " + generator.notes + " notes in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * changes a setting
+     *
+     * @param setting name and value separated by =, for example notes=1000000
+     */
+    void set(String setting) {
+        int separator = setting.indexOf('=');
+        if (separator < 0)
+            throw new IllegalArgumentException("setting without value: " + setting);
+        String value = setting.substring(separator + 1);
+        switch (setting.substring(0, separator)) {
+            case "notes":
+                notes = Long.parseLong(value);
+                break;
+            case "density":
+                density = Double.parseDouble(value);
+                break;
+            case "polyphony":
+                polyphony = Math.max(1, Math.min(Integer.parseInt(value), HIGHEST_KEY - LOWEST_KEY + 1));
+                break;
+            case "tracks":
+                tracks = Math.max(1, Integer.parseInt(value));
+                break;
+            case "channels":
+                channels = Math.max(1, Math.min(Integer.parseInt(value), MIDIVisualizer.CHANNELS));
+                break;
+            case "tempoChanges":
+                tempoChanges = Math.max(0, Integer.parseInt(value));
+                break;
+            case "seed":
+                seed = Long.parseLong(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown setting " + setting);
+        }
+    }
+
+    /**
+     * writes a midi file of type 1 with the current settings
+     *
+     * @param file the midi file, overwritten if it exists
+     * @throws IOException if the file could not be written
+     */
+    void write(File file) throws IOException {
+        Random random = new Random(seed);
+        long length = (long) (notes / density * TICKS_PER_SECOND);
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            FileChannel channel = fileOut.getChannel();
+            TrackWriter out = new TrackWriter(new BufferedOutputStream(fileOut, 1 << 16));
+            out.writeAscii("MThd");
+            out.writeInt(6);
+            out.writeShort(1);
+            out.writeShort(tracks + 1);
+            out.writeShort(RESOLUTION);
+
+            long start = out.beginTrack();
+            for (int i = 0; i <= tempoChanges; i++) {
+                int tempo = i == 0 ? 500000 : 60000000 / (60 + random.nextInt(121)); // 60 to 180 bpm
+                out.writeDelta(length * i / (tempoChanges + 1));
+                out.write(0xFF);
+                out.write(0x51);
+                out.write(3);
+                out.write(tempo >> 16);
+                out.write(tempo >> 8);
+                out.write(tempo);
+            }
+            out.endTrack(channel, start);
+
+            for (int t = 0; t < tracks; t++) {
+                start = out.beginTrack();
+                writeNotes(out, random, notes / tracks + (t < notes % tracks ? 1 : 0));
+                out.endTrack(channel, start);
+            }
+        }
+    }
+
+    /**
+     * Writes the notes of a track. The gaps between the notes and the durations are random with the mean given by the density and polyphony,
+     * if the track already plays {@link #polyphony} notes, the next note starts when the first of them ends. Notes of the same key do not overlap.
+     *
+     * @param out    writer of the track
+     * @param random random numbers
+     * @param count  number of notes of the track
+     */
+    private void writeNotes(TrackWriter out, Random random, long count) throws IOException {
+        int meanGap = (int) Math.max(1, TICKS_PER_SECOND * tracks / density);
+        int meanDuration = meanGap * polyphony;
+        long[] ends = new long[polyphony];
+        int[] keys = new int[polyphony];
+        int[] noteChannels = new int[polyphony];
+        boolean[] pressed = new boolean[MIDIVisualizer.MIDI_NOTES];
+        int active = 0;
+        long tick = 0;
+        for (long n = 0; n < count; n++) {
+            tick += random.nextInt(2 * meanGap + 1);
+            if (active == polyphony)
+                tick = Math.max(tick, ends[first(ends, active)]);
+            // release the notes that ended until now in the order of their ends
+            for (int i; active > 0 && ends[i = first(ends, active)] <= tick; ) {
+                out.writeDelta(ends[i]);
+                out.writeMessage(0x80 | noteChannels[i], keys[i], 64);
+                pressed[keys[i]] = false;
+                active--;
+                ends[i] = ends[active];
+                keys[i] = keys[active];
+                noteChannels[i] = noteChannels[active];
+            }
+            int key;
+            do {
+                key = LOWEST_KEY + random.nextInt(HIGHEST_KEY - LOWEST_KEY + 1);
+            } while (pressed[key]);
+            pressed[key] = true;
+            keys[active] = key;
+            noteChannels[active] = random.nextInt(channels);
+            ends[active] = tick + 1 + random.nextInt(2 * meanDuration);
+            out.writeDelta(tick);
+            out.writeMessage(0x90 | noteChannels[active], key, 40 + random.nextInt(71));
+            active++;
+        }
+        while (active > 0) {
+            int i = first(ends, active);
+            out.writeDelta(ends[i]);
+            out.writeMessage(0x80 | noteChannels[i], keys[i], 64);
+            active--;
+            ends[i] = ends[active];
+            keys[i] = keys[active];
+            noteChannels[i] = noteChannels[active];
+        }
+    }
+
+    /**
+     * @return index of the smallest of the first count values
+     */
+    private static int first(long[] values, int count) {
+        int min = 0;
+        for (int i = 1; i < count; i++)
+            if (values[i] < values[min])
+                min = i;
+        return min;
+    }
+
+    /**
+     * Writes the chunks of a midi file. The length of a track is written when the track ends.
+     */
+    private static class TrackWriter {
+        /** the file */
+        private final OutputStream out;
+        /** bytes written to {@link #out} */
+        private long position;
+        /** tick of the last event of the current track */
+        private long lastTick;
+
+        TrackWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        void writeShort(int value) throws IOException {
+            write(value >> 8);
+            write(value);
+        }
+
+        void writeInt(int value) throws IOException {
+            writeShort(value >> 16);
+            writeShort(value);
+        }
+
+        void writeAscii(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++)
+                write(text.charAt(i));
+        }
+
+        /**
+         * writes the delta time of an event as variable length quantity
+         *
+         * @param tick absolute tick of the event, not before the last event
+         */
+        void writeDelta(long tick) throws IOException {
+            long delta = tick - lastTick;
+            lastTick = tick;
+            if (delta > 0x0FFFFFFF)
+                throw new IOException("delta time too large: " + delta);
+            for (int shift = 21; shift > 0; shift -= 7)
+                if (delta >= 1L << shift)
+                    write((int) (delta >> shift & 0x7F) | 0x80);
+            write((int) (delta & 0x7F));
+        }
+
+        void writeMessage(int status, int data1, int data2) throws IOException {
+            write(status);
+            write(data1);
+            write(data2);
+        }
+
+        /**
+         * writes the header of a track chunk with a placeholder for the length
+         *
+         * @return position of the length
+         */
+        long beginTrack() throws IOException {
+            writeAscii("MTrk");
+            writeInt(0);
+            lastTick = 0;
+            return position - 4;
+        }
+
+        /**
+         * writes the end of track event and the length of the track
+         *
+         * @param channel channel of the file
+         * @param start   position of the length returned by {@link #beginTrack()}
+         */
+        void endTrack(FileChannel channel, long start) throws IOException {
+            writeDelta(lastTick);
+            write(0xFF);
+            write(0x2F);
+            write(0);
+            out.flush();
+            long length = position - start - 4;
+            if (length > 0xFFFFFFFFL)
+                throw new IOException("track too large: " + length + " bytes");
+            ByteBuffer buffer = ByteBuffer.allocate(4).putInt((int) length);
+            buffer.flip();
+            channel.write(buffer, start);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+import javax.sound.midi.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A sequencer connected to a synthesizer, or only a synthesizer for the {@link LeanEngine}. Opening them for the first time loads the sound bank
+ * and takes a noticeable time, so the output of the first player is opened on a background thread by {@link #prepare()} as soon as the window is shown.
+ */
+public class MidiOutput {
+    /** true to open outputs without sequencer for the {@link LeanEngine}, set before the first output is prepared */
+    static boolean lean;
+    /** output opened by {@link #prepare()}, null if not prepared or already taken */
+    private static FutureTask<MidiOutput> prepared;
+
+    /** the sequencer, its transmitters are free except for the one connected to the synthesizer, null if {@link #lean} */
+    private final Sequencer sequencer;
+    /** the synthesizer or null if no synthesizer is available, the sequence is played without sound then */
+    private final Synthesizer synthesizer;
+
+    /**
+     * opens a sequencer unless {@link #lean} and connects it to a synthesizer
+     *
+     * @throws MidiUnavailableException if no sequencer is available
+     */
+    private MidiOutput() throws MidiUnavailableException {
+        sequencer = lean ? null : MidiSystem.getSequencer(false);
+        if (sequencer != null)
+            sequencer.open();
+        Synthesizer synth;
+        try {
+            synth = MidiSystem.getSynthesizer();
+            synth.open();
+            if (sequencer != null)
+                sequencer.getTransmitter().setReceiver(synth.getReceiver());
+        } catch (MidiUnavailableException e) {
+            System.err.println("no synthesizer available, playing without sound: " + e.getMessage());
+            synth = null;
+        }
+        synthesizer = synth;
+    }
+
+    /**
+     * starts opening an output on a background thread, does nothing if an output is already prepared
+     */
+    public static synchronized void prepare() {
+        if (prepared != null)
+            return;
+        prepared = new FutureTask<>(MidiOutput::new);
+        Thread thread = new Thread(prepared, "MidiOutput");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * takes the prepared output, waits for it if it is not opened yet. Opens a new output if none is prepared.
+     *
+     * @return an open output, has to be closed by the caller
+     * @throws MidiUnavailableException if no sequencer is available
+     */
+    public static MidiOutput take() throws MidiUnavailableException {
+        FutureTask<MidiOutput> task;
+        synchronized (MidiOutput.class) {
+            task = prepared;
+            prepared = null;
+        }
+        if (task != null) {
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return new MidiOutput();
+    }
+
+    /**
+     * getter for {@link #sequencer}
+     *
+     * @return the sequencer or null if the output was opened for the {@link LeanEngine}
+     */
+    public Sequencer getSequencer() {
+        return sequencer;
+    }
+
+    /**
+     * getter for {@link #synthesizer}
+     *
+     * @return the synthesizer or null if no synthesizer is available
+     */
+    public Synthesizer getSynthesizer() {
+        return synthesizer;
+    }
+
+    /**
+     * closes the sequencer and the synthesizer
+     */
+    public void close() {
+        if (sequencer != null)
+            sequencer.close();
+        if (synthesizer != null)
+            synthesizer.close();
+    }
+}
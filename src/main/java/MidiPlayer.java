@@ -1,87 +1,231 @@
 import javax.sound.midi.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class MidiPlayer implements NotePlayer {
+    /** the notes starting in the first seconds are indexed before the player is created, the remaining notes are indexed by {@link #completeIndex()} */
+    static final long FIRST_INDEX_MICROS = 10000000;
+
     /** true if and only if the player is not playing */
     private boolean paused;
-    /** list of notes of all midi tracks, sorted by the end ticks */
-    private final ArrayList<Note> notes;
+    /** the notes indexed so far, replaced by a larger index after each step of {@link #completeIndex()} */
+    private volatile NoteIndex noteIndex;
+    /** parses and indexes the remaining notes, null if all notes are indexed */
+    private NoteLoader loader;
+    /** completed when all notes are indexed and the sequence is loaded, completed exceptionally if the player is closed or fails before */
+    private final CompletableFuture<Snapshot> loaded = new CompletableFuture<>();
+    /** true if a snapshot was requested before the player was loaded, the loading continues then even if the player is closed */
+    private volatile boolean keepLoading;
+    /** tempo map of the sequence, only complete until the parsed events while {@link #loader} is parsing */
+    private volatile TempoMap tempoMap;
+    /** creates the key states off the event dispatch thread, one at a time */
+    private static final ExecutorService KEY_STATES = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "KeyStates");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** key states of {@link #noteIndex} used for seeking, null if not created yet */
+    private KeyStateIndex keyStates;
+    /** the note index {@link #keyStates} was created for */
+    private NoteIndex keyStatesSource;
+    /** true if the player was closed */
+    private volatile boolean closed;
     /** the timer which is used to repaint the parent frame while playback is running */
     private Timer timer;
-    /** midi sequence */
-    private final Sequence sequence;
-    /** midi player */
-    private final Sequencer sequencer;
+    /** the parsed sequence, null until it is loaded and after {@link #events} were created from it */
+    private Sequence sequence;
+    /** the events of the sequence, created at loading for the {@link LeanEngine} and otherwise when they are needed, see {@link #getEvents()} */
+    private EventList events;
+    /** length of the loaded sequence in ticks, -1 until the sequence is loaded into the engine */
+    private volatile long tickLength = -1;
+    /** plays the events, the channels of its synthesizer are muted according to {@link MIDIVisualizer#audibleChannels} */
+    private PlaybackEngine engine;
+    /** the time shown while playing, behind the engine by the output latency */
+    private VisualClock clock;
+    /** bit mask of the channels {@link #keyStates} was created for */
+    private int keyStatesChannels;
+    /** the note index and channels of the key states that are created on the background thread, null if none are requested */
+    private NoteIndex requestedSource;
+    private int requestedChannels;
     /** saves for each note (index 0-87) the channel on which this note is played or {@link #NO_CHANNEL} if the note is not played */
     private final byte[] playing;
     /** parent frame */
     private final MIDIVisualizer parent;
+    /** called on the timer thread when the playback reached the end, may be null */
+    private volatile Runnable onEnd;
+    /** the notes per track if the player was created by {@link #reload(MIDIVisualizer, File, TrackIndex)} or opened with them, otherwise null */
+    private TrackIndex trackIndex;
 
     /**
-     * create a midi player
+     * Create a midi player. Only the events of the first seconds are parsed and only the notes starting in the first seconds are indexed,
+     * so the player can be shown immediately. {@link #completeIndex()} has to be called afterwards to parse and index the remaining events,
+     * the player can be started when all events are parsed.
      *
-     * @param parent   parent frame
-     * @param sequence midi sequence to play
+     * @param parent         parent frame
+     * @param reader         reader of the midi file, no event is parsed yet
+     * @param keepTrackNotes true to keep the notes of each track for a {@link TrackIndex}
      * @throws MidiUnavailableException at midi error
      * @throws InvalidMidiDataException at midi error
      */
-    public MidiPlayer(MIDIVisualizer parent, Sequence sequence) throws MidiUnavailableException, InvalidMidiDataException {
+    public MidiPlayer(MIDIVisualizer parent, SequenceReader reader, boolean keepTrackNotes) throws MidiUnavailableException, InvalidMidiDataException {
         this.parent = parent;
-        this.sequence = sequence;
         playing = new byte[MIDIVisualizer.NOTE_COUNT];
         Arrays.fill(playing, NO_CHANNEL);
-        notes = new ArrayList<>();
-
-        final long[][] startTicks = new long[MIDIVisualizer.CHANNELS][MIDIVisualizer.MIDI_NOTES];
-        for (Track track : sequence.getTracks()) {
-            for (long[] arr: startTicks)
-                Arrays.fill(arr, -1);
-            for (int i = 0; i < track.size(); i++) {
-                MidiEvent event = track.get(i);
-                if (event.getMessage() instanceof ShortMessage) {
-                    ShortMessage message = (ShortMessage) event.getMessage();
-                    message.setMessage(message.getCommand(), message.getChannel(), message.getData1() + MIDIVisualizer.NOTE_OFFSET, message.getData2());
-                    if (message.getCommand() == ShortMessage.NOTE_ON) {
-                        if (startTicks[message.getChannel()][message.getData1()] == -1) {
-                            startTicks[message.getChannel()][message.getData1()] = event.getTick();
-                        } else {
-                            try {
-                                message.setMessage(ShortMessage.NOTE_OFF, message.getChannel(), message.getData1(), message.getData2());
-                                notes.add(new Note(message.getChannel(), message.getData1(), startTicks[message.getChannel()][message.getData1()], event.getTick()));
-                                startTicks[message.getChannel()][message.getData1()] = -1;
-                            } catch (IllegalArgumentException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    } else if (message.getCommand() == ShortMessage.NOTE_OFF) {
-                        try {
-                            notes.add(new Note(message.getChannel(), message.getData1(), startTicks[message.getChannel()][message.getData1()], event.getTick()));
-                            startTicks[message.getChannel()][message.getData1()] = -1;
-                        } catch (IllegalArgumentException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }
+
+        loader = new NoteLoader(reader);
+        if (keepTrackNotes)
+            loader.keepTrackNotes();
+        loader.indexFirst(FIRST_INDEX_MICROS);
+        tempoMap = loader.getTempoMap();
+        noteIndex = new NoteIndex(new ArrayList<>(loader.getNotes()));
+        paused = true;
+
+        openEngine();
+        if (loader.isParsed())
+            load(loader.getSequence());
+    }
+
+    /**
+     * Create a midi player from a cached note index. The player can be shown immediately,
+     * but it cannot be started until the sequence is set by {@link #setSequence(Sequence)}.
+     *
+     * @param parent parent frame
+     * @param cached note index and tempo map loaded from the {@link NoteCache}
+     * @throws MidiUnavailableException at midi error
+     */
+    public MidiPlayer(MIDIVisualizer parent, NoteCache.Entry cached) throws MidiUnavailableException {
+        this.parent = parent;
+        playing = new byte[MIDIVisualizer.NOTE_COUNT];
+        Arrays.fill(playing, NO_CHANNEL);
+        noteIndex = cached.noteIndex;
+        tempoMap = cached.tempoMap;
+        paused = true;
+        openEngine();
+    }
+
+    /**
+     * Loads a midi file on the executing thread, which should not be the event dispatch thread. The notes are taken from the note cache if possible,
+     * otherwise the player is shown as soon as the notes of the first seconds are indexed. This method returns when the file is completely loaded.
+     *
+     * @param parent parent frame
+     * @param file   midi file
+     * @param show   called as soon as the player can be shown
+     * @return the player
+     * @throws MidiUnavailableException at midi error
+     * @throws InvalidMidiDataException at midi error
+     * @throws IOException              if the file could not be read
+     */
+    public static MidiPlayer open(MIDIVisualizer parent, File file, Consumer<MidiPlayer> show) throws MidiUnavailableException, InvalidMidiDataException,
+            IOException {
+        return open(parent, file, show, false);
+    }
+
+    /**
+     * Loads a midi file like {@link #open(MIDIVisualizer, File, Consumer)} and optionally creates its {@link TrackIndex} from the parsed tracks,
+     * so a watched file does not have to be parsed again for its first reload.
+     *
+     * @param parent     parent frame
+     * @param file       midi file
+     * @param show       called as soon as the player can be shown
+     * @param trackIndex true to create the notes per track, returned by {@link #getTrackIndex()}
+     * @return the player
+     * @throws MidiUnavailableException at midi error
+     * @throws InvalidMidiDataException at midi error
+     * @throws IOException              if the file could not be read
+     */
+    public static MidiPlayer open(MIDIVisualizer parent, File file, Consumer<MidiPlayer> show, boolean trackIndex) throws MidiUnavailableException,
+            InvalidMidiDataException, IOException {
+        NoteCache cache = MIDIVisualizer.noteCache;
+        NoteCache.Source source = NoteCache.Source.read(file);
+        NoteCache.Entry cached = cache == null ? null : cache.load(source);
+        byte[] bytes = source.bytes;
+        MidiPlayer player;
+        if (cached != null)
+            player = new MidiPlayer(parent, cached);
+        else
+            player = new MidiPlayer(parent, new SequenceReader(bytes), trackIndex);
+        NoteLoader loader = player.loader;
+        show.accept(player);
+        try {
+            if (cached != null) {
+                SequenceReader reader = new SequenceReader(bytes); // the notes are cached, the events are parsed for playback
+                reader.readUntil(Long.MAX_VALUE);
+                Sequence sequence = reader.getSequence();
+                player.setSequence(sequence);
+                if (trackIndex && !player.closed) // the notes were taken from the cache, only the tracks are indexed
+                    player.trackIndex = TrackIndex.of(bytes, sequence, null, player.noteIndex);
+            } else {
+                player.completeIndex();
+                if (cache != null && !player.closed)
+                    cache.store(source, player.noteIndex, player.tempoMap);
+                if (trackIndex && !player.closed)
+                    player.trackIndex = TrackIndex.of(bytes, loader.getSequence(), loader.getTrackNotes(), player.noteIndex);
             }
+            if (!player.closed)
+                player.awaitKeyStates(MIDIVisualizer.visibleChannels); // created in advance, so the first seek is instant
+        } catch (InvalidMidiDataException | IOException | RuntimeException e) {
+            player.loaded.completeExceptionally(e);
+            player.close();
+            throw e;
         }
-        paused = true;
-        notes.sort((note1, note2) -> (int) Math.signum(note1.getEnd() - note2.getEnd()));
+        return player;
+    }
 
-        sequencer = MidiSystem.getSequencer();
-        sequencer.open();
-        sequencer.setSequence(sequence);
-        sequencer.getTransmitter().setReceiver(new Receiver() {
+    /**
+     * Loads a new version of a file on the executing thread, which should not be the event dispatch thread. The tracks that did not change and their notes
+     * are taken from the previous version, only the changed tracks are parsed and indexed again, see {@link TrackIndex}. This method returns when the file is
+     * completely loaded.
+     *
+     * @param parent   parent frame
+     * @param file     midi file
+     * @param previous notes per track of the previous version or null to index all tracks
+     * @return the player, its notes per track are returned by {@link #getTrackIndex()}
+     * @throws MidiUnavailableException at midi error
+     * @throws InvalidMidiDataException at midi error, for example if the file is not completely written
+     * @throws IOException              if the file could not be read
+     */
+    public static MidiPlayer reload(MIDIVisualizer parent, File file, TrackIndex previous) throws MidiUnavailableException, InvalidMidiDataException,
+            IOException {
+        TrackIndex trackIndex = TrackIndex.read(file, previous);
+        Sequence sequence = trackIndex.getSequence();
+        MidiPlayer player = new MidiPlayer(parent, new NoteCache.Entry(trackIndex.getNoteIndex(), new TempoMap(sequence)));
+        player.trackIndex = trackIndex;
+        player.load(sequence);
+        player.finishLoading();
+        player.awaitKeyStates(MIDIVisualizer.visibleChannels);
+        return player;
+    }
+
+    /**
+     * Takes the prepared {@link MidiOutput} and creates the engine playing on it, a {@link SequencerEngine} if the output has a sequencer
+     * and a {@link LeanEngine} otherwise. The engine is connected to the receiver updating the pressed keys.
+     */
+    private void openEngine() throws MidiUnavailableException {
+        MidiOutput output = MidiOutput.take();
+        engine = output.getSequencer() != null ? new SequencerEngine(output) : new LeanEngine(output);
+        Synthesizer synthesizer = engine.getSynthesizer();
+        clock = new VisualClock(MIDIVisualizer.audioLatency >= 0 ? MIDIVisualizer.audioLatency : synthesizer == null ? 0 : synthesizer.getLatency());
+        updateChannels();
+        engine.setReceiver(new Receiver() {
             @Override
             public void send(MidiMessage message, long timeStamp) {
                 if (!(message instanceof ShortMessage))
                     return;
                 ShortMessage sm = (ShortMessage) message;
-                if (sm.getCommand() == ShortMessage.NOTE_ON) {
+                if ((MIDIVisualizer.visibleChannels >> sm.getChannel() & 1) == 0)
+                    return;
+                if (sm.getCommand() == ShortMessage.NOTE_ON && sm.getData2() > 0) {
                     playing[sm.getData1() - 1] = (byte) sm.getChannel();
-                } else if (sm.getCommand() == ShortMessage.NOTE_OFF) {
+                } else if (sm.getCommand() == ShortMessage.NOTE_OFF || sm.getCommand() == ShortMessage.NOTE_ON) {
                     playing[sm.getData1() - 1] = NO_CHANNEL;
 //                    if (sequencer.getTickPosition() >= notes.get(notes.size() - 1).getEnd())
 //                        stop();
@@ -95,31 +239,151 @@ public class MidiPlayer implements NotePlayer {
     }
 
     /**
-     * if paused, starts the sequencer and timer to update the ui
+     * Mutes the channels that are not audible according to {@link MIDIVisualizer#audibleChannels}.
+     * If the player is paused, the pressed keys are updated to the visible channels.
+     */
+    public synchronized void updateChannels() {
+        Synthesizer synthesizer = engine.getSynthesizer();
+        if (synthesizer != null) {
+            MidiChannel[] channels = synthesizer.getChannels();
+            for (int i = 0; i < channels.length; i++)
+                channels[i].setMute((MIDIVisualizer.audibleChannels >> i & 1) == 0);
+        }
+        if (paused && isSequenceLoaded() && isLoaded() && !closed)
+            restoreKeys(engine.getTickPosition());
+    }
+
+    /**
+     * Parses and indexes the remaining events in steps of growing length and publishes a new note index after each step. The sequence is loaded
+     * into the engine as soon as all events are parsed, so the player can be started before all notes are indexed.
+     * Blocks the executing thread until all notes are indexed or the player is closed, should not be called on the event dispatch thread.
+     * If a {@link #snapshot()} was requested, the loading continues after the player is closed.
+     *
+     * @throws InvalidMidiDataException if the remaining events are not valid
+     */
+    public void completeIndex() throws InvalidMidiDataException {
+        if (loader == null)
+            return;
+        while ((!closed || keepLoading) && !loader.isIndexed()) {
+            if (loader.indexNext()) {
+                tempoMap = loader.getTempoMap();
+                load(loader.getSequence());
+            }
+            noteIndex = new NoteIndex(new ArrayList<>(loader.getNotes()));
+            parent.repaint();
+        }
+        if (loader.isIndexed()) {
+            loader = null;
+            finishLoading();
+        } else {
+            loaded.completeExceptionally(new IOException("the file was closed before it was loaded"));
+        }
+    }
+
+    /**
+     * Sets the sequence of a player that was created from a cached note index, the cached notes are kept.
+     *
+     * @param sequence midi sequence to play, its messages were prepared by a {@link SequenceReader} or {@link NoteIndexer#prepare(Sequence)}
+     * @throws InvalidMidiDataException at midi error
+     */
+    public void setSequence(Sequence sequence) throws InvalidMidiDataException {
+        load(sequence);
+        finishLoading();
+    }
+
+    /**
+     * loads the events of a completely parsed sequence into the engine
+     *
+     * @param sequence midi sequence whose messages were prepared by a {@link NoteIndexer}
+     * @throws InvalidMidiDataException at midi error
+     */
+    private void load(Sequence sequence) throws InvalidMidiDataException {
+        EventList events = engine.usesEvents() ? new EventList(sequence) : null;
+        synchronized (this) {
+            if (!closed) // still loaded for a requested snapshot
+                engine.load(sequence, events, tempoMap);
+            if (events != null)
+                this.events = events;
+            else
+                this.sequence = sequence;
+            tickLength = sequence.getTickLength();
+        }
+    }
+
+    /**
+     * completes {@link #loaded} with the complete notes, called when all notes are indexed and the sequence is loaded
+     */
+    private void finishLoading() {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = new Snapshot(noteIndex, tempoMap, sequence, events);
+        }
+        loaded.complete(snapshot);
+    }
+
+    /**
+     * Gets the notes, tempo map and events of the file as soon as it is loaded. They are not changed afterwards, so a job can hold them while the user
+     * opens another file. If the player is not loaded yet, it continues loading after it is closed until the snapshot is complete.
+     *
+     * @return completed with the loaded data, completed exceptionally if the player was closed before it was loaded or the file is not valid
+     */
+    public CompletableFuture<Snapshot> snapshot() {
+        keepLoading = true; // if the player was already closed, the snapshot was completed exceptionally by close
+        return loaded;
+    }
+
+    /**
+     * @return true if all notes are indexed and the sequence is loaded or the player was closed
+     */
+    public boolean isLoaded() {
+        return loaded.isDone();
+    }
+
+    /**
+     * @return true if all notes are indexed and the sequencer reached the end of the last note, the sequencer stops there if the file ends with it
+     */
+    private boolean isAtEnd() {
+        return isLoaded() && engine.getTickPosition() >= noteIndex.getLastEnd();
+    }
+
+    /**
+     * if paused, starts the sequencer and timer to update the ui, does nothing until all events are parsed and loaded into the engine
      */
     public synchronized void start() {
-        if (!paused || sequencer.getTickPosition() > notes.get(notes.size() - 1).getEnd())
+        if (!paused || !isSequenceLoaded() || isAtEnd())
             return;
         paused = false;
-        sequencer.start();
+        engine.start();
         parent.repaint();
         timer = new Timer(true);
         timer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
                 parent.repaint();
-                if (sequencer.getTickPosition() > notes.get(notes.size() - 1).getEnd())
+                if (isAtEnd()) {
                     stop();
+                    Runnable onEnd = MidiPlayer.this.onEnd;
+                    if (onEnd != null)
+                        onEnd.run();
+                }
             }
         }, 0, 4);
     }
 
     /**
-     * calls {@link #stop()} if not paused
+     * Calls {@link #stop()} if not paused. The position goes back to the time shown by the {@link VisualClock}, which is behind the engine by the
+     * output latency, so the paused view does not jump ahead and playback continues with the sound that was cut by stopping.
      */
     public synchronized void pause() {
-        if (!paused)
-            stop();
+        if (paused)
+            return;
+        engine.stop();
+        long position = engine.getTickPosition(), micros = tempoMap.toMicros(position);
+        // at most the latency back, the clock may not have been sampled if the window was not painted
+        long shown = Math.max(clock.shownMicros(), micros - clock.getLatency());
+        if (shown < micros)
+            engine.setTickPosition(Math.min(position, tempoMap.toTicks(shown)));
+        stop();
     }
 
     /**
@@ -127,7 +391,9 @@ public class MidiPlayer implements NotePlayer {
      */
     public synchronized void stop() {
         paused = true;
-        sequencer.stop();
+        engine.stop();
+        if (!closed) // the engine released all keys
+            restoreKeys(engine.getTickPosition());
         if (timer != null) {
             timer.cancel();
             timer = null;
@@ -135,24 +401,141 @@ public class MidiPlayer implements NotePlayer {
         parent.repaint();
     }
 
+    /**
+     * stops playback, closes the sequencer and stops the indexing of the remaining notes
+     */
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        if (!keepLoading)
+            loaded.completeExceptionally(new IOException("the file was closed before it was loaded"));
+        stop();
+        engine.close();
+    }
+
     /**
      * calls {@link #stop()} and sets the sequencer position to 0
      */
     public void restart() {
         stop();
-        sequencer.setTickPosition(0);
-        Arrays.fill(playing, NO_CHANNEL);
+        seek(0);
+    }
+
+    /**
+     * Sets the sequencer position and reconstructs the pressed keys at the new position. Playback continues if the player is not paused.
+     * Does nothing if the sequence is not loaded yet.
+     *
+     * @param tick new position in ticks, limited to the range of the sequence
+     */
+    public synchronized void seek(long tick) {
+        if (!isSequenceLoaded())
+            return;
+        tick = Math.max(0, Math.min(tick, getTickLength()));
+        boolean running = !paused;
+        if (running)
+            engine.stop();
+        engine.setTickPosition(tick);
+        restoreKeys(tick);
+        if (running)
+            engine.start();
         parent.repaint();
     }
 
     /**
-     * getter for {@link #notes}
+     * Sets the pressed keys of the visible channels at a tick. Until the key states are created, the keys are found by scanning the notes around the tick.
+     *
+     * @param tick tick position
+     */
+    private synchronized void restoreKeys(long tick) {
+        KeyStateIndex states = getKeyStates(MIDIVisualizer.visibleChannels);
+        if (states != null)
+            states.stateAt(tick, playing);
+        else
+            KeyStateIndex.scanStateAt(noteIndex, MIDIVisualizer.visibleChannels, tick, playing);
+    }
+
+    /**
+     * Gets the key states of the notes of some channels without blocking, so it can be called on the event dispatch thread. If they are not created yet,
+     * they are created on a background thread, afterwards the pressed keys are updated if the player is paused and the frame is repainted.
+     * The key states of the last requested channels are kept.
+     *
+     * @param channels bit mask of the channels
+     * @return key states of the notes of {@link #noteIndex} on the given channels or null if they are not created yet
+     */
+    public synchronized KeyStateIndex getKeyStates(int channels) {
+        NoteIndex index = noteIndex;
+        if (keyStates != null && keyStatesSource == index && keyStatesChannels == channels)
+            return keyStates;
+        if (requestedSource != index || requestedChannels != channels) {
+            requestedSource = index;
+            requestedChannels = channels;
+            KEY_STATES.execute(() -> {
+                synchronized (this) {
+                    if (closed || requestedSource != index || requestedChannels != channels) // requested again for a newer index or other channels
+                        return;
+                }
+                awaitKeyStates(index, channels);
+            });
+        }
+        return null;
+    }
+
+    /**
+     * Gets the key states of the notes of some channels, they are created on the executing thread if necessary.
+     * Should not be called on the event dispatch thread.
+     *
+     * @param channels bit mask of the channels
+     * @return key states of the notes of {@link #noteIndex} on the given channels
+     */
+    public KeyStateIndex awaitKeyStates(int channels) {
+        return awaitKeyStates(noteIndex, channels);
+    }
+
+    /**
+     * Gets the key states of some notes, they are created on the executing thread without holding the lock of the player if necessary.
+     * They are kept if the notes are still the current notes.
+     *
+     * @param index    the notes
+     * @param channels bit mask of the channels
+     * @return key states of the notes on the given channels
+     */
+    private KeyStateIndex awaitKeyStates(NoteIndex index, int channels) {
+        synchronized (this) {
+            if (keyStates != null && keyStatesSource == index && keyStatesChannels == channels)
+                return keyStates;
+        }
+        KeyStateIndex created = new KeyStateIndex(index.filter(channels));
+        synchronized (this) {
+            if (index == noteIndex) {
+                keyStates = created;
+                keyStatesSource = index;
+                keyStatesChannels = channels;
+                if (requestedSource == index && requestedChannels == channels)
+                    requestedSource = null;
+                if (paused && !closed && isSequenceLoaded() && channels == MIDIVisualizer.visibleChannels)
+                    created.stateAt(engine.getTickPosition(), playing);
+            }
+        }
+        parent.repaint();
+        return created;
+    }
+
+    /**
+     * @return the length of the sequence in ticks, the end of the last indexed note if the sequence is not loaded yet
+     */
+    public long getTickLength() {
+        return Math.max(noteIndex.getLastEnd(), tickLength);
+    }
+
+    /**
+     * getter for {@link #noteIndex}
      *
-     * @return note list
+     * @return note index
      */
     @Override
-    public ArrayList<Note> getNotes() {
-        return notes;
+    public NoteIndex getNoteIndex() {
+        return noteIndex;
     }
 
     /**
@@ -160,7 +543,34 @@ public class MidiPlayer implements NotePlayer {
      */
     @Override
     public long getTicks() {
-        return sequencer.getTickPosition();
+        return engine.getTickPosition();
+    }
+
+    /**
+     * samples the engine position for the {@link VisualClock}, only called when the window is painted
+     *
+     * @return the time shown by the window in microseconds, equal to the engine position while paused
+     */
+    public long getVisualMicros() {
+        return clock.micros(tempoMap.toMicros(engine.getTickPosition()), !paused);
+    }
+
+    /**
+     * reads the time shown by the window without sampling the engine, for threads other than the painting thread
+     *
+     * @return the time shown by the window in microseconds
+     */
+    public long getShownMicros() {
+        return clock.shownMicros();
+    }
+
+    /**
+     * getter for {@link #clock}
+     *
+     * @return the clock of the shown time
+     */
+    public VisualClock getVisualClock() {
+        return clock;
     }
 
     /**
@@ -178,6 +588,25 @@ public class MidiPlayer implements NotePlayer {
         }
     }
 
+    /**
+     * getter for {@link #trackIndex}
+     *
+     * @return the notes per track or null if the player was neither created by {@link #reload(MIDIVisualizer, File, TrackIndex)}
+     * nor opened with the notes per track
+     */
+    public TrackIndex getTrackIndex() {
+        return trackIndex;
+    }
+
+    /**
+     * setter for {@link #onEnd}
+     *
+     * @param onEnd called on a background thread when the playback reached the end, null to remove the callback
+     */
+    public void setOnEnd(Runnable onEnd) {
+        this.onEnd = onEnd;
+    }
+
     /**
      * getter for {@link #paused}
      *
@@ -188,11 +617,69 @@ public class MidiPlayer implements NotePlayer {
     }
 
     /**
-     * getter for {@link #sequence}
+     * getter for {@link #tempoMap}
+     *
+     * @return the tempo map
+     */
+    public TempoMap getTempoMap() {
+        return tempoMap;
+    }
+
+    /**
+     * @return true if all events are parsed and loaded into the engine, the player can be started then
+     */
+    public boolean isSequenceLoaded() {
+        return tickLength >= 0;
+    }
+
+    /**
+     * gets the events of the sequence, they are created when they are needed for the first time if the engine plays the sequence itself
      *
-     * @return the sequence
+     * @return the events of the sequence, null if the sequence is not loaded yet
+     */
+    public synchronized EventList getEvents() {
+        if (events == null && sequence != null) {
+            events = new EventList(sequence);
+            sequence = null;
+        }
+        return events;
+    }
+
+    /**
+     * the data of a loaded file, see {@link #snapshot()}
      */
-    public Sequence getSequence() {
-        return sequence;
+    public static class Snapshot {
+        /** all notes of the file */
+        public final NoteIndex noteIndex;
+        /** tempo map of the file */
+        public final TempoMap tempoMap;
+        /** the sequence of the file, null after {@link #events} were created from it */
+        private Sequence sequence;
+        /** the events of the file, null until they are needed if the player did not create them */
+        private EventList events;
+
+        /**
+         * @param noteIndex all notes of the file
+         * @param tempoMap  tempo map of the file
+         * @param sequence  the sequence of the file, null if the events are given
+         * @param events    the events of the file, null to create them from the sequence when they are needed
+         */
+        Snapshot(NoteIndex noteIndex, TempoMap tempoMap, Sequence sequence, EventList events) {
+            this.noteIndex = noteIndex;
+            this.tempoMap = tempoMap;
+            this.sequence = sequence;
+            this.events = events;
+        }
+
+        /**
+         * @return the events of the file, created on the calling thread when they are needed for the first time
+         */
+        public synchronized EventList getEvents() {
+            if (events == null) {
+                events = new EventList(sequence);
+                sequence = null;
+            }
+            return events;
+        }
     }
 }
@@ -0,0 +1,227 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of note indices. For each midi file a binary index file is stored in the cache directory, which contains the notes in columnar form,
+ * the tempo map and the note positions for each key. Index files are memory-mapped when loaded and validated against the size, modification time and
+ * checksum of the midi file and against {@link MIDIVisualizer#NOTE_OFFSET}, see {@link Source}.
+ * The least recently used index files are deleted when the cache directory exceeds its maximum size.
+ */
+public class NoteCache {
+    /** first bytes of an index file */
+    private static final int MAGIC = 0x4D564958; // MVIX
+    /** version of the file format, has to be increased whenever the format changes */
+    private static final int VERSION = 1;
+    /** file extension of index files */
+    private static final String EXTENSION = ".idx";
+
+    /** directory containing the index files */
+    private final File directory;
+    /** maximum size of all index files in bytes */
+    private final long maxSize;
+
+    /**
+     * a cached note index and tempo map
+     */
+    public static class Entry {
+        public final NoteIndex noteIndex;
+        public final TempoMap tempoMap;
+
+        public Entry(NoteIndex noteIndex, TempoMap tempoMap) {
+            this.noteIndex = noteIndex;
+            this.tempoMap = tempoMap;
+        }
+    }
+
+    /**
+     * The bytes of a midi file and the version they belong to. The size and modification time are taken before the file is read and the checksum is
+     * calculated from the read bytes, so an index is never stored for another version of the file than the one that was parsed.
+     */
+    public static class Source {
+        public final File file;
+        public final byte[] bytes;
+        private final long length;
+        private final long lastModified;
+        private final long checksum;
+
+        private Source(File file, byte[] bytes, long length, long lastModified) {
+            this.file = file;
+            this.bytes = bytes;
+            this.length = length;
+            this.lastModified = lastModified;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            checksum = crc.getValue();
+        }
+
+        /**
+         * reads a midi file
+         *
+         * @param file the midi file
+         * @return the bytes of the file and its version
+         * @throws IOException if the file could not be read
+         */
+        public static Source read(File file) throws IOException {
+            long length = file.length(), lastModified = file.lastModified();
+            return new Source(file, Files.readAllBytes(file.toPath()), length, lastModified);
+        }
+    }
+
+    /**
+     * create a note cache
+     *
+     * @param directory cache directory, created if it does not exist
+     * @param maxSize   maximum size of all index files in bytes
+     */
+    public NoteCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * loads the cached index of a midi file
+     *
+     * @param source the read midi file
+     * @return the cached index or null if there is no valid index for the read version of the file
+     */
+    public Entry load(Source source) {
+        File file = indexFile(source.file);
+        if (!file.isFile())
+            return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getLong() != source.length || buf.getLong() != source.lastModified
+                    || buf.getInt() != MIDIVisualizer.NOTE_OFFSET || buf.getLong() != source.checksum)
+                return null;
+            int resolution = buf.getInt();
+            float framesPerSecond = buf.getFloat();
+            long[] tempoTicks = new long[buf.getInt()];
+            int[] tempos = new int[tempoTicks.length];
+            buf.asLongBuffer().get(tempoTicks);
+            buf.position(buf.position() + tempoTicks.length * Long.BYTES);
+            buf.asIntBuffer().get(tempos);
+            buf.position(buf.position() + tempos.length * Integer.BYTES);
+
+            int count = buf.getInt();
+            long[] starts = new long[count], ends = new long[count];
+            buf.asLongBuffer().get(starts);
+            buf.position(buf.position() + count * Long.BYTES);
+            buf.asLongBuffer().get(ends);
+            buf.position(buf.position() + count * Long.BYTES);
+            int[][] lanes = new int[MIDIVisualizer.NOTE_COUNT][];
+            for (int key = 0; key < lanes.length; key++) {
+                lanes[key] = new int[buf.getInt()];
+                buf.asIntBuffer().get(lanes[key]);
+                buf.position(buf.position() + lanes[key].length * Integer.BYTES);
+            }
+            byte[] channels = new byte[count], notes = new byte[count];
+            buf.get(channels);
+            buf.get(notes);
+
+            ArrayList<Note> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                list.add(new Note(channels[i], notes[i], starts[i], ends[i]));
+            file.setLastModified(System.currentTimeMillis()); // marks the file as recently used
+            return new Entry(new NoteIndex(list, lanes), new TempoMap(resolution, framesPerSecond, tempoTicks, tempos));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * stores the index of a midi file and deletes the least recently used index files if the cache exceeds its maximum size
+     *
+     * @param source    the read midi file, the index is valid for its version
+     * @param noteIndex all notes of the read midi file
+     * @param tempoMap  tempo map of the read midi file
+     */
+    public void store(Source source, NoteIndex noteIndex, TempoMap tempoMap) {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            return;
+        File file = indexFile(source.file);
+        File tmp = new File(file.getPath() + ".tmp");
+        int count = noteIndex.size();
+        // written as a stream rather than mapped, mapped files cannot be renamed on some platforms
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length);
+            out.writeLong(source.lastModified);
+            out.writeInt(MIDIVisualizer.NOTE_OFFSET);
+            out.writeLong(source.checksum);
+            out.writeInt(tempoMap.getResolution());
+            out.writeFloat(tempoMap.getFramesPerSecond());
+            out.writeInt(tempoMap.getTicks().length);
+            for (long tick : tempoMap.getTicks())
+                out.writeLong(tick);
+            for (int tempo : tempoMap.getTempos())
+                out.writeInt(tempo);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++)
+                out.writeLong(noteIndex.get(i).getStart());
+            for (int i = 0; i < count; i++)
+                out.writeLong(noteIndex.get(i).getEnd());
+            for (int key = 0; key < MIDIVisualizer.NOTE_COUNT; key++) {
+                int[] lane = noteIndex.getKeyLane(key);
+                out.writeInt(lane.length);
+                for (int i : lane)
+                    out.writeInt(i);
+            }
+            for (int i = 0; i < count; i++)
+                out.writeByte(noteIndex.get(i).getChannel());
+            for (int i = 0; i < count; i++)
+                out.writeByte(noteIndex.get(i).getNote() + 1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            return;
+        }
+        if ((!file.exists() || file.delete()) && tmp.renameTo(file))
+            evict();
+        else
+            tmp.delete();
+    }
+
+    /**
+     * deletes the least recently used index files until the total size of the cache is at most {@link #maxSize}
+     */
+    private void evict() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null)
+            return;
+        long total = 0;
+        for (File file : files)
+            total += file.length();
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - 1 && total > maxSize; i++) { // the newest file is always kept
+            long length = files[i].length();
+            if (files[i].delete())
+                total -= length;
+        }
+    }
+
+    /**
+     * get the index file of a midi file, its name is derived from the absolute path of the midi file
+     */
+    private File indexFile(File midiFile) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(midiFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 10; i++)
+                name.append(String.format("%02x", hash[i]));
+            return new File(directory, name + EXTENSION);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
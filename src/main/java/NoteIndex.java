@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * read-only index over a note list that is sorted by the end ticks, used to find the notes overlapping a tick range without iterating all notes
+ */
+public class NoteIndex {
+    /** notes sorted by the end ticks */
+    private final ArrayList<Note> notes;
+    /** duration of the longest note in ticks */
+    private final long maxDuration;
+    /** for each key (0-87) the positions of its notes in {@link #notes}, created when first needed */
+    private volatile int[][] keyLanes;
+    /** for each midi channel an index over its notes, created when first needed */
+    private volatile NoteIndex[] channels;
+
+    /**
+     * create a note index
+     *
+     * @param notes list of notes, has to be sorted by the end ticks and must not be modified afterwards
+     */
+    public NoteIndex(ArrayList<Note> notes) {
+        this(notes, null);
+    }
+
+    /**
+     * create a note index with precomputed key lanes
+     *
+     * @param notes    list of notes, has to be sorted by the end ticks and must not be modified afterwards
+     * @param keyLanes for each key the positions of its notes in ascending order or null to create them when first needed
+     */
+    public NoteIndex(ArrayList<Note> notes, int[][] keyLanes) {
+        this.notes = notes;
+        this.keyLanes = keyLanes;
+        long max = 0;
+        for (Note note : notes)
+            max = Math.max(max, note.getDuration());
+        maxDuration = max;
+    }
+
+    /**
+     * getter for {@link #notes}
+     *
+     * @return note list, sorted by the end ticks
+     */
+    public ArrayList<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * @return number of notes
+     */
+    public int size() {
+        return notes.size();
+    }
+
+    /**
+     * @param index position in the note list
+     * @return the note at the given position
+     */
+    public Note get(int index) {
+        return notes.get(index);
+    }
+
+    /**
+     * @return the end tick of the last note or 0 if there are no notes
+     */
+    public long getLastEnd() {
+        return notes.isEmpty() ? 0 : notes.get(notes.size() - 1).getEnd();
+    }
+
+    /**
+     * getter for {@link #maxDuration}
+     *
+     * @return duration of the longest note in ticks
+     */
+    public long getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * get the positions of all notes of a key
+     *
+     * @param key note number (0-87)
+     * @return positions in the note list in ascending order, thus sorted by the end ticks
+     */
+    public int[] getKeyLane(int key) {
+        int[][] lanes = keyLanes;
+        if (lanes == null) {
+            int[] counts = new int[MIDIVisualizer.NOTE_COUNT];
+            for (Note note : notes)
+                counts[note.getNote()]++;
+            lanes = new int[MIDIVisualizer.NOTE_COUNT][];
+            for (int k = 0; k < lanes.length; k++)
+                lanes[k] = new int[counts[k]];
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < notes.size(); i++) {
+                int note = notes.get(i).getNote();
+                lanes[note][counts[note]++] = i;
+            }
+            keyLanes = lanes;
+        }
+        return lanes[key];
+    }
+
+    /**
+     * get the partition of a channel, used to skip hidden channels and to paint all notes of a channel with one color
+     *
+     * @param channel midi channel (0-15)
+     * @return index over the notes of the given channel, sorted by the end ticks
+     */
+    public NoteIndex getChannel(int channel) {
+        NoteIndex[] partitions = channels;
+        if (partitions == null) {
+            int[] counts = new int[MIDIVisualizer.CHANNELS];
+            for (Note note : notes)
+                counts[note.getChannel()]++;
+            ArrayList<ArrayList<Note>> lists = new ArrayList<>();
+            for (int count : counts)
+                lists.add(new ArrayList<>(count));
+            for (Note note : notes)
+                lists.get(note.getChannel()).add(note);
+            partitions = new NoteIndex[MIDIVisualizer.CHANNELS];
+            for (int c = 0; c < partitions.length; c++)
+                partitions[c] = new NoteIndex(lists.get(c));
+            channels = partitions;
+        }
+        return partitions[channel];
+    }
+
+    /**
+     * get an index over the notes of some channels
+     *
+     * @param channelMask bit mask of the channels, bit i is set for channel i
+     * @return index over the notes of the given channels, this index if all channels are included
+     */
+    public NoteIndex filter(int channelMask) {
+        if ((channelMask & MIDIVisualizer.ALL_CHANNELS) == MIDIVisualizer.ALL_CHANNELS)
+            return this;
+        ArrayList<Note> filtered = new ArrayList<>();
+        for (Note note : notes)
+            if ((channelMask >> note.getChannel() & 1) != 0)
+                filtered.add(note);
+        return new NoteIndex(filtered);
+    }
+
+    /**
+     * binary search for the first note that ends at or after the given tick
+     *
+     * @param tick tick position
+     * @return index of the first note with end &gt;= tick or {@link #size()} if there is none
+     */
+    public int firstEndingFrom(long tick) {
+        int low = 0, high = notes.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (notes.get(mid).getEnd() < tick)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Returns an exclusive upper bound for the notes that may start at or before the given tick.
+     * Because the notes are sorted by their end, every note after this bound ends later than tick + {@link #maxDuration} and thus starts after tick.
+     *
+     * @param tick tick position
+     * @return index of the first note that certainly starts after the given tick
+     */
+    public int startBound(long tick) {
+        return tick > Long.MAX_VALUE - maxDuration ? notes.size() : firstEndingFrom(tick + maxDuration + 1);
+    }
+}
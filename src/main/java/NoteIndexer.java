@@ -0,0 +1,180 @@
+import javax.sound.midi.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Extracts the notes of a sequence. The notes can be indexed in several steps, each call to {@link #indexUntil(long)} continues where the last one stopped.
+ * <p>
+ * All messages of the sequence are prepared once at construction, see {@link #prepare(Sequence)}: {@link MIDIVisualizer#NOTE_OFFSET} is added and a note-on event of a note that is already
+ * playing is changed to a note-off event. Afterwards the sequence is not modified anymore, so it can be played while the remaining notes are indexed.
+ */
+public class NoteIndexer {
+    /** tracks of the sequence */
+    private final Track[] tracks;
+    /** for each track the position of the first event that was not indexed yet */
+    private final int[] positions;
+    /** for each track, channel and note the start tick of the currently playing note or -1, null if the indexing of the track has not started yet */
+    private final long[][][] startTicks;
+    /** the indexed notes of each track, sorted by the end ticks, null unless {@link #keepTrackNotes()} was called */
+    private ArrayList<ArrayList<Note>> trackNotes;
+
+    /**
+     * create a note indexer and prepare the messages of the sequence, see {@link #prepare(Sequence)}
+     *
+     * @param sequence midi sequence, the messages are modified
+     * @throws InvalidMidiDataException if a message gets invalid by adding {@link MIDIVisualizer#NOTE_OFFSET}
+     */
+    public NoteIndexer(Sequence sequence) throws InvalidMidiDataException {
+        this(sequence.getTracks());
+        prepare(sequence);
+    }
+
+    /**
+     * create a note indexer for tracks whose messages were already prepared by another note indexer, for example to index a single track again
+     *
+     * @param tracks prepared tracks, not modified
+     */
+    public NoteIndexer(Track... tracks) {
+        this.tracks = tracks;
+        positions = new int[tracks.length];
+        startTicks = new long[tracks.length][][];
+    }
+
+    /**
+     * Prepares the messages of a sequence for playing and indexing: {@link MIDIVisualizer#NOTE_OFFSET} is added and a note-on event of a note that is
+     * already playing on the same track is changed to a note-off event. Has to be called once per sequence.
+     *
+     * @param sequence midi sequence, the messages are modified
+     * @throws InvalidMidiDataException if a message gets invalid by adding {@link MIDIVisualizer#NOTE_OFFSET}
+     */
+    public static void prepare(Sequence sequence) throws InvalidMidiDataException {
+        boolean[][] open = new boolean[MIDIVisualizer.CHANNELS][MIDIVisualizer.MIDI_NOTES];
+        for (Track track : sequence.getTracks()) {
+            for (boolean[] arr : open)
+                Arrays.fill(arr, false);
+            for (int i = 0; i < track.size(); i++)
+                if (track.get(i).getMessage() instanceof ShortMessage)
+                    prepare((ShortMessage) track.get(i).getMessage(), open);
+        }
+    }
+
+    /**
+     * prepares a single message of a track, see {@link #prepare(Sequence)}
+     *
+     * @param message the message, it is modified
+     * @param open    for each channel and note true if the note is playing on the track, updated for the next message of the track
+     * @throws InvalidMidiDataException if the message gets invalid by adding {@link MIDIVisualizer#NOTE_OFFSET}
+     */
+    static void prepare(ShortMessage message, boolean[][] open) throws InvalidMidiDataException {
+        message.setMessage(message.getCommand(), message.getChannel(), message.getData1() + MIDIVisualizer.NOTE_OFFSET, message.getData2());
+        if (message.getCommand() == ShortMessage.NOTE_ON) {
+            if (!open[message.getChannel()][message.getData1()]) {
+                open[message.getChannel()][message.getData1()] = true;
+            } else {
+                message.setMessage(ShortMessage.NOTE_OFF, message.getChannel(), message.getData1(), message.getData2());
+                if (isValid(message.getData1()))
+                    open[message.getChannel()][message.getData1()] = false;
+            }
+        } else if (message.getCommand() == ShortMessage.NOTE_OFF && isValid(message.getData1())) {
+            open[message.getChannel()][message.getData1()] = false;
+        }
+    }
+
+    /**
+     * notes out of the supported range are not displayed, see {@link Note#Note(int, int, long, long)}
+     */
+    private static boolean isValid(int note) {
+        return note >= 1 && note <= MIDIVisualizer.NOTE_COUNT;
+    }
+
+    /**
+     * Indexes all events before the given tick. The returned notes end after the notes returned by previous calls,
+     * so the results of consecutive calls can be concatenated to a sorted note list.
+     *
+     * @param tick exclusive end tick, {@link Long#MAX_VALUE} to index all remaining events
+     * @return the notes ending before the given tick that were not returned yet, sorted by the end ticks
+     */
+    public ArrayList<Note> indexUntil(long tick) {
+        ArrayList<Note> notes = new ArrayList<>();
+        for (int t = 0; t < tracks.length; t++) {
+            Track track = tracks[t];
+            if (positions[t] >= track.size())
+                continue;
+            if (startTicks[t] == null) {
+                startTicks[t] = new long[MIDIVisualizer.CHANNELS][MIDIVisualizer.MIDI_NOTES];
+                for (long[] arr : startTicks[t])
+                    Arrays.fill(arr, -1);
+            }
+            long[][] starts = startTicks[t];
+            int i = positions[t];
+            for (; i < track.size(); i++) {
+                MidiEvent event = track.get(i);
+                if (event.getTick() >= tick)
+                    break;
+                if (!(event.getMessage() instanceof ShortMessage))
+                    continue;
+                ShortMessage message = (ShortMessage) event.getMessage();
+                if (message.getCommand() == ShortMessage.NOTE_ON) {
+                    starts[message.getChannel()][message.getData1()] = event.getTick();
+                } else if (message.getCommand() == ShortMessage.NOTE_OFF) {
+                    try {
+                        Note note = new Note(message.getChannel(), message.getData1(), starts[message.getChannel()][message.getData1()], event.getTick());
+                        notes.add(note);
+                        if (trackNotes != null)
+                            trackNotes.get(t).add(note);
+                        starts[message.getChannel()][message.getData1()] = -1;
+                    } catch (IllegalArgumentException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            positions[t] = i;
+            if (i >= track.size())
+                startTicks[t] = null;
+        }
+        notes.sort((note1, note2) -> (int) Math.signum(note1.getEnd() - note2.getEnd()));
+        return notes;
+    }
+
+    /**
+     * keeps the notes of each track in addition, for a {@link TrackIndex}, has to be called before the first call to {@link #indexUntil(long)}
+     */
+    public void keepTrackNotes() {
+        trackNotes = new ArrayList<>(tracks.length);
+        for (int t = 0; t < tracks.length; t++)
+            trackNotes.add(new ArrayList<>());
+    }
+
+    /**
+     * getter for {@link #trackNotes}
+     *
+     * @return the notes indexed so far of each track, sorted by the end ticks, null if {@link #keepTrackNotes()} was not called
+     */
+    public ArrayList<ArrayList<Note>> getTrackNotes() {
+        return trackNotes;
+    }
+
+    /**
+     * @return the smallest start tick of the notes that started before the last indexed tick but did not end, {@link Long#MAX_VALUE} if there is none
+     */
+    public long getFirstOpenStart() {
+        long first = Long.MAX_VALUE;
+        for (long[][] starts : startTicks)
+            if (starts != null)
+                for (long[] channel : starts)
+                    for (long start : channel)
+                        if (start >= 0 && start < first)
+                            first = start;
+        return first;
+    }
+
+    /**
+     * @return true if all events were indexed
+     */
+    public boolean isFinished() {
+        for (int t = 0; t < tracks.length; t++)
+            if (positions[t] < tracks[t].size())
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import java.util.ArrayList;
+
+/**
+ * Parses and indexes a midi file progressively. {@link #indexFirst(long)} parses and indexes only the notes starting in the first seconds,
+ * so they can be shown immediately, {@link #indexNext()} parses and indexes the remaining events in steps of growing length.
+ */
+public class NoteLoader {
+    /** parses the events of the file */
+    private final SequenceReader reader;
+    /** indexes the parsed events */
+    private final NoteIndexer indexer;
+    /** the notes indexed so far, sorted by the end ticks */
+    private final ArrayList<Note> notes = new ArrayList<>();
+    /** exclusive end tick of the notes indexed so far */
+    private long indexedTicks;
+    /** tempo map of the parsed events, complete until {@link #indexedTicks} */
+    private TempoMap tempoMap;
+
+    /**
+     * create a loader, no event is parsed yet
+     *
+     * @param reader reader of the midi file
+     */
+    public NoteLoader(SequenceReader reader) {
+        this.reader = reader;
+        indexer = new NoteIndexer(reader.getSequence().getTracks());
+    }
+
+    /**
+     * keeps the notes of each track in addition, see {@link NoteIndexer#keepTrackNotes()}, has to be called before the first notes are indexed
+     */
+    public void keepTrackNotes() {
+        indexer.keepTrackNotes();
+    }
+
+    /**
+     * @return the notes indexed so far of each track, null if {@link #keepTrackNotes()} was not called
+     */
+    public ArrayList<ArrayList<Note>> getTrackNotes() {
+        return indexer.getTrackNotes();
+    }
+
+    /**
+     * Parses the events until the given time and indexes the notes starting before it, including the notes that end later.
+     * The tick of the time is searched with the tempo changes parsed so far, they are complete until the parsed tick.
+     *
+     * @param micros time in microseconds
+     * @throws InvalidMidiDataException if an event is not valid
+     */
+    public void indexFirst(long micros) throws InvalidMidiDataException {
+        Sequence sequence = reader.getSequence();
+        long firstTicks = Math.max(1, sequence.getResolution());
+        reader.readUntil(firstTicks);
+        tempoMap = new TempoMap(sequence);
+        while (tempoMap.toMicros(firstTicks) < micros && !reader.isFinished()) {
+            firstTicks = nextStep(firstTicks);
+            reader.readUntil(firstTicks);
+            tempoMap = new TempoMap(sequence);
+        }
+        firstTicks = Math.min(firstTicks, tempoMap.toTicks(micros));
+        indexedTicks = firstTicks;
+        notes.addAll(indexer.indexUntil(indexedTicks));
+        // the notes starting before the time would be missing until the index is complete, so the steps continue until they ended
+        while (indexer.getFirstOpenStart() < firstTicks && !indexer.isFinished())
+            indexNext();
+        tempoMap = new TempoMap(sequence);
+    }
+
+    /**
+     * parses and indexes the next step, each step is twice as long as the previous one
+     *
+     * @return true if the last events of the file were parsed by this step
+     * @throws InvalidMidiDataException if an event is not valid
+     */
+    public boolean indexNext() throws InvalidMidiDataException {
+        boolean parsing = !reader.isFinished();
+        indexedTicks = nextStep(indexedTicks);
+        reader.readUntil(indexedTicks);
+        if (parsing && reader.isFinished())
+            tempoMap = new TempoMap(reader.getSequence());
+        notes.addAll(indexer.indexUntil(indexedTicks));
+        return parsing && reader.isFinished();
+    }
+
+    /**
+     * @param ticks end of the last step
+     * @return end of the next step
+     */
+    private static long nextStep(long ticks) {
+        return ticks > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : Math.max(ticks, 1) * 2;
+    }
+
+    /**
+     * @return true if all events are parsed, the sequence can be played then
+     */
+    public boolean isParsed() {
+        return reader.isFinished();
+    }
+
+    /**
+     * @return true if all notes are indexed
+     */
+    public boolean isIndexed() {
+        return indexer.isFinished();
+    }
+
+    /**
+     * @return the notes indexed so far, sorted by the end ticks, the list grows with each step
+     */
+    public ArrayList<Note> getNotes() {
+        return notes;
+    }
+
+    /**
+     * getter for {@link #tempoMap}
+     *
+     * @return the tempo map of the events parsed so far
+     */
+    public TempoMap getTempoMap() {
+        return tempoMap;
+    }
+
+    /**
+     * @return the sequence, it contains the events parsed so far
+     */
+    public Sequence getSequence() {
+        return reader.getSequence();
+    }
+}
@@ -9,9 +9,23 @@ public interface NotePlayer {
 
     byte getChannel(int note);
 
-    ArrayList<Note> getNotes();
+    /**
+     * @return the notes of this player, sorted by the end ticks
+     */
+    default ArrayList<Note> getNotes() {
+        return getNoteIndex().getNotes();
+    }
+
+    NoteIndex getNoteIndex();
 
     long getTicks();
 
     boolean isPaused();
+
+    /**
+     * @return true if the notes are created while playing and scroll upwards from the keyboard instead of falling down onto it
+     */
+    default boolean isLive() {
+        return false;
+    }
 }
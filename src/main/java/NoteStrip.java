@@ -0,0 +1,202 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Pre-rendered note roll. The notes only move vertically, so they are rasterized once in tick space into tiles of {@link #TILE_HEIGHT} pixels
+ * and each frame only blits the visible part of these tiles.
+ * Tiles ahead of the playhead are rendered on a background thread, tiles behind the playhead are evicted.
+ * The tiles are blitted without holding the lock of the strip, so the bands of a frame can be painted in parallel.
+ */
+public class NoteStrip {
+    /** height of a single tile in pixels */
+    private static final int TILE_HEIGHT = 512;
+    /** number of tiles that are rendered ahead of the visible area */
+    private static final int TILES_AHEAD = 2;
+
+    /** background thread rendering the tiles ahead of the playhead */
+    private final ThreadPoolExecutor executor;
+    /** rendered or scheduled tiles by their tile number, tile n covers the ticks from n * tileTicks (bottom) to (n + 1) * tileTicks (top) */
+    private final ConcurrentHashMap<Long, FutureTask<BufferedImage>> tiles = new ConcurrentHashMap<>();
+    /** evicted tile images that can be reused */
+    private final ArrayDeque<BufferedImage> imagePool = new ArrayDeque<>();
+    /** number of threads blitting tiles, evicted images are only reused while no thread blits */
+    private int blitting;
+
+    /** notes of the current layout */
+    private NoteIndex index;
+    /** paint area width and keyboard section of the current layout */
+    private int width, leftNote, rightNote;
+    /** channel colors of the current layout */
+    private Color[] colors;
+    /** bit mask of the visible channels of the current layout */
+    private int channels;
+
+    public NoteStrip() {
+        executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "NoteStrip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Paints the visible notes. The notes are positioned exactly like {@link MIDIVisualizer#paintNotes} would do it.
+     *
+     * @param g          graphics object
+     * @param index      notes to paint
+     * @param ticks      current tick position, which is located at the top of the keyboard
+     * @param areaWidth  paint area width
+     * @param noteHeight height of the area above the keyboard
+     * @param leftNote   most left white key
+     * @param rightNote  most right white key
+     * @param colors     display color for each midi channel
+     * @param channels   bit mask of the visible channels
+     * @param observer   image observer for images, may be null
+     */
+    public void paint(Graphics2D g, NoteIndex index, long ticks, int areaWidth, int noteHeight, int leftNote, int rightNote, Color[] colors,
+                      int channels, ImageObserver observer) {
+        long tileTicks = (long) TILE_HEIGHT * MIDIVisualizer.TICKS_PER_PIXEL;
+        long firstTile = Math.floorDiv(ticks, tileTicks);
+        long lastTile = Math.floorDiv(ticks + (long) noteHeight * MIDIVisualizer.TICKS_PER_PIXEL, tileTicks);
+        synchronized (this) {
+            validate(index, areaWidth, leftNote, rightNote, colors, channels);
+            evict(firstTile, lastTile + TILES_AHEAD);
+            for (long tile = lastTile + 1; tile <= lastTile + TILES_AHEAD; tile++)
+                if (!tiles.containsKey(tile))
+                    executor.execute(tileTask(tile));
+            for (long tile = firstTile; tile <= lastTile; tile++)
+                tileTask(tile);
+            blitting++;
+        }
+
+        try {
+            // all tiles share the same fractional offset, so rounding it once avoids gaps between them
+            int offset = Math.round(noteHeight + (float) (ticks - firstTile * tileTicks) / MIDIVisualizer.TICKS_PER_PIXEL);
+            Shape clip = g.getClip();
+            g.clipRect(0, 0, areaWidth, noteHeight);
+            for (long tile = firstTile; tile <= lastTile; tile++) {
+                FutureTask<BufferedImage> task = tiles.get(tile);
+                if (task == null) // evicted by a thread painting another position
+                    synchronized (this) {
+                        task = tileTask(tile);
+                    }
+                task.run(); // renders the tile on this thread unless another thread already started it
+                try {
+                    g.drawImage(task.get(), 0, offset - (int) (tile - firstTile + 1) * TILE_HEIGHT, observer);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException | CancellationException e) {
+                    e.printStackTrace();
+                }
+            }
+            g.setClip(clip);
+        } finally {
+            synchronized (this) {
+                blitting--;
+            }
+        }
+    }
+
+    /**
+     * discards all tiles, the next call to {@link #paint} renders them again
+     */
+    public synchronized void invalidate() {
+        evict(Long.MAX_VALUE, Long.MIN_VALUE);
+        index = null;
+    }
+
+    /**
+     * checks if the layout changed and discards all tiles if so
+     */
+    private void validate(NoteIndex index, int areaWidth, int leftNote, int rightNote, Color[] colors, int channels) {
+        if (this.index == index && width == areaWidth && this.leftNote == leftNote && this.rightNote == rightNote && Arrays.equals(this.colors, colors)
+                && this.channels == channels)
+            return;
+        invalidate();
+        synchronized (imagePool) {
+            if (width != areaWidth)
+                imagePool.clear();
+        }
+        this.index = index;
+        width = areaWidth;
+        this.leftNote = leftNote;
+        this.rightNote = rightNote;
+        this.colors = colors.clone();
+        this.channels = channels;
+    }
+
+    /**
+     * removes all tiles outside the given range, cancels them if they are not rendered yet and keeps their images for reuse unless a thread blits tiles
+     *
+     * @param first first tile to keep
+     * @param last  last tile to keep, all tiles are removed if last &lt; first
+     */
+    private void evict(long first, long last) {
+        Iterator<Map.Entry<Long, FutureTask<BufferedImage>>> it = tiles.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, FutureTask<BufferedImage>> entry = it.next();
+            if (entry.getKey() >= first && entry.getKey() <= last)
+                continue;
+            it.remove();
+            FutureTask<BufferedImage> task = entry.getValue();
+            if (task.cancel(false) || !task.isDone() || blitting > 0)
+                continue;
+            try {
+                synchronized (imagePool) {
+                    imagePool.push(task.get());
+                }
+            } catch (InterruptedException | ExecutionException | CancellationException ignored) {
+            }
+        }
+        executor.getQueue().removeIf(runnable -> ((FutureTask<?>) runnable).isCancelled());
+    }
+
+    /**
+     * get the task rendering the given tile, creates it if it does not exist yet
+     *
+     * @param tile tile number
+     * @return the task, which may be already completed
+     */
+    private FutureTask<BufferedImage> tileTask(long tile) {
+        FutureTask<BufferedImage> task = tiles.get(tile);
+        if (task == null) {
+            NoteIndex index = this.index;
+            int width = this.width, leftNote = this.leftNote, rightNote = this.rightNote, channels = this.channels;
+            Color[] colors = this.colors;
+            task = new FutureTask<>(() -> renderTile(tile, index, width, leftNote, rightNote, colors, channels));
+            tiles.put(tile, task);
+        }
+        return task;
+    }
+
+    /**
+     * rasterizes all notes overlapping the given tile
+     *
+     * @return the tile image
+     */
+    private BufferedImage renderTile(long tile, NoteIndex index, int width, int leftNote, int rightNote, Color[] colors, int channels) {
+        BufferedImage img;
+        synchronized (imagePool) {
+            img = imagePool.poll();
+        }
+        if (img == null || img.getWidth() != width)
+            img = new BufferedImage(width, TILE_HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = img.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, width, TILE_HEIGHT);
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        long tileTicks = (long) TILE_HEIGHT * MIDIVisualizer.TICKS_PER_PIXEL;
+        MIDIVisualizer.paintNotes(g, index, tile * tileTicks, (tile + 1) * tileTicks, width, leftNote, rightNote, colors, channels, false);
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,117 @@
+import javax.sound.midi.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+
+/**
+ * Plays a midi file with the {@link SequencerEngine} and the {@link LeanEngine} and compares the heap held during playback and the scheduling jitter.
+ * <p>
+ * Usage: {@code java -cp MIDIVisualizer.jar PlaybackBenchmark [seconds] file.mid}
+ * <br>
+ * For each engine the heap retained after loading, the peak heap while playing and the lateness of the played messages compared to their time
+ * in the tempo map are printed. The lean engine is measured without a reference to the sequence, like the player releases it.
+ */
+public class PlaybackBenchmark {
+    /** default playing time per engine in seconds */
+    private static final int SECONDS = 20;
+
+    /** {@link System#nanoTime()} when playing started */
+    private static volatile long startNanos;
+    /** lateness of each received message in microseconds */
+    private static long[] lateness;
+    /** number of received messages */
+    private static int received;
+    /** false after the playing time, the notes released by stopping are not counted */
+    private static volatile boolean measuring;
+
+    public static void main(String[] args) throws IOException, InvalidMidiDataException, MidiUnavailableException, InterruptedException {
+        int seconds = SECONDS;
+        File file = null;
+        for (String arg : args) {
+            if (arg.matches("\\d+"))
+                seconds = Integer.parseInt(arg);
+            else
+                file = new File(arg);
+        }
+        if (file == null) {
+            System.err.println("usage: PlaybackBenchmark [seconds] file.mid");
+            System.exit(2);
+        }
+        MIDIVisualizer.NOTE_OFFSET = -20;
+        System.out.printf("%-10s %10s %10s %12s %10s %12s %12s %12s%n", "engine", "notes", "messages", "retained MB", "peak MB", "mean ms", "p99 ms", "max ms");
+        for (boolean lean : new boolean[]{false, true}) {
+            Sequence sequence = MidiSystem.getSequence(file);
+            NoteIndex noteIndex = new NoteIndex(new NoteIndexer(sequence).indexUntil(Long.MAX_VALUE));
+            TempoMap tempoMap = new TempoMap(sequence);
+            EventList events = new EventList(sequence);
+            long[] expected = new long[events.size()]; // times of the short messages in the order they are played
+            int count = 0;
+            for (int i = 0; i < events.size(); i++)
+                if (events.getMessage(i) >= 0)
+                    expected[count++] = tempoMap.toMicros(events.getTick(i));
+            lateness = new long[count];
+            received = 0;
+
+            MidiOutput.lean = lean;
+            MidiOutput output = MidiOutput.take();
+            PlaybackEngine engine = lean ? new LeanEngine(output) : new SequencerEngine(output);
+            engine.load(sequence, events, tempoMap);
+            if (lean)
+                sequence = null;
+            engine.setReceiver(new Receiver() {
+                @Override
+                public void send(MidiMessage message, long timeStamp) {
+                    if (measuring && message instanceof ShortMessage && received < lateness.length) {
+                        lateness[received] = (System.nanoTime() - startNanos) / 1000 - expected[received];
+                        received++;
+                    }
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            long retained = heap(false);
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                pool.resetPeakUsage();
+
+            measuring = true;
+            startNanos = System.nanoTime();
+            engine.start();
+            Thread.sleep(seconds * 1000L);
+            measuring = false;
+            engine.stop();
+            long peak = heap(true);
+            engine.close();
+
+            long[] sorted = Arrays.copyOf(lateness, received);
+            Arrays.sort(sorted);
+            long sum = 0;
+            for (long value : sorted)
+                sum += value;
+            System.out.printf("%-10s %10d %10d %12.1f %10.1f %12.3f %12.3f %12.3f%n", lean ? "lean" : "sequencer", noteIndex.size(), received,
+                    retained / 1048576.0, peak / 1048576.0, received == 0 ? 0 : sum / 1000.0 / received, received == 0 ? 0 : sorted[(int) (received * 0.99)] / 1000.0,
+                    received == 0 ? 0 : sorted[received - 1] / 1000.0);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param peak true for the peak usage since the last reset, false for the usage after a garbage collection
+     * @return the used heap in bytes
+     */
+    private static long heap(boolean peak) {
+        if (!peak) {
+            System.gc();
+            System.gc();
+        }
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                used += (peak ? pool.getPeakUsage() : pool.getUsage()).getUsed();
+        return used;
+    }
+}
@@ -0,0 +1,64 @@
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Plays the events of a sequence for a {@link MidiPlayer}. The {@link SequencerEngine} uses the sequencer of the JDK,
+ * the {@link LeanEngine} schedules the events of an {@link EventList} itself, so the sequence does not have to be kept.
+ */
+public interface PlaybackEngine {
+    /**
+     * sets the played events, the position is set to 0
+     *
+     * @param sequence the sequence prepared by a {@link NoteIndexer}
+     * @param events   the events of the sequence, null if the engine does not use them, see {@link #usesEvents()}
+     * @param tempoMap tempo map of the sequence
+     * @throws InvalidMidiDataException if the sequence cannot be played
+     */
+    void load(Sequence sequence, EventList events, TempoMap tempoMap) throws InvalidMidiDataException;
+
+    /**
+     * @return true if the engine plays the events of an {@link EventList}, they do not have to be created for {@link #load(Sequence, EventList, TempoMap)} otherwise
+     */
+    boolean usesEvents();
+
+    /**
+     * @param receiver receives the played short messages in addition to the synthesizer
+     * @throws MidiUnavailableException if the engine has no free transmitter
+     */
+    void setReceiver(Receiver receiver) throws MidiUnavailableException;
+
+    /**
+     * starts playing at the current position
+     */
+    void start();
+
+    /**
+     * stops playing and releases the sounding notes, the position is kept
+     */
+    void stop();
+
+    /**
+     * @return the current position in ticks
+     */
+    long getTickPosition();
+
+    /**
+     * sets the position, has to be called while stopped
+     *
+     * @param tick new position in ticks
+     */
+    void setTickPosition(long tick);
+
+    /**
+     * @return the synthesizer playing the events or null if there is none
+     */
+    Synthesizer getSynthesizer();
+
+    /**
+     * stops playing and closes the synthesizer
+     */
+    void close();
+}
@@ -0,0 +1,241 @@
+import javax.swing.*;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plays a list of midi files one after another. While a file is played, the next file is loaded, indexed and connected to its own sequencer
+ * on a background thread, so the next file starts as soon as the current file ends. If the playlist waits for a file, like the first one, it is shown
+ * as soon as its first notes are indexed. At most the current and the next player are kept in memory.
+ */
+public class Playlist {
+    /** the files of the playlist */
+    private final List<File> files;
+    /** true to start again with the first file after the last file */
+    private final boolean loop;
+    /** parent frame, shows the players */
+    private final MIDIVisualizer parent;
+    /** index of the file played by {@link #current} */
+    private int position = -1;
+    /** the player of the current file, null before the first file is shown */
+    private MidiPlayer current;
+    /** the loaded player of the next file, null if it is not loaded yet or was already shown */
+    private MidiPlayer next;
+    /** player of the next file while it is loaded, closed if the playlist is closed meanwhile unless it is already shown */
+    private MidiPlayer loading;
+    /** true if the current file ended before the next file was loaded, the next file is then shown as soon as it is loaded */
+    private boolean waiting;
+    /** true if the playlist was closed */
+    private boolean closed;
+    /** loads the files one after another */
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PlaylistLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * create a playlist
+     *
+     * @param parent parent frame
+     * @param files  the midi files in playing order, must not be empty
+     * @param loop   true to start again with the first file after the last file
+     */
+    public Playlist(MIDIVisualizer parent, List<File> files, boolean loop) {
+        this.parent = parent;
+        this.files = files;
+        this.loop = loop;
+    }
+
+    /**
+     * Reads the files of a playlist. A directory contains the midi files in alphabetical order,
+     * a list file contains one path per line, relative paths are resolved against the directory of the list. Lines starting with # are ignored.
+     *
+     * @param source directory or list file
+     * @return the midi files
+     * @throws IOException if the list file could not be read or contains no files
+     */
+    public static List<File> read(File source) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (source.isDirectory()) {
+            File[] midiFiles = source.listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".mid") || name.toLowerCase(Locale.ROOT).endsWith(".midi"));
+            if (midiFiles != null) {
+                Arrays.sort(midiFiles);
+                files.addAll(Arrays.asList(midiFiles));
+            }
+        } else {
+            try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    File file = new File(line);
+                    files.add(file.isAbsolute() ? file : new File(source.getAbsoluteFile().getParentFile(), line));
+                }
+            }
+        }
+        if (files.isEmpty())
+            throw new IOException("the playlist " + source + " contains no midi files");
+        return files;
+    }
+
+    /**
+     * starts loading the first file, it is shown as soon as its first notes are indexed and started when it is loaded
+     */
+    public synchronized void start() {
+        waiting = true;
+        prefetch(0);
+    }
+
+    /**
+     * Loads the file at the given position on the loading thread. Files that cannot be loaded are skipped.
+     *
+     * @param index position of the file in {@link #files}
+     */
+    private void prefetch(int index) {
+        loader.execute(() -> {
+            for (int i = index; i < index + files.size(); i++) {
+                if (i >= files.size() && !loop)
+                    break;
+                File file = files.get(i % files.size());
+                try {
+                    MidiPlayer player = MidiPlayer.open(parent, file, this::loading);
+                    loaded(player, i % files.size());
+                    return;
+                } catch (Exception e) {
+                    System.err.println("skipping " + file + " in the playlist: " + e);
+                    failed();
+                }
+            }
+        });
+    }
+
+    /**
+     * called on the loading thread as soon as the player of the next file can be shown, it is shown right away if the playlist is waiting for it
+     *
+     * @param player the player of the next file, its file is still loading
+     */
+    private synchronized void loading(MidiPlayer player) {
+        if (closed) {
+            player.close();
+            return;
+        }
+        loading = player;
+        if (waiting)
+            show(player);
+    }
+
+    /**
+     * called on the loading thread when the next file is loaded
+     *
+     * @param player the player of the next file
+     * @param index  position of the file
+     */
+    private synchronized void loaded(MidiPlayer player, int index) {
+        loading = null;
+        if (closed) {
+            if (player != current)
+                player.close();
+            return;
+        }
+        position = index;
+        if (player == current) {
+            play(player);
+        } else if (waiting) {
+            show(player);
+            play(player);
+        } else {
+            next = player;
+        }
+    }
+
+    /**
+     * called on the loading thread if loading the next file failed, closes its player if it was already created
+     */
+    private synchronized void failed() {
+        if (loading == null)
+            return;
+        if (loading == current) {
+            current = null;
+            waiting = true;
+        }
+        loading.close();
+        loading = null;
+    }
+
+    /**
+     * Called by the current player when it reached the end. Shows the next file, or the next file while it is still loading.
+     */
+    private synchronized void ended() {
+        if (closed)
+            return;
+        if (next != null) {
+            MidiPlayer player = next;
+            next = null;
+            show(player);
+            play(player);
+        } else {
+            waiting = true;
+            if (loading != null)
+                show(loading);
+        }
+    }
+
+    /**
+     * shows a player, it becomes the current player
+     *
+     * @param player the player, its file may still be loading
+     */
+    private void show(MidiPlayer player) {
+        waiting = false;
+        current = player;
+        player.setOnEnd(this::ended);
+        SwingUtilities.invokeLater(() -> {
+            synchronized (this) {
+                if (closed)
+                    return;
+            }
+            parent.showPlayer(player);
+        });
+    }
+
+    /**
+     * starts the shown and loaded current player and starts loading the file after it
+     *
+     * @param player the current player
+     */
+    private void play(MidiPlayer player) {
+        SwingUtilities.invokeLater(() -> {
+            synchronized (this) {
+                if (closed)
+                    return;
+            }
+            player.start();
+        });
+        if (loop || position + 1 < files.size())
+            prefetch(position + 1);
+    }
+
+    /**
+     * Stops the playlist. The next player is closed, the current player is kept, so it can still be played and exported.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (current != null)
+            current.setOnEnd(null);
+        if (next != null)
+            next.close();
+        if (loading != null && loading != current)
+            loading.close();
+        next = loading = null;
+        loader.shutdown();
+    }
+}
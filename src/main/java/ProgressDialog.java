@@ -50,6 +50,14 @@ public class ProgressDialog extends JDialog {
         setVisible(true);
     }
 
+    /**
+     * set maximum value of the progress bar
+     * @param max maximum value
+     */
+    public void setMaximum(int max) {
+        progressBar.setMaximum(max);
+    }
+
     /**
      * set value of the progress bar
      * @param value new value
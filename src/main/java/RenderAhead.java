@@ -0,0 +1,180 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Renders the frames of the playing {@link MidiPlayer} ahead of time on a background thread into a small ring of offscreen images.
+ * The frame times are predicted from the {@link VisualClock} of the player, so the event dispatch thread only has to blit the frame closest to the current time
+ * and heavy passages do not delay the painting. While paused, seeking or if no frame is ready, the window paints synchronously.
+ */
+public class RenderAhead {
+    /** the ring of frames */
+    private final Frame[] frames;
+    /** time between two frames in microseconds, the refresh interval of the display */
+    private final long interval;
+    /** pre-rendered note roll, shared with the window, may be null */
+    private final NoteStrip strip;
+    /** the layout and player of the last painted frame, the frames are rendered for it */
+    private volatile Layout layout;
+    /** time of the next rendered frame in microseconds */
+    private long nextMicros = -1;
+
+    /**
+     * an offscreen frame of the ring
+     */
+    private static class Frame {
+        /** the frame, null until it is rendered for the first time */
+        BufferedImage image;
+        /** layout the frame was rendered for, null while it is rendered */
+        Layout layout;
+        /** time of the frame in microseconds */
+        long micros;
+    }
+
+    /**
+     * The player, size, zoom, colors and channels of the window. Frames of an older layout are not shown.
+     */
+    private static class Layout {
+        final MidiPlayer player;
+        final NoteIndex noteIndex;
+        final int width, height, leftNote, rightNote, channels;
+        final Color[] colors;
+
+        Layout(MidiPlayer player, int width, int height, int leftNote, int rightNote, Color[] colors, int channels) {
+            this.player = player;
+            this.noteIndex = player.getNoteIndex();
+            this.width = width;
+            this.height = height;
+            this.leftNote = leftNote;
+            this.rightNote = rightNote;
+            this.colors = colors.clone();
+            this.channels = channels;
+        }
+
+        /**
+         * @return true if the layout of the window did not change
+         */
+        boolean matches(MidiPlayer player, int width, int height, int leftNote, int rightNote, Color[] colors, int channels) {
+            return this.player == player && noteIndex == player.getNoteIndex() && this.width == width && this.height == height
+                    && this.leftNote == leftNote && this.rightNote == rightNote && this.channels == channels && Arrays.equals(this.colors, colors);
+        }
+    }
+
+    /**
+     * creates the ring and starts the rendering thread
+     *
+     * @param size  number of frames rendered ahead
+     * @param strip pre-rendered note roll of the window, may be null
+     */
+    public RenderAhead(int size, NoteStrip strip) {
+        this.strip = strip;
+        frames = new Frame[size];
+        for (int i = 0; i < size; i++)
+            frames[i] = new Frame();
+        int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+        if (!GraphicsEnvironment.isHeadless())
+            refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        interval = 1000000 / (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : refreshRate);
+        Thread thread = new Thread(this::renderLoop, "RenderAhead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Paints the pre-rendered frame closest to the current time of the player. Has to be called on the event dispatch thread.
+     *
+     * @return true if a frame was painted, false if the frame has to be painted synchronously
+     */
+    public boolean paint(Graphics g, MidiPlayer player, int width, int height, int leftNote, int rightNote, Color[] colors, int channels) {
+        if (player == null || player.isPaused() || !player.isLoaded()) {
+            layout = null;
+            return false;
+        }
+        Layout current = layout;
+        if (current == null || !current.matches(player, width, height, leftNote, rightNote, colors, channels)) {
+            layout = new Layout(player, width, height, leftNote, rightNote, colors, channels);
+            synchronized (this) {
+                notifyAll();
+            }
+            return false;
+        }
+        long now = player.getVisualMicros();
+        synchronized (this) {
+            Frame best = null;
+            for (Frame frame : frames)
+                if (frame.layout == current && Math.abs(frame.micros - now) < 2 * interval
+                        && (best == null || Math.abs(frame.micros - now) < Math.abs(best.micros - now)))
+                    best = frame;
+            notifyAll();
+            if (best == null)
+                return false;
+            g.drawImage(best.image, 0, 0, null); // the frame is not replaced while the lock is held
+            return true;
+        }
+    }
+
+    /**
+     * Renders the frames ahead of the current time of the player of the current layout. The first frame is rendered for the time
+     * at which its rendering is expected to be finished, a frame is only replaced when its time has passed.
+     */
+    private void renderLoop() {
+        RenderingPlayer renderingPlayer = null;
+        Layout renderingLayout = null;
+        long renderMicros = interval; // moving average of the rendering time of a frame
+        while (true) {
+            try {
+                Frame frame = null;
+                Layout current;
+                long micros;
+                synchronized (this) {
+                    current = layout;
+                    if (current == null || current.player.isPaused()) {
+                        wait(100);
+                        continue;
+                    }
+                    long now = current.player.getShownMicros(); // the window samples the clock, the frames follow it
+                    long lead = Math.max(interval, renderMicros);
+                    if (nextMicros < now + lead - interval || nextMicros > now + lead + frames.length * interval) // started, seeked or fell behind
+                        nextMicros = now + lead;
+                    for (Frame f : frames) {
+                        if (f.layout != current) { // not rendered yet or of an old layout
+                            frame = f;
+                            break;
+                        } else if (f.micros < now && (frame == null || f.micros < frame.micros)) {
+                            frame = f;
+                        }
+                    }
+                    if (frame == null) { // all frames are ahead
+                        wait(Math.max(1, interval / 2000));
+                        continue;
+                    }
+                    micros = nextMicros;
+                    nextMicros += interval;
+                    frame.layout = null;
+                }
+                long start = System.nanoTime();
+                if (frame.image == null || frame.image.getWidth() != current.width || frame.image.getHeight() != current.height)
+                    frame.image = new BufferedImage(current.width, current.height, BufferedImage.TYPE_INT_RGB);
+                if (renderingLayout != current) {
+                    renderingPlayer = new RenderingPlayer(current.noteIndex, current.player.getTempoMap(), current.player.awaitKeyStates(current.channels));
+                    renderingLayout = current;
+                }
+                renderingPlayer.nextTime(micros);
+                Graphics g = frame.image.getGraphics();
+                MIDIVisualizer.paintMidiPlayer(g, renderingPlayer, current.width, current.height, current.leftNote, current.rightNote, current.colors,
+                        current.channels, null, strip);
+                g.dispose();
+                renderMicros = (renderMicros * 7 + (System.nanoTime() - start) / 1000) / 8;
+                synchronized (this) {
+                    frame.micros = micros;
+                    frame.layout = current;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // the player was closed while rendering, the next layout is rendered
+                layout = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequence;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders an export on several {@link RenderWorker}s. The export is split into parts of whole frames, the midi file and the settings of each part
+ * are sent to a free worker and the videos of the parts are concatenated without encoding them again. The parts are rendered without audio, the audio
+ * track is rendered for the whole export while the videos are concatenated.
+ * <p>
+ * Each worker renders one part at a time. A part that failed is sent again, preferably to another worker, up to {@link #ATTEMPTS} times. A worker
+ * whose parts failed {@link #WORKER_FAILURES} times in a row gets no further parts, the export fails when no worker is left.
+ * <p>
+ * The workers are processes on other hosts started with {@code --worker} or local processes started by {@link #startLocalWorkers(int)}. The local
+ * workers share the processors of this host, each worker uses its share for its threads.
+ */
+public class RenderFarm {
+    /** number of times a part is sent before the export fails */
+    private static final int ATTEMPTS = 3;
+    /** number of failed parts in a row after which a worker gets no further parts */
+    private static final int WORKER_FAILURES = 2;
+    /** time in milliseconds a failed worker waits before taking the next part, so another worker takes the failed part */
+    private static final long RETRY_MILLIS = 1000;
+    /** timeout in milliseconds for connecting to a worker */
+    private static final int CONNECT_MILLIS = 5000;
+    /** timeout in milliseconds for each response of a worker, workers send their progress several times per second */
+    private static final int RESPONSE_MILLIS = 60000;
+    /** line printed by a worker after it started */
+    private static final Pattern LISTENING = Pattern.compile("Render worker listening on .*:(\\d+)");
+    /** maximum number of local workers started for FARM_LOCAL_WORKERS = AUTO */
+    private static final int AUTO_LOCAL_WORKERS = 4;
+    /** number of processors of a local worker started for FARM_LOCAL_WORKERS = AUTO, unless the host has fewer */
+    private static final int AUTO_WORKER_PROCESSORS = 4;
+
+    /** number of frames of each part */
+    private final int partFrames;
+    /** addresses of the workers */
+    private final ArrayList<InetSocketAddress> workers = new ArrayList<>();
+    /** the started local workers */
+    private final ArrayList<Process> localWorkers = new ArrayList<>();
+
+    /**
+     * a part of an export
+     */
+    private static class Part {
+        /** position of the part in the export */
+        final int index;
+        /** number of the first frame of the part in the export and number of frames of the part */
+        final int firstFrame, frameCount;
+        /** the video of the part */
+        final File video;
+        /** number of times the part was sent */
+        int attempts;
+        /** number of rendered frames of the part */
+        volatile int frames;
+
+        Part(int index, int firstFrame, int frameCount, File video) {
+            this.index = index;
+            this.firstFrame = firstFrame;
+            this.frameCount = frameCount;
+            this.video = video;
+        }
+    }
+
+    /**
+     * create a render farm without workers
+     *
+     * @param partFrames number of frames of each part
+     */
+    public RenderFarm(int partFrames) {
+        this.partFrames = Math.max(1, partFrames);
+    }
+
+    /**
+     * adds a worker
+     *
+     * @param address address of the worker
+     */
+    public void addWorker(InetSocketAddress address) {
+        workers.add(address);
+    }
+
+    /**
+     * Starts worker processes on this host with the class path of this process and adds them. Each worker listens on a free port of the loopback address,
+     * which it prints when it started. The further output of the workers is forwarded to the console.
+     * <p>
+     * Each worker sees an equal share of the processors through -XX:ActiveProcessorCount, so its paint and band threads do not compete with the threads
+     * of the other workers. JVMs that do not know the option see all processors.
+     *
+     * @param count number of workers
+     * @throws IOException if a worker could not be started
+     */
+    public void startLocalWorkers(int count) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        int processors = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, count));
+        for (int i = 0; i < count; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-Djava.awt.headless=true", "-XX:+IgnoreUnrecognizedVMOptions", "-XX:ActiveProcessorCount=" + processors,
+                    "-cp", System.getProperty("java.class.path"), "MIDIVisualizer", "--worker", "0", InetAddress.getLoopbackAddress().getHostAddress());
+            builder.directory(new File(MIDIVisualizer.executionDirectory));
+            builder.redirectErrorStream(true);
+            Process process = builder.start();
+            localWorkers.add(process);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String name = "worker " + (i + 1) + ": ";
+            int port = -1;
+            for (String line; port < 0 && (line = reader.readLine()) != null; ) {
+                Matcher matcher = LISTENING.matcher(line);
+                if (matcher.find())
+                    port = Integer.parseInt(matcher.group(1));
+                else
+                    System.out.println(name + line);
+            }
+            if (port < 0)
+                throw new IOException("local " + name + "exited before listening");
+            Thread output = new Thread(() -> {
+                try {
+                    for (String line; (line = reader.readLine()) != null; )
+                        System.out.println(name + line);
+                } catch (IOException e) {
+                    // the worker exited
+                }
+            }, "RenderFarmOutput");
+            output.setDaemon(true);
+            output.start();
+            addWorker(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        }
+    }
+
+    /**
+     * stops the local workers
+     */
+    public void close() {
+        for (Process process : localWorkers)
+            process.destroy();
+        localWorkers.clear();
+    }
+
+    /**
+     * Renders a video on the workers, limited to the range of the export.
+     *
+     * @param target    the video file
+     * @param midi      the bytes of the midi file
+     * @param export    settings of the export, the workers use their own background image
+     * @param events    events of the sequence
+     * @param tempoMap  tempo map of the sequence
+     * @param progress  called with the number of rendered frames of all parts, on the threads of the workers
+     * @param cancelled stops the rendering when set, no video is written
+     * @throws Exception if a part failed {@link #ATTEMPTS} times, no worker is left, the parts could not be concatenated or the audio not rendered
+     */
+    public void render(File target, byte[] midi, VideoExport export, EventList events, TempoMap tempoMap, IntConsumer progress, AtomicBoolean cancelled)
+            throws Exception {
+        if (workers.isEmpty())
+            throw new IllegalStateException("no render workers");
+        int fps = export.getFps();
+        int frameCount = export.frameCount(events, tempoMap);
+        int count = Math.max(1, (frameCount + partFrames - 1) / partFrames);
+        File directory = Files.createTempDirectory("parts").toFile();
+        Part[] parts = new Part[count];
+        LinkedBlockingDeque<Part> queue = new LinkedBlockingDeque<>();
+        for (int i = 0; i < count; i++) {
+            // the worker renders the frames by their number in the whole export, so the parts neither overlap nor leave gaps
+            parts[i] = new Part(i, i * partFrames, Math.min(partFrames, frameCount - i * partFrames), new File(directory, i + ".mp4"));
+            queue.add(parts[i]);
+        }
+        AtomicInteger remaining = new AtomicInteger(count);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Runnable reportProgress = () -> {
+            int frames = 0;
+            for (Part part : parts)
+                frames += part.frames;
+            progress.accept(frames);
+        };
+        ExecutorService threads = Executors.newFixedThreadPool(workers.size(), runnable -> new Thread(runnable, "RenderFarm"));
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (InetSocketAddress worker : workers)
+                futures.add(threads.submit(() -> {
+                    int failures = 0;
+                    while (remaining.get() > 0 && error.get() == null && !cancelled.get() && failures < WORKER_FAILURES) {
+                        Part part = queue.poll(100, TimeUnit.MILLISECONDS);
+                        if (part == null)
+                            continue;
+                        try {
+                            renderPart(worker, midi, export, part, reportProgress, cancelled);
+                            if (!cancelled.get())
+                                remaining.decrementAndGet();
+                            failures = 0;
+                        } catch (IOException e) {
+                            System.err.println("part " + (part.index + 1) + " failed on " + worker + ": " + e.getMessage());
+                            part.frames = 0;
+                            reportProgress.run();
+                            failures++;
+                            if (++part.attempts >= ATTEMPTS) {
+                                error.compareAndSet(null, new IOException("part " + (part.index + 1) + " failed " + ATTEMPTS + " times", e));
+                            } else {
+                                queue.addFirst(part);
+                                Thread.sleep(RETRY_MILLIS);
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            threads.shutdown();
+            while (!threads.awaitTermination(1, TimeUnit.SECONDS))
+                reportProgress.run();
+            for (Future<?> future : futures)
+                future.get(); // throws the unexpected exceptions of the threads
+            if (cancelled.get())
+                return;
+            if (error.get() != null)
+                throw error.get();
+            if (remaining.get() > 0)
+                throw new IOException("all render workers failed");
+            File[] videos = new File[count];
+            long[] starts = new long[count];
+            for (int i = 0; i < count; i++) {
+                videos[i] = parts[i].video;
+                starts[i] = (long) parts[i].firstFrame * 1000000L / fps;
+            }
+            AudioRenderer audio = null;
+            if (export.hasAudio()) {
+                try {
+                    audio = new AudioRenderer(events, tempoMap, export.getAudibleChannels(), export.getRangeStart());
+                } catch (MidiUnavailableException e) {
+                    e.printStackTrace();
+                    System.err.println("exporting the video without audio");
+                }
+            }
+            try {
+                if (audio != null)
+                    audio.start();
+                VideoRenderer.concatenate(videos, starts, target, audio);
+            } finally {
+                if (audio != null)
+                    audio.stop();
+            }
+        } finally {
+            threads.shutdownNow();
+            for (Part part : parts)
+                part.video.delete();
+            directory.delete();
+        }
+    }
+
+    /**
+     * sends a part to a worker and receives its video
+     *
+     * @param worker    address of the worker
+     * @param midi      the bytes of the midi file
+     * @param export    settings of the export
+     * @param part      the part
+     * @param progress  called after the worker sent its progress
+     * @param cancelled closes the connection when set, which cancels the part on the worker
+     * @throws IOException if the worker is not reachable, failed or does not respond
+     */
+    private static void renderPart(InetSocketAddress worker, byte[] midi, VideoExport export, Part part, Runnable progress, AtomicBoolean cancelled)
+            throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(worker, CONNECT_MILLIS);
+            socket.setSoTimeout(RESPONSE_MILLIS);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeInt(RenderWorker.MAGIC);
+            out.writeInt(RenderWorker.VERSION);
+            export.write(out, false);
+            out.writeInt(part.firstFrame);
+            out.writeInt(part.frameCount);
+            out.writeInt(midi.length);
+            out.write(midi);
+            out.flush();
+            while (!cancelled.get()) {
+                int type = in.readUnsignedByte();
+                if (type == RenderWorker.PROGRESS) {
+                    part.frames = in.readInt();
+                    progress.run();
+                } else if (type == RenderWorker.DONE) {
+                    long length = in.readLong();
+                    try (OutputStream video = new BufferedOutputStream(new FileOutputStream(part.video))) {
+                        byte[] buffer = new byte[1 << 16];
+                        for (long left = length; left > 0; ) {
+                            int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                            if (read < 0)
+                                throw new EOFException("incomplete video");
+                            video.write(buffer, 0, read);
+                            left -= read;
+                        }
+                    }
+                    return;
+                } else if (type == RenderWorker.FAILED) {
+                    throw new IOException(in.readUTF());
+                } else {
+                    throw new IOException("unknown response " + type);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders a midi file on a render farm from the command line, {@code --farm song.mid video.mp4 [key=value ...]}. The keys are the query
+     * parameters of the {@link RenderServer} and {@code workers}, {@code local} and {@code part}, which override FARM_WORKERS, FARM_LOCAL_WORKERS
+     * and FARM_PART_FRAMES.
+     *
+     * @param args       the command line arguments
+     * @param properties the configuration
+     * @throws Exception if the arguments are invalid or the file could not be read or rendered
+     */
+    static void run(String[] args, Properties properties) throws Exception {
+        if (args.length < 3)
+            throw new IllegalArgumentException("usage: --farm song.mid video.mp4 [key=value ...]");
+        Map<String, String> options = new HashMap<>();
+        for (int i = 3; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length == 2)
+                options.put(option[0], option[1]);
+        }
+        RenderFarm farm = new RenderFarm(Integer.parseInt(options.getOrDefault("part", properties.getProperty("FARM_PART_FRAMES", "300"))));
+        for (String worker : options.getOrDefault("workers", properties.getProperty("FARM_WORKERS", "")).split(",")) {
+            worker = worker.trim();
+            if (worker.isEmpty())
+                continue;
+            int colon = worker.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("render worker without port: " + worker);
+            farm.addWorker(new InetSocketAddress(worker.substring(0, colon), Integer.parseInt(worker.substring(colon + 1))));
+        }
+        String local = options.getOrDefault("local", properties.getProperty("FARM_LOCAL_WORKERS", "AUTO"));
+        int localCount = "AUTO".equals(local) ? farm.workers.isEmpty() ? autoLocalWorkers() : 0 : Integer.parseInt(local);
+
+        File source = new File(args[1]);
+        byte[] midi = Files.readAllBytes(source.toPath());
+        Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(midi));
+        EventList events = new EventList(sequence);
+        TempoMap tempoMap = new TempoMap(sequence);
+        VideoExport export = RenderServer.settings(options, properties);
+        int frameCount = export.frameCount(events, tempoMap);
+        try {
+            farm.startLocalWorkers(localCount);
+            System.out.println("Rendering " + source.getName() + " on " + farm.workers.size() + " workers");
+            long started = System.currentTimeMillis();
+            long[] printed = {started};
+            farm.render(new File(args[2]), midi, export, events, tempoMap, frames -> {
+                synchronized (printed) {
+                    if (System.currentTimeMillis() - printed[0] < 1000)
+                        return;
+                    printed[0] = System.currentTimeMillis();
+                }
+                System.out.println(frames + " / " + frameCount + " frames");
+            }, new AtomicBoolean());
+            System.out.println("Rendered " + args[2] + " in " + (System.currentTimeMillis() - started) / 1000 + " s");
+        } finally {
+            farm.close();
+        }
+    }
+
+    /**
+     * @return number of local workers for FARM_LOCAL_WORKERS = AUTO, a few workers with {@link #AUTO_WORKER_PROCESSORS} processors each
+     */
+    private static int autoLocalWorkers() {
+        return Math.max(1, Math.min(AUTO_LOCAL_WORKERS, Runtime.getRuntime().availableProcessors() / AUTO_WORKER_PROCESSORS));
+    }
+}
@@ -0,0 +1,455 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Headless render server. Midi files are uploaded over HTTP and rendered to videos by the {@link ExportManager}, so the JVM, the keyboard images,
+ * the note cache and the video library stay loaded between the jobs.
+ * <p>
+ * Start with {@code java -Djava.awt.headless=true -jar MIDIVisualizer.jar --server [port]}. Endpoints:
+ * <ul>
+ * <li>{@code POST /jobs?width=&height=&fps=&preview=&audio=&hidden=&muted=&start=&end=} with the midi file as body: queues a job and returns its id,
+ * the settings default to the config file, hidden and muted are comma separated channel lists, start and end limit the video to a clip
+ * and are given in seconds or as minutes:seconds</li>
+ * <li>{@code GET /jobs/<id>}: state and progress of a job</li>
+ * <li>{@code GET /jobs/<id>/progress}: streams a line with the progress every half second until the job is finished</li>
+ * <li>{@code GET /jobs/<id>/video}: the rendered video</li>
+ * <li>{@code DELETE /jobs/<id>}: cancels a job and deletes its video</li>
+ * <li>{@code GET /metrics}: number of jobs, frames and the mean latency and throughput of the finished jobs</li>
+ * </ul>
+ */
+public class RenderServer {
+    /** maximum size of an uploaded midi file */
+    private static final int MAX_UPLOAD = 64 * 1024 * 1024;
+    /** number of finished jobs whose videos are kept, older videos are deleted */
+    private static final int KEPT_JOBS = 64;
+
+    /** states of a job */
+    enum State {QUEUED, RENDERING, DONE, FAILED, CANCELLED}
+
+    /** the http server */
+    private final HttpServer server;
+    /** executes the jobs with the configured number of threads */
+    private final ExportManager exportManager;
+    /** config file, provides the default settings */
+    private final Properties properties;
+    /** directory of the uploaded files and rendered videos */
+    private final File directory;
+    /** jobs by id */
+    private final Map<Integer, Job> jobs = new ConcurrentHashMap<>();
+    /** number of kept jobs per uploaded file, a file is deleted when no kept job uses it. Also locks the creation and deletion of the files. */
+    private final Map<File, Integer> uploads = new HashMap<>();
+    /** ids of the finished jobs, oldest first */
+    private final ArrayDeque<Integer> finished = new ArrayDeque<>();
+    /** id of the next job */
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    /** counters of the metrics, {@link #started} counts the jobs that left the queue and {@link #rendered} the finished ones among them */
+    private final AtomicLong submitted = new AtomicLong(), completed = new AtomicLong(), failed = new AtomicLong(), cancelled = new AtomicLong(),
+            frames = new AtomicLong(), queueNanos = new AtomicLong(), renderNanos = new AtomicLong(), started = new AtomicLong(), rendered = new AtomicLong();
+
+    /**
+     * A render job. The settings are fixed when the job is submitted.
+     */
+    private class Job implements Runnable {
+        final int id;
+        /** the uploaded midi file */
+        final File midi;
+        /** the rendered video */
+        final File video;
+        /** the settings of the video */
+        final VideoExport export;
+        /** set to cancel the job */
+        final AtomicBoolean cancel = new AtomicBoolean();
+        /** leaves {@link State#QUEUED} exactly once, either when the job starts or when it is cancelled before */
+        final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+        /** rendered frames and the approximate number of frames */
+        volatile int frame, frameCount;
+        /** error message of a failed job */
+        volatile String error;
+        /** {@link System#nanoTime()} when the job was submitted, started and finished */
+        final long submittedAt = System.nanoTime();
+        volatile long startedAt, finishedAt;
+
+        Job(int id, File midi, VideoExport export) {
+            this.id = id;
+            this.midi = midi;
+            this.export = export;
+            video = new File(directory, id + ".mp4");
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(State.QUEUED, State.RENDERING)) // cancelled while queued
+                return;
+            startedAt = System.nanoTime();
+            queueNanos.addAndGet(startedAt - submittedAt);
+            started.incrementAndGet();
+            try {
+                NoteCache.Source source;
+                synchronized (uploads) { // a removed job was cancelled before its upload was released
+                    source = cancel.get() ? null : NoteCache.Source.read(midi);
+                }
+                if (source != null)
+                    render(source);
+                if (cancel.get())
+                    video.delete();
+                state.set(cancel.get() ? State.CANCELLED : State.DONE);
+            } catch (Exception e) {
+                e.printStackTrace();
+                error = e.toString();
+                video.delete();
+                state.set(State.FAILED);
+            }
+            finish();
+        }
+
+        /**
+         * renders the video of the uploaded file
+         *
+         * @param source the uploaded file
+         * @throws Exception if the file could not be parsed or the video could not be rendered
+         */
+        private void render(NoteCache.Source source) throws Exception {
+            Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(source.bytes));
+            NoteIndexer.prepare(sequence);
+            NoteCache cache = MIDIVisualizer.noteCache;
+            NoteCache.Entry cached = cache == null ? null : cache.load(source);
+            NoteIndex noteIndex = cached != null ? cached.noteIndex : new NoteIndex(new NoteIndexer(sequence.getTracks()).indexUntil(Long.MAX_VALUE));
+            TempoMap tempoMap = cached != null ? cached.tempoMap : new TempoMap(sequence);
+            if (cache != null && cached == null)
+                cache.store(source, noteIndex, tempoMap);
+            EventList events = new EventList(sequence);
+            frameCount = export.frameCount(events, tempoMap);
+            export.renderVideo(video, events, noteIndex, tempoMap, new KeyStateIndex(noteIndex.filter(export.getVisibleChannels())),
+                    f -> frame = f, cancel);
+            frames.addAndGet(frame);
+        }
+
+        /**
+         * updates the metrics and deletes the videos of old jobs
+         */
+        void finish() {
+            finishedAt = System.nanoTime();
+            if (startedAt != 0) {
+                renderNanos.addAndGet(finishedAt - startedAt);
+                rendered.incrementAndGet();
+            }
+            State state = this.state.get();
+            (state == State.DONE ? completed : state == State.FAILED ? failed : cancelled).incrementAndGet();
+            synchronized (finished) {
+                finished.add(id);
+                while (finished.size() > KEPT_JOBS)
+                    remove(finished.poll());
+            }
+        }
+
+        /**
+         * @return state and progress as json object
+         */
+        String toJson() {
+            return "{\"id\":" + id + ",\"state\":\"" + state.get() + "\",\"frame\":" + frame + ",\"frames\":" + frameCount
+                    + (error == null ? "" : ",\"error\":\"" + error.replace("\\", "\\\\").replace("\"", "\\\"") + "\"") + "}";
+        }
+    }
+
+    /**
+     * create a render server
+     *
+     * @param port          port of the http server
+     * @param exportManager executes the jobs
+     * @param properties    config file, provides the address of the server and the default settings of the jobs
+     * @throws IOException if the server could not be started
+     */
+    public RenderServer(int port, ExportManager exportManager, Properties properties) throws IOException {
+        this.exportManager = exportManager;
+        this.properties = properties;
+        directory = Files.createTempDirectory("midivisualizer-server").toFile();
+        directory.deleteOnExit();
+        // the endpoints have no authentication, so they are only reachable from other hosts if configured
+        String address = properties.getProperty("SERVER_ADDRESS", "").trim();
+        server = HttpServer.create(new InetSocketAddress(address.isEmpty() ? InetAddress.getLoopbackAddress() : InetAddress.getByName(address), port), 0);
+        server.setExecutor(Executors.newCachedThreadPool()); // progress streams block a thread each
+        server.createContext("/jobs", exchange -> {
+            try {
+                handleJobs(exchange);
+            } catch (Exception e) {
+                e.printStackTrace();
+                respond(exchange, 500, e.toString());
+            } finally {
+                exchange.close();
+            }
+        });
+        server.createContext("/metrics", exchange -> {
+            try {
+                respond(exchange, 200, metrics());
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    /**
+     * starts accepting requests
+     */
+    public void start() {
+        server.start();
+        System.out.println("Render server listening on " + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort());
+    }
+
+    /**
+     * dispatches the requests of /jobs
+     */
+    private void handleJobs(HttpExchange exchange) throws IOException, InterruptedException {
+        String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+        String method = exchange.getRequestMethod();
+        if (path.length == 2) {
+            if ("POST".equals(method))
+                submit(exchange);
+            else
+                respond(exchange, 405, "use POST to submit a job");
+            return;
+        }
+        Job job;
+        try {
+            job = jobs.get(Integer.parseInt(path[2]));
+        } catch (NumberFormatException e) {
+            job = null;
+        }
+        if (job == null) {
+            respond(exchange, 404, "unknown job");
+        } else if (path.length == 3 && "GET".equals(method)) {
+            respond(exchange, 200, job.toJson());
+        } else if (path.length == 3 && "DELETE".equals(method)) {
+            job.cancel.set(true);
+            if (job.state.compareAndSet(State.QUEUED, State.CANCELLED))
+                job.finish();
+            remove(job.id);
+            respond(exchange, 200, job.toJson());
+        } else if (path.length == 4 && "progress".equals(path[3])) {
+            streamProgress(exchange, job);
+        } else if (path.length == 4 && "video".equals(path[3])) {
+            if (job.state.get() != State.DONE) {
+                respond(exchange, 409, job.toJson());
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "video/mp4");
+            exchange.sendResponseHeaders(200, job.video.length());
+            try (OutputStream out = exchange.getResponseBody()) {
+                Files.copy(job.video.toPath(), out);
+            }
+        } else {
+            respond(exchange, 404, "unknown request");
+        }
+    }
+
+    /**
+     * stores the uploaded file and queues a job for it
+     */
+    private void submit(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        File midi;
+        VideoExport export;
+        try {
+            export = settings(query, properties);
+            midi = store(exchange.getRequestBody());
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, e.getMessage() == null ? e.toString() : e.getMessage());
+            return;
+        }
+        try {
+            MidiSystem.getMidiFileFormat(midi);
+        } catch (InvalidMidiDataException | IOException e) {
+            release(midi);
+            respond(exchange, 400, e.getMessage() == null ? e.toString() : e.getMessage());
+            return;
+        }
+        Job job = new Job(nextId.getAndIncrement(), midi, export);
+        jobs.put(job.id, job);
+        submitted.incrementAndGet();
+        exportManager.submit(job);
+        respond(exchange, 202, job.toJson());
+    }
+
+    /**
+     * Stores an uploaded file under its hash, so repeated uploads of the same file are stored once and their notes are taken from the note cache.
+     * The file is used by one more job, see {@link #release(File)}.
+     *
+     * @param in body of the request
+     * @return the stored file
+     * @throws IllegalArgumentException if the file is too large
+     */
+    private File store(InputStream in) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            if (bytes.size() + n > MAX_UPLOAD)
+                throw new IllegalArgumentException("the file exceeds " + MAX_UPLOAD / 1024 / 1024 + " MB");
+            bytes.write(buffer, 0, n);
+            digest.update(buffer, 0, n);
+        }
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest())
+            name.append(String.format("%02x", b));
+        File file = new File(directory, name + ".mid");
+        synchronized (uploads) {
+            if (!file.exists()) {
+                try (OutputStream out = new FileOutputStream(file)) {
+                    bytes.writeTo(out);
+                }
+                file.deleteOnExit();
+            }
+            uploads.merge(file, 1, Integer::sum);
+        }
+        return file;
+    }
+
+    /**
+     * releases an uploaded file of a job, the file is deleted when no kept job uses it
+     *
+     * @param midi the file returned by {@link #store(InputStream)}
+     */
+    private void release(File midi) {
+        synchronized (uploads) {
+            if (uploads.merge(midi, -1, (count, change) -> count + change == 0 ? null : count + change) == null)
+                midi.delete();
+        }
+    }
+
+    /**
+     * reads the settings of a job, missing settings are taken from the config file
+     *
+     * @param query      parameters of the request
+     * @param properties the config file
+     * @return the settings
+     * @throws IllegalArgumentException if a setting is invalid
+     */
+    static VideoExport settings(Map<String, String> query, Properties properties) {
+        int width = Integer.parseInt(query.getOrDefault("width", properties.getProperty("EXPORT_WIDTH", "1920")));
+        int height = Integer.parseInt(query.getOrDefault("height", properties.getProperty("EXPORT_HEIGHT", "1080")));
+        int fps = Integer.parseInt(query.getOrDefault("fps", properties.getProperty("EXPORT_FPS", "30")));
+        double previewScale = Double.parseDouble(query.getOrDefault("preview", "1"));
+        if (width < 2 || height < 2 || width > 7680 || height > 4320 || fps < 1 || fps > 240 || previewScale <= 0 || previewScale > 1)
+            throw new IllegalArgumentException("invalid size, frame rate or preview scale");
+        if (width % 2 != 0 || height % 2 != 0) // the encoder needs even dimensions
+            throw new IllegalArgumentException("width and height have to be even");
+        if (previewScale < 1)
+            fps = Math.max(1, (int) Math.round(fps * previewScale));
+        boolean audio = !"OFF".equalsIgnoreCase(query.getOrDefault("audio", properties.getProperty("EXPORT_AUDIO", "ON")));
+        boolean noteTiles = previewScale == 1 && !"OFF".equals(properties.get("NOTE_TILES"));
+        int visible = MIDIVisualizer.ALL_CHANNELS & ~MIDIVisualizer.parseChannels(query.getOrDefault("hidden", properties.getProperty("HIDDEN_CHANNELS")));
+        int audible = MIDIVisualizer.ALL_CHANNELS & ~MIDIVisualizer.parseChannels(query.getOrDefault("muted", properties.getProperty("MUTED_CHANNELS")));
+        VideoExport export = new VideoExport(width, height, fps, previewScale, audio, noteTiles, 0, 52, MIDIVisualizer.channelColors, visible, audible);
+        export.setRange(query.containsKey("start") ? MIDIVisualizer.parseTime(query.get("start")) : 0,
+                query.containsKey("end") ? MIDIVisualizer.parseTime(query.get("end")) : Long.MAX_VALUE);
+        export.setBandHeight(MIDIVisualizer.parseBandHeight(properties.getProperty("EXPORT_BAND_HEIGHT", "AUTO")));
+        if (previewScale == 1)
+            export.setFrameCache(MIDIVisualizer.frameCache);
+        return export;
+    }
+
+    /**
+     * sends a line with the state and progress of a job every half second until the job is finished
+     */
+    private void streamProgress(HttpExchange exchange, Job job) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            while (true) {
+                State state = job.state.get();
+                out.write(job.toJson() + "\n");
+                out.flush();
+                if (state != State.QUEUED && state != State.RENDERING)
+                    break;
+                Thread.sleep(500);
+            }
+        }
+    }
+
+    /**
+     * removes a job, deletes its video and releases its uploaded file
+     *
+     * @param id id of the job
+     */
+    private void remove(int id) {
+        Job job = jobs.remove(id);
+        if (job == null)
+            return;
+        if (job.state.get() != State.RENDERING)
+            job.video.delete();
+        release(job.midi);
+    }
+
+    /**
+     * @return the metrics in the text format of Prometheus
+     */
+    private String metrics() {
+        // jobs cancelled while queued were neither waiting until a start nor rendered
+        long startedJobs = started.get(), renderedJobs = rendered.get();
+        long renderMillis = renderNanos.get() / 1000000;
+        StringBuilder text = new StringBuilder();
+        text.append("jobs_submitted ").append(submitted.get()).append('\n');
+        text.append("jobs_pending ").append(exportManager.getPendingJobs()).append('\n');
+        text.append("jobs_completed ").append(completed.get()).append('\n');
+        text.append("jobs_failed ").append(failed.get()).append('\n');
+        text.append("jobs_cancelled ").append(cancelled.get()).append('\n');
+        text.append("frames_rendered ").append(frames.get()).append('\n');
+        text.append("job_queue_ms_mean ").append(startedJobs == 0 ? 0 : queueNanos.get() / 1000000 / startedJobs).append('\n');
+        text.append("job_render_ms_mean ").append(renderedJobs == 0 ? 0 : renderMillis / renderedJobs).append('\n');
+        text.append("frames_per_second ").append(renderMillis == 0 ? 0 : frames.get() * 1000 / renderMillis).append('\n');
+        return text.toString();
+    }
+
+    /**
+     * parses the parameters of a query string
+     *
+     * @param query raw query string, may be null
+     * @return the decoded parameters
+     */
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null)
+            return parameters;
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0)
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"), URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+        }
+        return parameters;
+    }
+
+    /**
+     * sends a text response
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = (body + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", body.startsWith("{") ? "application/json" : "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
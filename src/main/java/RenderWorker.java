@@ -0,0 +1,251 @@
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders parts of exports for a {@link RenderFarm}. The worker accepts connections on a socket, each connection sends one part and receives its video.
+ * <p>
+ * Start with {@code java -Djava.awt.headless=true -jar MIDIVisualizer.jar --worker [port] [address]}, the default port is 8081. The protocol has no
+ * authentication, so the worker listens on the loopback address unless the address or WORKER_ADDRESS is set. The protocol uses {@link DataOutputStream}s:
+ * <ul>
+ * <li>request: {@link #MAGIC}, {@link #VERSION}, the settings written by {@link VideoExport#write(DataOutputStream, boolean)}, the number of
+ * the first frame of the part in the export and the number of frames of the part, see {@link VideoExport#setPart(int, int)}, the length and the bytes of the midi file</li>
+ * <li>response: {@link #PROGRESS} and the number of rendered frames, repeated while the part is rendered and once with the number of all frames
+ * of the part, then either {@link #DONE}, the length and the bytes of the video or {@link #FAILED} and an error message</li>
+ * </ul>
+ * The part is rendered by the {@link ExportManager}, so EXPORT_THREADS limits the parts rendered at the same time. A part is cancelled when the
+ * coordinator closes the connection. The parts of an export are sent with the same midi file, so the last parsed files are kept.
+ */
+public class RenderWorker {
+    /** first bytes of a request */
+    static final int MAGIC = 0x4D565257; // MVRW
+    /** version of the protocol, has to be increased whenever the protocol changes */
+    static final int VERSION = 2;
+    /** response types */
+    static final int PROGRESS = 1, DONE = 2, FAILED = 3;
+    /** maximum size of a received midi file */
+    private static final int MAX_MIDI = 64 * 1024 * 1024;
+    /** time between two progress messages in milliseconds */
+    private static final long PROGRESS_MILLIS = 250;
+    /** number of parsed midi files that are kept */
+    private static final int PARSED_FILES = 2;
+
+    /** the listening socket */
+    private final ServerSocket serverSocket;
+    /** executes the parts */
+    private final ExportManager exportManager;
+    /** the last parsed midi files by the SHA-256 hash of their bytes, in the order of their last use */
+    private final LinkedHashMap<ByteBuffer, ParsedFile> parsedFiles = new LinkedHashMap<ByteBuffer, ParsedFile>(4, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, ParsedFile> eldest) {
+            return size() > PARSED_FILES;
+        }
+    };
+
+    /**
+     * a parsed midi file, it is only read by the parts
+     */
+    private static class ParsedFile {
+        /** events of the sequence */
+        final EventList events;
+        /** the notes of the sequence */
+        final NoteIndex noteIndex;
+        /** tempo map of the sequence */
+        final TempoMap tempoMap;
+        /** key states of the notes on {@link #keyStateChannels}, null until a part needs them */
+        KeyStateIndex keyStates;
+        /** visible channels of {@link #keyStates} */
+        int keyStateChannels;
+
+        /**
+         * indexes the notes of a parsed sequence
+         *
+         * @param sequence the sequence
+         * @throws InvalidMidiDataException if a note is not valid
+         */
+        ParsedFile(Sequence sequence) throws InvalidMidiDataException {
+            noteIndex = new NoteIndex(new NoteIndexer(sequence).indexUntil(Long.MAX_VALUE)); // also prepares the messages
+            events = new EventList(sequence);
+            tempoMap = new TempoMap(sequence);
+        }
+
+        /**
+         * @param channels bit mask of the visible channels
+         * @return the key states of the notes on the channels, kept for the next part with the same channels
+         */
+        synchronized KeyStateIndex keyStates(int channels) {
+            if (keyStates == null || keyStateChannels != channels) {
+                keyStates = new KeyStateIndex(noteIndex.filter(channels));
+                keyStateChannels = channels;
+            }
+            return keyStates;
+        }
+    }
+
+    /**
+     * create a worker
+     *
+     * @param address       address the socket is bound to
+     * @param port          port of the socket, 0 for any free port
+     * @param exportManager executes the parts
+     * @throws IOException if the socket could not be opened
+     */
+    public RenderWorker(InetAddress address, int port, ExportManager exportManager) throws IOException {
+        this.exportManager = exportManager;
+        serverSocket = new ServerSocket(port, 50, address);
+    }
+
+    /**
+     * starts accepting connections, the address is printed to the console as {@code Render worker listening on <address>:<port>}
+     */
+    public void start() {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    new Thread(() -> serve(socket), "RenderWorker").start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }
+        }, "RenderWorkerAccept");
+        thread.start();
+        System.out.println("Render worker listening on " + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort());
+    }
+
+    /**
+     * renders the part of a connection and sends the video or the error
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            try {
+                render(in, out);
+            } catch (Exception e) {
+                e.printStackTrace();
+                synchronized (out) {
+                    out.writeByte(FAILED);
+                    out.writeUTF(String.valueOf(e));
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the connection is closed
+        }
+    }
+
+    /**
+     * reads a part, renders it and sends the video
+     *
+     * @param in  stream of the request
+     * @param out stream of the response
+     * @throws Exception if the request is invalid or the part could not be rendered
+     */
+    private void render(DataInputStream in, DataOutputStream out) throws Exception {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("unknown protocol");
+        VideoExport export = VideoExport.read(in);
+        export.setPart(in.readInt(), in.readInt());
+        if (export.getPreviewScale() == 1)
+            export.setFrameCache(MIDIVisualizer.frameCache);
+        int length = in.readInt();
+        if (length < 0 || length > MAX_MIDI)
+            throw new IOException("invalid length of the midi file: " + length);
+        byte[] midi = new byte[length];
+        in.readFully(midi);
+        sendProgress(out, 0);
+
+        File video = File.createTempFile("part", ".mp4");
+        try {
+            AtomicBoolean cancel = new AtomicBoolean();
+            int[] rendered = new int[1];
+            Throwable[] error = new Throwable[1];
+            CountDownLatch finished = new CountDownLatch(1);
+            exportManager.submit(() -> {
+                try {
+                    ParsedFile parsed = parse(midi);
+                    long[] sent = {System.currentTimeMillis()};
+                    export.renderVideo(video, parsed.events, parsed.noteIndex, parsed.tempoMap, parsed.keyStates(export.getVisibleChannels()), frame -> {
+                                rendered[0] = frame;
+                                if (System.currentTimeMillis() - sent[0] < PROGRESS_MILLIS)
+                                    return;
+                                sent[0] = System.currentTimeMillis();
+                                try {
+                                    sendProgress(out, frame);
+                                } catch (IOException e) {
+                                    cancel.set(true); // the coordinator closed the connection
+                                }
+                            }, cancel);
+                } catch (Throwable e) {
+                    error[0] = e;
+                } finally {
+                    finished.countDown();
+                }
+            });
+            finished.await();
+            if (error[0] != null)
+                throw new ExecutionException(error[0]);
+            if (cancel.get())
+                return;
+            sendProgress(out, rendered[0]);
+            synchronized (out) {
+                out.writeByte(DONE);
+                out.writeLong(video.length());
+                Files.copy(video.toPath(), out);
+                out.flush();
+            }
+        } finally {
+            video.delete();
+        }
+    }
+
+    /**
+     * Parses a midi file or takes it from the last parsed files. Parts of other files wait while a file is parsed.
+     *
+     * @param midi the bytes of the midi file
+     * @return the parsed file
+     * @throws Exception if the file is not a valid midi file
+     */
+    private ParsedFile parse(byte[] midi) throws Exception {
+        ByteBuffer hash;
+        try {
+            hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(midi));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        synchronized (parsedFiles) {
+            ParsedFile parsed = parsedFiles.get(hash);
+            if (parsed == null) {
+                parsed = new ParsedFile(MidiSystem.getSequence(new ByteArrayInputStream(midi)));
+                parsedFiles.put(hash, parsed);
+            }
+            return parsed;
+        }
+    }
+
+    /**
+     * sends the number of rendered frames
+     */
+    private static void sendProgress(DataOutputStream out, int frame) throws IOException {
+        synchronized (out) {
+            out.writeByte(PROGRESS);
+            out.writeInt(frame);
+            out.flush();
+        }
+    }
+}
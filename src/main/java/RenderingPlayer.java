@@ -1,53 +1,66 @@
-import javax.sound.midi.*;
-import java.util.ArrayList;
-import java.util.Arrays;
-
 /**
- * the midi player used for rendering
+ * The midi player used for rendering. The pressed keys are reconstructed for each frame from a {@link KeyStateIndex},
+ * so rendering can start at any time without playing the sequence from the beginning.
  */
 public class RenderingPlayer implements NotePlayer {
     /** used to convert microseconds to ticks */
-    private final Sequencer sequencer;
-    /** notes of the rendered sequence */
-    private final ArrayList<Note> notes;
+    private final TempoMap tempoMap;
+    /** index over the notes of the rendered sequence */
+    private final NoteIndex noteIndex;
+    /** reconstructs {@link #playing} */
+    private final KeyStateIndex keyStates;
     /** saves for each note (index 0-87) the channel on which this note is played or NO_CHANNEL if the note is not played */
     private final byte[] playing;
+    /** the end of the rendering in ticks, one second after the last note */
+    private final long endTicks;
+    /** the current time in ticks */
+    private long ticks;
 
     /**
-     * create rendering player
+     * create rendering player at time 0
      *
-     * @param sequence sequence to play
-     * @param notes    list of notes
+     * @param noteIndex notes of the sequence
+     * @param tempoMap  tempo map of the sequence
+     * @param keyStates key states of the notes of the sequence, may be created from the notes of some channels only
      */
-    public RenderingPlayer(Sequence sequence, ArrayList<Note> notes) throws MidiUnavailableException, InvalidMidiDataException {
-        this.notes = notes;
+    public RenderingPlayer(NoteIndex noteIndex, TempoMap tempoMap, KeyStateIndex keyStates) {
+        this.noteIndex = noteIndex;
+        this.tempoMap = tempoMap;
+        this.keyStates = keyStates;
         playing = new byte[MIDIVisualizer.NOTE_COUNT];
-        Arrays.fill(playing, NO_CHANNEL);
-        sequencer = MidiSystem.getSequencer();
-        sequencer.open();
-        sequencer.setSequence(sequence);
+        endTicks = tempoMap.toTicks(tempoMap.toMicros(noteIndex.getLastEnd()) + 1000000);
+        nextTime(0);
+    }
+
+    /**
+     * copy the current frame of a rendering player
+     *
+     * @param player the copied player
+     */
+    private RenderingPlayer(RenderingPlayer player) {
+        tempoMap = player.tempoMap;
+        noteIndex = player.noteIndex;
+        keyStates = player.keyStates;
+        playing = player.playing.clone();
+        endTicks = player.endTicks;
+        ticks = player.ticks;
+    }
+
+    /**
+     * @return a copy of the current frame, which is not changed when this player moves on, so it can be painted on another thread
+     */
+    public RenderingPlayer snapshot() {
+        return new RenderingPlayer(this);
     }
 
     /**
-     * updates the current time
+     * updates the current time, which may also be before the previous time
      *
      * @param newTime new time in microseconds
      */
     public void nextTime(long newTime) {
-        long oldTicks = sequencer.getTickPosition();
-        if (oldTicks == 0)
-            for (Note note : notes)
-                if (note.getStart() == 0 && note.getEnd() > 0)
-                    playing[note.getNote()] = (byte) note.getChannel();
-        sequencer.setMicrosecondPosition(newTime);
-        long newTicks = sequencer.getTickPosition();
-        for (Note note : notes) {
-            if (oldTicks < note.getStart() && note.getStart() <= newTicks && note.getEnd() > newTicks) {
-                playing[note.getNote()] = (byte) note.getChannel();
-            } else if (oldTicks <= note.getEnd() && note.getEnd() < newTicks) {
-                playing[note.getNote()] = NO_CHANNEL;
-            }
-        }
+        ticks = tempoMap.toTicks(newTime);
+        keyStates.stateAt(ticks, playing);
     }
 
     /**
@@ -56,7 +69,7 @@ public class RenderingPlayer implements NotePlayer {
      * @return true if the player is at the end of the track, false otherwise
      */
     public boolean isAtEnd() {
-        return sequencer.getTickPosition() > notes.get(notes.size() - 1).getEnd() + 1000000 * sequencer.getTickLength() / sequencer.getMicrosecondLength();
+        return ticks > endTicks;
     }
 
     /**
@@ -75,13 +88,22 @@ public class RenderingPlayer implements NotePlayer {
     }
 
     /**
-     * getter for {@link #notes}
+     * getter for {@link #noteIndex}
      *
-     * @return note list
+     * @return note index
      */
     @Override
-    public ArrayList<Note> getNotes() {
-        return notes;
+    public NoteIndex getNoteIndex() {
+        return noteIndex;
+    }
+
+    /**
+     * getter for {@link #keyStates}
+     *
+     * @return the key states the pressed keys are reconstructed from
+     */
+    public KeyStateIndex getKeyStates() {
+        return keyStates;
     }
 
     /**
@@ -89,7 +111,7 @@ public class RenderingPlayer implements NotePlayer {
      */
     @Override
     public long getTicks() {
-        return sequencer.getTickPosition();
+        return ticks;
     }
 
     public boolean isPaused() {
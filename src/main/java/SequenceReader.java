@@ -0,0 +1,268 @@
+import javax.sound.midi.*;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Parses a standard midi file step by step, so the notes of the first seconds can be indexed and shown before the whole file is parsed.
+ * Each call to {@link #readUntil(long)} continues where the last one stopped. The events are parsed like the midi file reader of java sound does it
+ * and prepared like {@link NoteIndexer#prepare(Sequence)} does it, so the sequence must not be prepared again.
+ * <p>
+ * Files that are not standard midi files, like RMID files, are parsed completely by java sound when the reader is created.
+ */
+public class SequenceReader {
+    /** type of the header chunk of a standard midi file */
+    static final int HEADER_CHUNK = 0x4D546864; // MThd
+    /** type of a track chunk */
+    static final int TRACK_CHUNK = 0x4D54726B; // MTrk
+    /** meta message type of the end of a track */
+    private static final int END_OF_TRACK = 0x2F;
+
+    /** the bytes of the file, null when all tracks are parsed */
+    private byte[] bytes;
+    /** the sequence, its tracks grow with each step */
+    private final Sequence sequence;
+    /** the tracks of {@link #sequence} */
+    private final Track[] tracks;
+    /** position of the next event of each track in {@link #bytes} */
+    private final int[] positions;
+    /** end of the chunk of each track in {@link #bytes} */
+    private final int[] ends;
+    /** tick of the last parsed event of each track */
+    private final long[] ticks;
+    /** running status of each track, -1 if there is none */
+    private final int[] runningStatus;
+    /** for each track the notes that are playing, see {@link NoteIndexer#prepare(ShortMessage, boolean[][])}, null when the track is parsed */
+    private final boolean[][][] open;
+    /** number of tracks that are not parsed completely */
+    private int remaining;
+
+    /**
+     * create a reader and parse the chunk structure of the file, no event is parsed yet
+     *
+     * @param bytes the bytes of the file, not modified
+     * @throws InvalidMidiDataException if the file is not a valid midi file, for example because it is truncated
+     * @throws IOException              if the file is not a standard midi file and java sound cannot read it
+     */
+    public SequenceReader(byte[] bytes) throws InvalidMidiDataException, IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 14 || buffer.getInt(0) != HEADER_CHUNK) {
+            sequence = MidiSystem.getSequence(new ByteArrayInputStream(bytes));
+            NoteIndexer.prepare(sequence);
+            tracks = sequence.getTracks();
+            positions = ends = runningStatus = new int[0];
+            ticks = new long[0];
+            open = new boolean[0][][];
+            return;
+        }
+        this.bytes = bytes;
+        ArrayList<Integer> chunks = new ArrayList<>();
+        for (int position = 8 + buffer.getInt(4); position + 8 <= bytes.length; ) {
+            int length = buffer.getInt(position + 4);
+            if (length < 0 || length > bytes.length - position - 8)
+                throw new InvalidMidiDataException("incomplete track chunk");
+            if (buffer.getInt(position) == TRACK_CHUNK)
+                chunks.add(position);
+            position += 8 + length;
+        }
+        sequence = createSequence(buffer.getShort(12), new ArrayList<>());
+        remaining = chunks.size();
+        tracks = new Track[remaining];
+        positions = new int[remaining];
+        ends = new int[remaining];
+        ticks = new long[remaining];
+        runningStatus = new int[remaining];
+        open = new boolean[remaining][][];
+        for (int t = 0; t < remaining; t++) {
+            tracks[t] = sequence.createTrack();
+            positions[t] = chunks.get(t) + 8;
+            ends[t] = positions[t] + buffer.getInt(chunks.get(t) + 4);
+            runningStatus[t] = -1;
+            open[t] = new boolean[MIDIVisualizer.CHANNELS][MIDIVisualizer.MIDI_NOTES];
+        }
+        if (remaining == 0)
+            this.bytes = null;
+    }
+
+    /**
+     * Parses the events of each track up to and including its first event at or after the given tick. Since every unfinished track has an event
+     * at or after the tick, a {@link NoteIndexer} can index the tracks until the tick without reaching the end of a track that is still growing,
+     * and a {@link TempoMap} of the sequence is complete until the tick.
+     *
+     * @param tick the tick up to which the tracks are parsed
+     * @throws InvalidMidiDataException if an event is not valid or a track chunk ends within an event
+     */
+    public void readUntil(long tick) throws InvalidMidiDataException {
+        for (int t = 0; t < tracks.length; t++)
+            while (open[t] != null && (ticks[t] < tick || tracks[t].size() == 1)) // the size of a track without events is 1 because of its end of track
+                readEvent(t);
+    }
+
+    /**
+     * parses the next event of a track and adds it to the track, the track is finished after its end of track event or at the end of its chunk
+     *
+     * @param t index of the track
+     * @throws InvalidMidiDataException if the event is not valid or the chunk ends within the event
+     */
+    private void readEvent(int t) throws InvalidMidiDataException {
+        if (positions[t] >= ends[t]) {
+            finish(t);
+            return;
+        }
+        ticks[t] += readVariableLength(t);
+        int status = read(t), data1 = -1;
+        if (status < 0x80) {
+            if (runningStatus[t] < 0)
+                throw new InvalidMidiDataException("status byte expected");
+            data1 = status;
+            status = runningStatus[t];
+        } else if (status < 0xF0) {
+            runningStatus[t] = status;
+        }
+        MidiMessage message;
+        switch (status & 0xF0) {
+            case ShortMessage.NOTE_OFF:
+            case ShortMessage.NOTE_ON:
+            case ShortMessage.POLY_PRESSURE:
+            case ShortMessage.CONTROL_CHANGE:
+            case ShortMessage.PITCH_BEND:
+                if (data1 < 0)
+                    data1 = read(t);
+                ShortMessage shortMessage = new ShortMessage(status, data1, read(t));
+                NoteIndexer.prepare(shortMessage, open[t]);
+                message = shortMessage;
+                break;
+            case ShortMessage.PROGRAM_CHANGE:
+            case ShortMessage.CHANNEL_PRESSURE:
+                if (data1 < 0)
+                    data1 = read(t);
+                shortMessage = new ShortMessage(status, data1, 0);
+                NoteIndexer.prepare(shortMessage, open[t]);
+                message = shortMessage;
+                break;
+            default:
+                if (status == SysexMessage.SYSTEM_EXCLUSIVE || status == SysexMessage.SPECIAL_SYSTEM_EXCLUSIVE) {
+                    int length = readVariableLength(t);
+                    message = new SysexMessage(status, readBytes(t, length), length);
+                } else if (status == MetaMessage.META) {
+                    int type = read(t), length = readVariableLength(t);
+                    message = new MetaMessage(type, readBytes(t, length), length);
+                } else {
+                    throw new InvalidMidiDataException("invalid status byte: " + status);
+                }
+        }
+        tracks[t].add(new MidiEvent(message, ticks[t]));
+        if (message instanceof MetaMessage && ((MetaMessage) message).getType() == END_OF_TRACK)
+            finish(t);
+    }
+
+    /**
+     * marks a track as parsed completely
+     *
+     * @param t index of the track
+     */
+    private void finish(int t) {
+        open[t] = null;
+        if (--remaining == 0)
+            bytes = null;
+    }
+
+    /**
+     * @param t index of the track
+     * @return the next byte of the track
+     * @throws InvalidMidiDataException if the chunk of the track ends
+     */
+    private int read(int t) throws InvalidMidiDataException {
+        if (positions[t] >= ends[t])
+            throw new InvalidMidiDataException("incomplete event at the end of track " + t);
+        return bytes[positions[t]++] & 0xFF;
+    }
+
+    /**
+     * @param t      index of the track
+     * @param length number of bytes
+     * @return the next bytes of the track
+     * @throws InvalidMidiDataException if the chunk of the track ends
+     */
+    private byte[] readBytes(int t, int length) throws InvalidMidiDataException {
+        if (length > ends[t] - positions[t])
+            throw new InvalidMidiDataException("incomplete event at the end of track " + t);
+        byte[] data = new byte[length];
+        System.arraycopy(bytes, positions[t], data, 0, length);
+        positions[t] += length;
+        return data;
+    }
+
+    /**
+     * @param t index of the track
+     * @return the next variable length quantity of the track
+     * @throws InvalidMidiDataException if the chunk of the track ends or the quantity has more than 4 bytes
+     */
+    private int readVariableLength(int t) throws InvalidMidiDataException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = read(t);
+            value = value << 7 | b & 0x7F;
+            if (b < 0x80)
+                return value;
+        }
+        throw new InvalidMidiDataException("variable length quantity too long");
+    }
+
+    /**
+     * @return true if all tracks are parsed completely
+     */
+    public boolean isFinished() {
+        return remaining == 0;
+    }
+
+    /**
+     * getter for {@link #sequence}
+     *
+     * @return the sequence, its tracks contain the events parsed so far
+     */
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    /**
+     * creates a sequence containing the given tracks, like the midi file reader of java sound interprets the time division
+     *
+     * @param division     time division of the header chunk
+     * @param parsedTracks the tracks, they are shared with the sequences of other versions and not modified
+     * @return the sequence
+     * @throws InvalidMidiDataException if the time division is not supported
+     */
+    static Sequence createSequence(short division, ArrayList<Track> parsedTracks) throws InvalidMidiDataException {
+        float divisionType;
+        int resolution;
+        if (division > 0) {
+            divisionType = Sequence.PPQ;
+            resolution = division;
+        } else {
+            switch (-(division >> 8)) {
+                case 24:
+                    divisionType = Sequence.SMPTE_24;
+                    break;
+                case 25:
+                    divisionType = Sequence.SMPTE_25;
+                    break;
+                case 29:
+                    divisionType = Sequence.SMPTE_30DROP;
+                    break;
+                case 30:
+                    divisionType = Sequence.SMPTE_30;
+                    break;
+                default:
+                    throw new InvalidMidiDataException("unknown frame code: " + -(division >> 8));
+            }
+            resolution = division & 0xFF;
+        }
+        return new Sequence(divisionType, resolution) {
+            {
+                tracks.addAll(parsedTracks);
+            }
+        };
+    }
+}
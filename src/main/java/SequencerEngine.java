@@ -0,0 +1,63 @@
+import javax.sound.midi.*;
+
+/**
+ * Plays a sequence with the sequencer of a {@link MidiOutput}. The sequencer keeps its own copy of the events.
+ */
+public class SequencerEngine implements PlaybackEngine {
+    /** sequencer and synthesizer */
+    private final MidiOutput output;
+
+    /**
+     * create an engine for an output with a sequencer
+     *
+     * @param output the output, closed with this engine
+     */
+    public SequencerEngine(MidiOutput output) {
+        this.output = output;
+    }
+
+    @Override
+    public void load(Sequence sequence, EventList events, TempoMap tempoMap) throws InvalidMidiDataException {
+        output.getSequencer().setSequence(sequence);
+    }
+
+    @Override
+    public boolean usesEvents() {
+        return false;
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) throws MidiUnavailableException {
+        output.getSequencer().getTransmitter().setReceiver(receiver);
+    }
+
+    @Override
+    public void start() {
+        output.getSequencer().start();
+    }
+
+    @Override
+    public void stop() {
+        output.getSequencer().stop();
+    }
+
+    @Override
+    public long getTickPosition() {
+        return output.getSequencer().getTickPosition();
+    }
+
+    @Override
+    public void setTickPosition(long tick) {
+        output.getSequencer().setTickPosition(tick);
+    }
+
+    @Override
+    public Synthesizer getSynthesizer() {
+        return output.getSynthesizer();
+    }
+
+    @Override
+    public void close() {
+        output.close();
+    }
+}
@@ -0,0 +1,92 @@
+import com.formdev.flatlaf.FlatDarkLaf;
+
+import javax.imageio.ImageIO;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Does the startup work of {@link MIDIVisualizer#main(String[])} that decides the time to the window and the time to the first note, without showing
+ * a window. Each run measures one startup, so the modes have to be compared in fresh JVMs.
+ * <p>
+ * Usage: {@code java -Djava.awt.headless=true -cp MIDIVisualizer.jar StartupBenchmark [serial] [pick=ms] file.mid}
+ * <br>
+ * By default the images are decoded while the look and feel is set up, the file chooser is not created before the window and the midi output is
+ * opened in the background as soon as the window would be shown. {@code serial} does the same work in the order of the versions before:
+ * images, look and feel and file chooser one after another and the midi output when the first file is opened. {@code pick} is the time the user takes
+ * to pick a file after the window is shown, 0 by default. The time from the start of the JVM until the window would be created and the time from
+ * picking the file until its first notes are indexed on an open output are printed. Creating and showing the window itself is not measured.
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException, MidiUnavailableException,
+            InvalidMidiDataException {
+        boolean serial = false;
+        long pick = 0;
+        File file = null;
+        for (String arg : args) {
+            if ("serial".equals(arg))
+                serial = true;
+            else if (arg.startsWith("pick="))
+                pick = Long.parseLong(arg.substring(5));
+            else
+                file = new File(arg);
+        }
+        if (file == null) {
+            System.err.println("usage: StartupBenchmark [serial] [pick=ms] file.mid");
+            System.exit(2);
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        Properties properties = new Properties();
+        properties.load(MIDIVisualizer.class.getResourceAsStream("properties.config"));
+        MIDIVisualizer.NOTE_OFFSET = Integer.parseInt(properties.getProperty("NOTE_OFFSET").trim());
+
+        if (serial) {
+            MIDIVisualizer.loadImages();
+            readBackground(directory);
+            FlatDarkLaf.setup();
+            JFileChooser chooser = new JFileChooser();
+            SwingUtilities.updateComponentTreeUI(chooser);
+        } else {
+            FutureTask<Void> images = new FutureTask<>(() -> {
+                MIDIVisualizer.loadImages();
+                readBackground(directory);
+                return null;
+            });
+            new Thread(images, "ImageLoader").start();
+            FlatDarkLaf.setup();
+            images.get();
+        }
+        long window = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        if (!serial)
+            MidiOutput.prepare();
+
+        Thread.sleep(pick);
+        long start = System.nanoTime();
+        MidiOutput output = MidiOutput.take();
+        NoteLoader loader = new NoteLoader(new SequenceReader(Files.readAllBytes(file.toPath())));
+        loader.indexFirst(MidiPlayer.FIRST_INDEX_MICROS);
+        long firstNote = (System.nanoTime() - start) / 1000000;
+        output.close();
+        System.out.printf("%s: window after %d ms, first notes %d ms after picking the file%n", serial ? "serial" : "parallel", window, firstNote);
+        System.exit(0);
+    }
+
+    /**
+     * reads the background image like the startup does, a missing image is ignored
+     *
+     * @param directory directory of the image
+     */
+    private static void readBackground(File directory) {
+        try {
+            ImageIO.read(new File(directory, "background.png"));
+        } catch (Exception ignored) {
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import javax.sound.midi.*;
+import java.awt.*;
+import java.io.IOException;
+
+/**
+ * Measures the values needed to show the notes in sync with the sound: plays a click every beat with the configured engine, samples the engine
+ * position at the display rate like the window does and feeds a {@link VisualClock} with the samples.
+ * <p>
+ * Usage: {@code java -cp MIDIVisualizer.jar SyncCalibration [seconds] [lean] [tap]}
+ * <br>
+ * Prints the output latency reported by the synthesizer, the delay between the time of a click and its dispatch to the synthesizer and
+ * the jitter of the sampled engine position and of the visual clock against the wall clock. The reported latency is what AUTO uses, it is not measured.
+ * <br>
+ * With {@code tap} the user presses Enter in time with the heard clicks. Tapping along with a steady beat anticipates the clicks, so the offset
+ * of the taps from the beats is the time from the engine position to the heard sound, plus the small delay of the keyboard and the console.
+ * Its mean is printed as the measured AUDIO_LATENCY for the config file.
+ */
+public class SyncCalibration {
+    /** default measuring time in seconds */
+    private static final int SECONDS = 10;
+    /** time between two clicks in microseconds */
+    private static final int BEAT = 500000;
+
+    /** {@link System#nanoTime()} when playing started */
+    private static volatile long startNanos;
+    /** number of dispatched clicks and sum of their delays in microseconds */
+    private static volatile long clicks, delaySum;
+    /** taps before this time in microseconds are ignored, the user finds the beat */
+    private static final long TAP_WARM_UP = 3000000;
+
+    public static void main(String[] args) throws MidiUnavailableException, InvalidMidiDataException, InterruptedException {
+        int seconds = SECONDS;
+        boolean tap = false;
+        for (String arg : args) {
+            if (arg.matches("\\d+"))
+                seconds = Integer.parseInt(arg);
+            else if ("lean".equalsIgnoreCase(arg))
+                MidiOutput.lean = true;
+            else if ("tap".equalsIgnoreCase(arg))
+                tap = true;
+        }
+        Sequence sequence = new Sequence(Sequence.PPQ, 480);
+        Track track = sequence.createTrack();
+        for (int beat = 0; beat <= seconds * 1000000 / BEAT; beat++) {
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 9, 76, 100), beat * 480L));
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 9, 76, 0), beat * 480L + 120));
+        }
+        TempoMap tempoMap = new TempoMap(sequence);
+
+        MidiOutput output = MidiOutput.take();
+        PlaybackEngine engine = output.getSequencer() != null ? new SequencerEngine(output) : new LeanEngine(output);
+        engine.load(sequence, new EventList(sequence), tempoMap);
+        engine.setReceiver(new Receiver() {
+            @Override
+            public void send(MidiMessage message, long timeStamp) {
+                if (message instanceof ShortMessage && ((ShortMessage) message).getCommand() == ShortMessage.NOTE_ON) {
+                    long micros = (System.nanoTime() - startNanos) / 1000;
+                    delaySum += micros - (micros + BEAT / 2) / BEAT * BEAT; // delay behind the nearest beat
+                    clicks++;
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        Synthesizer synthesizer = engine.getSynthesizer();
+        long latency = synthesizer == null ? 0 : synthesizer.getLatency();
+        VisualClock clock = new VisualClock(0);
+
+        int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+        if (!GraphicsEnvironment.isHeadless())
+            refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        long interval = 1000000000L / (refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? 60 : refreshRate);
+        long samples = 0;
+        double rawSum = 0, rawSquares = 0, clockSum = 0, clockSquares = 0;
+        long[] taps = new long[3]; // number, sum and sum of squares of the offsets of the taps from the nearest beat in microseconds
+        if (tap) {
+            System.out.println("press Enter in time with the clicks");
+            Thread reader = new Thread(() -> readTaps(taps), "Taps");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        startNanos = System.nanoTime();
+        engine.start();
+        for (long next = startNanos + interval; next < startNanos + seconds * 1000000000L; next += interval) {
+            Thread.sleep(Math.max(0, (next - System.nanoTime()) / 1000000));
+            long sampled = tempoMap.toMicros(engine.getTickPosition());
+            long shown = clock.micros(sampled, true);
+            long ideal = (System.nanoTime() - startNanos) / 1000;
+            if (samples++ == 0)
+                continue; // the first sample starts the clock
+            rawSum += sampled - ideal;
+            rawSquares += (double) (sampled - ideal) * (sampled - ideal);
+            clockSum += shown - ideal;
+            clockSquares += (double) (shown - ideal) * (shown - ideal);
+        }
+        engine.close();
+
+        samples--;
+        double dispatch = clicks == 0 ? 0 : (double) delaySum / clicks;
+        System.out.printf("engine:               %s%n", output.getSequencer() != null ? "sequencer" : "lean");
+        System.out.printf("synthesizer latency:  %.1f ms%n", latency / 1000.0);
+        System.out.printf("click dispatch delay: %.2f ms (%d clicks)%n", dispatch / 1000, clicks);
+        System.out.printf("engine position:      %.2f ms offset, %.2f ms jitter%n", rawSum / samples / 1000, deviation(rawSum, rawSquares, samples) / 1000);
+        System.out.printf("visual clock:         %.2f ms offset, %.2f ms jitter%n", clockSum / samples / 1000, deviation(clockSum, clockSquares, samples) / 1000);
+        if (tap) {
+            synchronized (taps) {
+                if (taps[0] == 0) {
+                    System.out.println("no taps after the first " + TAP_WARM_UP / 1000000 + " seconds");
+                } else {
+                    double mean = (double) taps[1] / taps[0];
+                    System.out.printf("tapped latency:       %.1f ms, %.1f ms deviation (%d taps)%n", mean / 1000, deviation(taps[1], taps[2], taps[0]) / 1000, taps[0]);
+                    System.out.printf("AUDIO_LATENCY = %d%n", Math.max(0, Math.round(mean / 1000)));
+                }
+            }
+        } else {
+            System.out.printf("AUTO uses the reported latency of %.1f ms, run with tap to measure AUDIO_LATENCY%n", latency / 1000.0);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Reads the taps from the console until it is closed. Each line is a tap, its offset from the nearest beat is added to the statistics.
+     *
+     * @param taps number, sum and sum of squares of the offsets in microseconds
+     */
+    private static void readTaps(long[] taps) {
+        try {
+            int c;
+            while ((c = System.in.read()) >= 0) {
+                if (c != '\n')
+                    continue;
+                long micros = (System.nanoTime() - startNanos) / 1000;
+                if (micros < TAP_WARM_UP)
+                    continue;
+                long offset = micros - (micros + BEAT / 2) / BEAT * BEAT;
+                synchronized (taps) {
+                    taps[0]++;
+                    taps[1] += offset;
+                    taps[2] += offset * offset;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the standard deviation of values with the given sum and sum of squares
+     */
+    private static double deviation(double sum, double squares, long count) {
+        if (count < 2)
+            return 0;
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, squares / count - mean * mean));
+    }
+}
@@ -0,0 +1,168 @@
+import javax.sound.midi.*;
+import java.util.Arrays;
+
+/**
+ * converts between ticks and microseconds of a sequence, respecting all tempo changes
+ */
+public class TempoMap {
+    /** meta message type of tempo changes */
+    private static final int TEMPO = 0x51;
+    /** tempo of a sequence without tempo changes in microseconds per quarter note */
+    private static final int DEFAULT_TEMPO = 500000;
+
+    /** resolution of the sequence, ticks per quarter note or ticks per frame */
+    private final int resolution;
+    /** frames per second for SMPTE based sequences, 0 for PPQ based sequences */
+    private final float framesPerSecond;
+    /** ticks of the tempo changes, the first entry is always 0 */
+    private final long[] ticks;
+    /** microsecond positions of the tempo changes */
+    private final long[] micros;
+    /** tempo after each tempo change in microseconds per quarter note */
+    private final int[] tempos;
+
+    /**
+     * create the tempo map of a sequence
+     *
+     * @param sequence the sequence
+     */
+    public TempoMap(Sequence sequence) {
+        resolution = sequence.getResolution();
+        framesPerSecond = sequence.getDivisionType() == Sequence.PPQ ? 0 : sequence.getDivisionType();
+        long[] changeTicks = new long[]{0};
+        int[] changeTempos = new int[]{DEFAULT_TEMPO};
+        int count = 1;
+        if (framesPerSecond == 0) {
+            for (Track track : sequence.getTracks())
+                for (int i = 0; i < track.size(); i++) {
+                    MidiEvent event = track.get(i);
+                    if (!(event.getMessage() instanceof MetaMessage) || ((MetaMessage) event.getMessage()).getType() != TEMPO)
+                        continue;
+                    byte[] data = ((MetaMessage) event.getMessage()).getData();
+                    if (data.length < 3)
+                        continue;
+                    if (count == changeTicks.length) {
+                        changeTicks = Arrays.copyOf(changeTicks, count * 2);
+                        changeTempos = Arrays.copyOf(changeTempos, count * 2);
+                    }
+                    changeTicks[count] = event.getTick();
+                    changeTempos[count] = (data[0] & 0xFF) << 16 | (data[1] & 0xFF) << 8 | (data[2] & 0xFF);
+                    count++;
+                }
+        }
+        // tempo changes of different tracks are merged by a stable sort of their ticks, later changes at the same tick win
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        final long[] sortTicks = changeTicks;
+        Arrays.sort(order, (a, b) -> Long.compare(sortTicks[a], sortTicks[b]));
+        long[] ticks = new long[count];
+        int[] tempos = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n > 0 && ticks[n - 1] == changeTicks[order[i]])
+                n--;
+            ticks[n] = changeTicks[order[i]];
+            tempos[n] = changeTempos[order[i]];
+            n++;
+        }
+        this.ticks = Arrays.copyOf(ticks, n);
+        this.tempos = Arrays.copyOf(tempos, n);
+        micros = new long[n];
+        for (int i = 1; i < n; i++)
+            micros[i] = micros[i - 1] + toMicros(this.ticks[i] - this.ticks[i - 1], this.tempos[i - 1]);
+    }
+
+    /**
+     * create a tempo map from its serialized form, see {@link #getTicks()} and {@link #getTempos()}
+     *
+     * @param resolution      resolution of the sequence
+     * @param framesPerSecond frames per second for SMPTE based sequences, 0 for PPQ based sequences
+     * @param ticks           ticks of the tempo changes, the first entry has to be 0
+     * @param tempos          tempo after each tempo change in microseconds per quarter note
+     */
+    public TempoMap(int resolution, float framesPerSecond, long[] ticks, int[] tempos) {
+        this.resolution = resolution;
+        this.framesPerSecond = framesPerSecond;
+        this.ticks = ticks;
+        this.tempos = tempos;
+        micros = new long[ticks.length];
+        for (int i = 1; i < ticks.length; i++)
+            micros[i] = micros[i - 1] + toMicros(ticks[i] - ticks[i - 1], tempos[i - 1]);
+    }
+
+    /**
+     * duration of a tick range with constant tempo
+     */
+    private long toMicros(long tickCount, int tempo) {
+        if (framesPerSecond != 0)
+            return (long) (tickCount * 1000000.0 / (framesPerSecond * resolution));
+        return tickCount * tempo / resolution;
+    }
+
+    /**
+     * convert a tick position to microseconds
+     *
+     * @param tick tick position
+     * @return the time in microseconds
+     */
+    public long toMicros(long tick) {
+        int i = Arrays.binarySearch(ticks, tick);
+        if (i < 0)
+            i = -i - 2;
+        i = Math.max(i, 0);
+        return micros[i] + toMicros(tick - ticks[i], tempos[i]);
+    }
+
+    /**
+     * convert a time in microseconds to ticks
+     *
+     * @param time time in microseconds
+     * @return the tick position
+     */
+    public long toTicks(long time) {
+        int i = Arrays.binarySearch(micros, time);
+        if (i < 0)
+            i = -i - 2;
+        i = Math.max(i, 0);
+        if (framesPerSecond != 0)
+            return ticks[i] + (long) ((time - micros[i]) * framesPerSecond * resolution / 1000000.0);
+        return ticks[i] + (time - micros[i]) * resolution / tempos[i];
+    }
+
+    /**
+     * getter for {@link #resolution}
+     *
+     * @return ticks per quarter note or ticks per frame
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * getter for {@link #framesPerSecond}
+     *
+     * @return frames per second for SMPTE based sequences, 0 for PPQ based sequences
+     */
+    public float getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * getter for {@link #ticks}
+     *
+     * @return ticks of the tempo changes
+     */
+    public long[] getTicks() {
+        return ticks;
+    }
+
+    /**
+     * getter for {@link #tempos}
+     *
+     * @return tempo after each tempo change in microseconds per quarter note
+     */
+    public int[] getTempos() {
+        return tempos;
+    }
+}
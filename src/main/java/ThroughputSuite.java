@@ -0,0 +1,140 @@
+import javax.sound.midi.InvalidMidiDataException;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the load, live paint and export paths over midi files and reports their throughput, so the scaling with the number of notes can be tracked.
+ * Without files a corpus of generated files with 10k, 100k and 1M notes is used, larger files can be created by {@link MidiCorpusGenerator}.
+ * <p>
+ * Usage: {@code java -Djava.awt.headless=true -cp MIDIVisualizer.jar ThroughputSuite [frames] [file.mid | directory ...]}
+ * <br>
+ * For each file the time until the notes of the first seconds are shown, the notes indexed per second, the frames painted per second by the live view, the frames exported per second and the peak heap are printed.
+ * The export is only painted if the video library is not available.
+ */
+public class ThroughputSuite {
+    /** default number of painted and exported frames per file */
+    private static final int FRAMES = 300;
+    /** size of the live view and the exported video */
+    private static final int WIDTH = 1920, HEIGHT = 1080;
+    /** frame rate of the live view and the exported video */
+    private static final int LIVE_FPS = 60, EXPORT_FPS = 30;
+    /** note counts of the generated corpus */
+    private static final long[] CORPUS = {10000, 100000, 1000000};
+
+    public static void main(String[] args) throws IOException, InvalidMidiDataException, InterruptedException {
+        int frames = FRAMES;
+        List<File> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.matches("\\d+")) {
+                frames = Integer.parseInt(arg);
+            } else if (new File(arg).isDirectory()) {
+                File[] midiFiles = new File(arg).listFiles((dir, name) -> name.toLowerCase(Locale.ROOT).endsWith(".mid"));
+                if (midiFiles != null) {
+                    Arrays.sort(midiFiles);
+                    files.addAll(Arrays.asList(midiFiles));
+                }
+            } else {
+                files.add(new File(arg));
+            }
+        }
+        if (files.isEmpty()) {
+            for (long notes : CORPUS) {
+                MidiCorpusGenerator generator = new MidiCorpusGenerator();
+                generator.notes = notes;
+                generator.density = 200;
+                generator.polyphony = 16;
+                generator.tracks = 4;
+                generator.channels = 4;
+                generator.tempoChanges = 16;
+                File file = File.createTempFile("corpus-" + notes + "-", ".mid");
+                file.deleteOnExit();
+                generator.write(file);
+                files.add(file);
+            }
+        }
+
+        MIDIVisualizer.NOTE_OFFSET = -20;
+        MIDIVisualizer.loadImages();
+        MIDIVisualizer.backgroundColor = new Color(44, 44, 44);
+        Color[] colors = new Color[MIDIVisualizer.CHANNELS];
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = Color.getHSBColor(i / 16f, 0.7f, 0.9f);
+        boolean encoder = true;
+
+        System.out.printf("%-40s %10s %10s %10s %12s %10s %10s %10s%n", "file", "notes", "first ms", "load ms", "notes/s", "live fps", "export fps", "peak MB");
+        for (File file : files) {
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                pool.resetPeakUsage();
+
+            long start = System.nanoTime();
+            NoteLoader loader = new NoteLoader(new SequenceReader(Files.readAllBytes(file.toPath())));
+            loader.indexFirst(MidiPlayer.FIRST_INDEX_MICROS); // like a midi player before it is shown
+            long firstNanos = System.nanoTime() - start;
+            while (!loader.isIndexed())
+                loader.indexNext();
+            NoteIndex noteIndex = new NoteIndex(loader.getNotes());
+            TempoMap tempoMap = loader.getTempoMap();
+            KeyStateIndex keyStates = new KeyStateIndex(noteIndex);
+            long loadNanos = System.nanoTime() - start;
+
+            RenderingPlayer player = new RenderingPlayer(noteIndex, tempoMap, keyStates);
+            NoteStrip strip = new NoteStrip();
+            BufferedImage view = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                player.nextTime(frame * 1000000L / LIVE_FPS);
+                Graphics g = view.getGraphics();
+                MIDIVisualizer.paintMidiPlayer(g, player, WIDTH, HEIGHT, 0, 52, colors, MIDIVisualizer.ALL_CHANNELS, null, strip);
+                g.dispose();
+            }
+            long liveNanos = System.nanoTime() - start;
+
+            player = new RenderingPlayer(noteIndex, tempoMap, keyStates);
+            strip = new NoteStrip();
+            File video = File.createTempFile("throughput", ".mp4");
+            VideoRenderer renderer = null;
+            if (encoder) {
+                try {
+                    VideoRenderer.init();
+                    renderer = new VideoRenderer(video.getPath(), "mp4", null, EXPORT_FPS, WIDTH, HEIGHT);
+                } catch (Throwable e) {
+                    System.out.println("export is only painted, the video library is not available: " + e);
+                    encoder = false;
+                }
+            }
+            start = System.nanoTime();
+            for (int frame = 0; frame < frames; frame++) {
+                player.nextTime(frame * 1000000L / EXPORT_FPS);
+                BufferedImage img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics g = img.getGraphics();
+                MIDIVisualizer.paintMidiPlayer(g, player, WIDTH, HEIGHT, 0, 52, colors, MIDIVisualizer.ALL_CHANNELS, null, strip);
+                g.dispose();
+                if (renderer != null)
+                    renderer.addFrame(img);
+            }
+            if (renderer != null)
+                renderer.finish();
+            long exportNanos = System.nanoTime() - start;
+            video.delete();
+
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                if (pool.getType() == MemoryType.HEAP)
+                    peak += pool.getPeakUsage().getUsed();
+            System.out.printf("%-40s %10d %10d %10d %12.0f %10.1f %10.1f %10d%n", file.getName(), noteIndex.size(), firstNanos / 1000000, loadNanos / 1000000,
+                    noteIndex.size() * 1e9 / loadNanos, frames * 1e9 / liveNanos, frames * 1e9 / exportNanos, peak / (1024 * 1024));
+        }
+        System.exit(0);
+    }
+}
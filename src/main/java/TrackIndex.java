@@ -0,0 +1,203 @@
+import javax.sound.midi.*;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A midi file read track by track, with the notes of each track and a hash of the bytes of its track chunk. A new version of the file, like a file that was
+ * exported again from a sequencer, takes the parsed tracks and their notes from the previous version if their bytes did not change, only the changed tracks
+ * are parsed, prepared by {@link NoteIndexer#prepare(Sequence)} and indexed again.
+ * <p>
+ * The parsed tracks are kept for the next version, so the sequence is held even if the {@link LeanEngine} plays it.
+ */
+public class TrackIndex {
+    /** hash of the bytes of each track chunk, null if the file is not a standard midi file and no track can be reused */
+    private final long[] hashes;
+    /** the sequence of the tracks, its messages are prepared by a {@link NoteIndexer} */
+    private final Sequence sequence;
+    /** notes of each track, sorted by the end ticks and not modified, so they are shared with the next version */
+    private final ArrayList<ArrayList<Note>> trackNotes;
+    /** the notes of all tracks */
+    private final NoteIndex noteIndex;
+
+    /**
+     * create the index of a sequence whose tracks are parsed and prepared
+     *
+     * @param sequence   the sequence
+     * @param hashes     hash of each track chunk or null
+     * @param trackNotes notes of each track
+     * @param noteIndex  the notes of all tracks
+     */
+    private TrackIndex(Sequence sequence, long[] hashes, ArrayList<ArrayList<Note>> trackNotes, NoteIndex noteIndex) {
+        this.sequence = sequence;
+        this.hashes = hashes;
+        this.trackNotes = trackNotes;
+        this.noteIndex = noteIndex;
+    }
+
+    /**
+     * @param trackNotes notes of each track, sorted by the end ticks
+     * @return the notes of all tracks
+     */
+    private static NoteIndex merge(ArrayList<ArrayList<Note>> trackNotes) {
+        int count = 0;
+        for (ArrayList<Note> track : trackNotes)
+            count += track.size();
+        ArrayList<Note> notes = new ArrayList<>(count);
+        for (ArrayList<Note> track : trackNotes)
+            notes.addAll(track);
+        // the sort merges the sorted tracks and keeps their order for notes with the same end, like the note indexer
+        notes.sort((note1, note2) -> (int) Math.signum(note1.getEnd() - note2.getEnd()));
+        return new NoteIndex(notes);
+    }
+
+    /**
+     * Creates the index of a file that was already parsed when it was opened, so the first version of a watched file is not parsed again.
+     * Only the hashes of the track chunks are computed, the tracks are indexed only if their notes are not given.
+     *
+     * @param bytes      the bytes of the file
+     * @param sequence   the sequence parsed from the bytes, its messages are prepared
+     * @param trackNotes notes of each track of the sequence, see {@link NoteIndexer#keepTrackNotes()}, or null to index the tracks
+     * @param noteIndex  the notes of all tracks or null to merge them
+     * @return the index of the file
+     */
+    public static TrackIndex of(byte[] bytes, Sequence sequence, ArrayList<ArrayList<Note>> trackNotes, NoteIndex noteIndex) {
+        Track[] tracks = sequence.getTracks();
+        long[] hashes = null;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length >= 14 && buffer.getInt(0) == SequenceReader.HEADER_CHUNK) {
+            hashes = new long[tracks.length];
+            int t = 0;
+            for (int position = 8 + buffer.getInt(4); position + 8 <= bytes.length && t < hashes.length; ) {
+                int length = buffer.getInt(position + 4);
+                if (buffer.getInt(position) == SequenceReader.TRACK_CHUNK)
+                    hashes[t++] = hash(buffer, position, length + 8);
+                position += 8 + length;
+            }
+        }
+        if (trackNotes == null) {
+            trackNotes = new ArrayList<>();
+            for (Track track : tracks)
+                trackNotes.add(new NoteIndexer(track).indexUntil(Long.MAX_VALUE));
+        }
+        return new TrackIndex(sequence, hashes, trackNotes, noteIndex != null ? noteIndex : merge(trackNotes));
+    }
+
+    /**
+     * Reads a midi file. A track chunk with the same bytes as a track of the previous version is taken from it regardless of its position,
+     * so moved tracks are not parsed again. Files that are not standard midi files are read completely.
+     *
+     * @param file     the midi file
+     * @param previous index of the previous version of the file or null to read all tracks
+     * @return the index of the file
+     * @throws InvalidMidiDataException if the file is not a valid midi file, for example because it is not completely written
+     * @throws IOException              if the file could not be read
+     */
+    public static TrackIndex read(File file, TrackIndex previous) throws InvalidMidiDataException, IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 14 || buffer.getInt(0) != SequenceReader.HEADER_CHUNK) {
+            Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(bytes));
+            NoteIndexer.prepare(sequence);
+            return of(bytes, sequence, null, null);
+        }
+        HashMap<Long, Integer> previousTracks = new HashMap<>();
+        if (previous != null && previous.hashes != null)
+            for (int t = 0; t < previous.hashes.length; t++)
+                previousTracks.put(previous.hashes[t], t);
+
+        ArrayList<Track> tracks = new ArrayList<>();
+        ArrayList<Long> hashes = new ArrayList<>();
+        ArrayList<ArrayList<Note>> trackNotes = new ArrayList<>();
+        for (int position = 8 + buffer.getInt(4); position + 8 <= bytes.length; ) {
+            int length = buffer.getInt(position + 4);
+            if (length < 0 || length > bytes.length - position - 8)
+                throw new InvalidMidiDataException("incomplete track chunk");
+            if (buffer.getInt(position) == SequenceReader.TRACK_CHUNK) {
+                long hash = hash(buffer, position, length + 8);
+                Integer reused = previousTracks.get(hash);
+                if (reused != null) {
+                    tracks.add(previous.sequence.getTracks()[reused]);
+                    trackNotes.add(previous.trackNotes.get(reused));
+                } else {
+                    Track track = parseTrack(bytes, buffer.getShort(12), position, length + 8);
+                    tracks.add(track);
+                    trackNotes.add(new NoteIndexer(track).indexUntil(Long.MAX_VALUE));
+                }
+                hashes.add(hash);
+            }
+            position += 8 + length;
+        }
+        Sequence sequence = SequenceReader.createSequence(buffer.getShort(12), tracks);
+        long[] trackHashes = new long[hashes.size()];
+        for (int t = 0; t < trackHashes.length; t++)
+            trackHashes[t] = hashes.get(t);
+        return new TrackIndex(sequence, trackHashes, trackNotes, merge(trackNotes));
+    }
+
+    /**
+     * parses a single track chunk and prepares its messages
+     *
+     * @param bytes    the bytes of the file
+     * @param division time division of the header chunk
+     * @param offset   position of the chunk in the file
+     * @param length   length of the chunk including its type and length
+     * @return the track
+     * @throws InvalidMidiDataException if the chunk is not valid
+     * @throws IOException              never, the chunk is read from memory
+     */
+    private static Track parseTrack(byte[] bytes, short division, int offset, int length) throws InvalidMidiDataException, IOException {
+        ByteBuffer file = ByteBuffer.allocate(14 + length); // a file of format 0 containing only this track
+        file.putInt(SequenceReader.HEADER_CHUNK).putInt(6).putShort((short) 0).putShort((short) 1).putShort(division);
+        file.put(bytes, offset, length);
+        Sequence sequence = MidiSystem.getSequence(new ByteArrayInputStream(file.array()));
+        NoteIndexer.prepare(sequence);
+        return sequence.getTracks()[0];
+    }
+
+    /**
+     * @param buffer bytes of the file
+     * @param offset position of the chunk
+     * @param length length of the chunk
+     * @return a hash of the bytes of the chunk
+     */
+    private static long hash(ByteBuffer buffer, int offset, int length) {
+        long hash = length;
+        int i = offset;
+        for (; i + 8 <= offset + length; i += 8)
+            hash = mix(hash, buffer.getLong(i));
+        for (; i < offset + length; i++)
+            hash = mix(hash, buffer.get(i));
+        return hash;
+    }
+
+    /**
+     * @return the hash combined with the value
+     */
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ hash >>> 32;
+    }
+
+    /**
+     * getter for {@link #sequence}
+     *
+     * @return the sequence, its messages are prepared by a {@link NoteIndexer}
+     */
+    public Sequence getSequence() {
+        return sequence;
+    }
+
+    /**
+     * getter for {@link #noteIndex}
+     *
+     * @return the notes of all tracks
+     */
+    public NoteIndex getNoteIndex() {
+        return noteIndex;
+    }
+}
@@ -0,0 +1,716 @@
+import javax.imageio.ImageIO;
+import javax.sound.midi.MidiUnavailableException;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntConsumer;
+
+/**
+ * Renders the frames of a sequence into a video or png files. Holds the settings of an export, the rendering does not need a window,
+ * so it is used by the {@link ExportJob}s of the window and by the {@link RenderServer}.
+ */
+public class VideoExport {
+    /** number of frames each video may be behind the reconstruction of the key states */
+    private static final int PIPELINED_FRAMES = 4;
+    /** rows of a band if the band height is {@link #AUTO_BANDS} */
+    private static final int AUTO_BAND_HEIGHT = 256;
+    /** band height that renders frames of 4K and larger in bands of {@link #AUTO_BAND_HEIGHT} rows and smaller frames as a whole */
+    public static final int AUTO_BANDS = -1;
+    /** number of pixels of a 4K frame */
+    private static final int UHD_PIXELS = 3840 * 2160;
+    /** band image of each band rendering thread, reused for all bands of the same size */
+    private static final ThreadLocal<BufferedImage> BAND_IMAGE = new ThreadLocal<>();
+
+    /** size of the exported frames */
+    private final int width, height;
+    /** frames per second */
+    private final int fps;
+    /** scale of the frames, less than 1 for a preview that is rendered without antialiasing and encoded with a fast preset */
+    private final double previewScale;
+    /** true to add the audio track to the video */
+    private final boolean audio;
+    /** true to paint the notes from pre-rendered tiles */
+    private final boolean noteTiles;
+    /** most left and most right white key */
+    private final int leftNote, rightNote;
+    /** channel colors */
+    private final Color[] colors;
+    /** bit masks of the visible and audible channels */
+    private final int visibleChannels, audibleChannels;
+    /** sizes of the videos rendered in the same pass as the video of the export size */
+    private Dimension[] additionalSizes = new Dimension[0];
+    /** exported time range in microseconds, the end is exclusive */
+    private long rangeStart = 0, rangeEnd = Long.MAX_VALUE;
+    /** first frame and maximum number of frames of the rendered part of the range, see {@link #setPart(int, int)} */
+    private int firstFrame = 0, partFrames = Integer.MAX_VALUE;
+    /** rows of the bands the video frames are rendered in, 0 to render whole frames or {@link #AUTO_BANDS} */
+    private int bandHeight = AUTO_BANDS;
+    /** cache of the frames as channel maps, null to paint all frames */
+    private FrameCache frameCache;
+
+    /**
+     * create export settings
+     *
+     * @param width           frame width
+     * @param height          frame height
+     * @param fps             frames per second
+     * @param previewScale    scale of the frames, 1 for a normal export or less than 1 for a preview
+     * @param audio           true to add the audio track to the video
+     * @param noteTiles       true to paint the notes from pre-rendered tiles
+     * @param leftNote        most left white key
+     * @param rightNote       most right white key
+     * @param colors          display color for each midi channel, copied
+     * @param visibleChannels bit mask of the visible channels
+     * @param audibleChannels bit mask of the channels in the audio track
+     */
+    public VideoExport(int width, int height, int fps, double previewScale, boolean audio, boolean noteTiles, int leftNote, int rightNote, Color[] colors,
+                       int visibleChannels, int audibleChannels) {
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.previewScale = previewScale;
+        this.audio = audio;
+        this.noteTiles = noteTiles;
+        this.leftNote = leftNote;
+        this.rightNote = rightNote;
+        this.colors = colors.clone();
+        this.visibleChannels = visibleChannels;
+        this.audibleChannels = audibleChannels;
+    }
+
+    /**
+     * Writes the settings, the range and the band height, so a {@link RenderWorker} renders a part of the export like this export.
+     * The additional sizes, the part and the frame cache are not written.
+     *
+     * @param out   the stream
+     * @param audio false to render the part without the audio track, even if this export has one
+     * @throws IOException if the settings could not be written
+     */
+    public void write(DataOutputStream out, boolean audio) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(fps);
+        out.writeDouble(previewScale);
+        out.writeBoolean(this.audio && audio);
+        out.writeBoolean(noteTiles);
+        out.writeInt(leftNote);
+        out.writeInt(rightNote);
+        out.writeInt(colors.length);
+        for (Color color : colors)
+            out.writeInt(color.getRGB());
+        out.writeInt(visibleChannels);
+        out.writeInt(audibleChannels);
+        out.writeLong(rangeStart);
+        out.writeLong(rangeEnd);
+        out.writeInt(bandHeight);
+    }
+
+    /**
+     * reads settings written by {@link #write(DataOutputStream, boolean)}
+     *
+     * @param in the stream
+     * @return the export settings
+     * @throws IOException if the settings could not be read
+     */
+    public static VideoExport read(DataInputStream in) throws IOException {
+        int width = in.readInt(), height = in.readInt(), fps = in.readInt();
+        double previewScale = in.readDouble();
+        boolean audio = in.readBoolean(), noteTiles = in.readBoolean();
+        int leftNote = in.readInt(), rightNote = in.readInt();
+        Color[] colors = new Color[in.readInt()];
+        if (colors.length != MIDIVisualizer.CHANNELS)
+            throw new IOException("invalid number of channel colors: " + colors.length);
+        for (int i = 0; i < colors.length; i++)
+            colors[i] = new Color(in.readInt(), true);
+        VideoExport export = new VideoExport(width, height, fps, previewScale, audio, noteTiles, leftNote, rightNote, colors, in.readInt(), in.readInt());
+        export.setRange(in.readLong(), in.readLong());
+        export.setBandHeight(in.readInt());
+        return export;
+    }
+
+    /**
+     * @param events   events of the exported sequence
+     * @param tempoMap tempo map of the sequence
+     * @return the approximate number of frames of the export, used as maximum of the progress
+     */
+    public int frameCount(EventList events, TempoMap tempoMap) {
+        int frames = (int) (Math.max(0, Math.min(tempoMap.toMicros(events.getTickLength()), rangeEnd) - rangeStart) * fps / 1000000);
+        return Math.max(0, Math.min(frames - firstFrame, partFrames));
+    }
+
+    /**
+     * @param frame number of a rendered frame, 0 for the first frame of the part
+     * @return time of the frame in microseconds, counted from the start of the range, so the frames of all parts keep their times
+     */
+    private long frameTime(int frame) {
+        return rangeStart + (long) (firstFrame + frame) * 1000000L / fps;
+    }
+
+    /**
+     * Renders a video and its audio track, limited to the range set by {@link #setRange(long, long)}. If additional sizes are set, a video of each size is rendered from the same pass,
+     * see {@link #renderVideos(File[], Dimension[], EventList, NoteIndex, TempoMap, KeyStateIndex, IntConsumer, AtomicBoolean)}.
+     *
+     * @param target    the video file, the additional videos are named after it, see {@link #getTargets(File)}
+     * @param events    events of the sequence, only used for the audio track
+     * @param noteIndex the notes of the sequence
+     * @param tempoMap  tempo map of the sequence
+     * @param keyStates key states of the notes on the visible channels
+     * @param progress  called with the number of rendered frames after each frame
+     * @param cancelled stops the rendering when set, the video contains the frames rendered so far
+     * @throws Exception if the video could not be encoded
+     */
+    public void renderVideo(File target, EventList events, NoteIndex noteIndex, TempoMap tempoMap, KeyStateIndex keyStates, IntConsumer progress,
+                            AtomicBoolean cancelled) throws Exception {
+        Dimension[] sizes = new Dimension[additionalSizes.length + 1];
+        sizes[0] = new Dimension(width, height);
+        System.arraycopy(additionalSizes, 0, sizes, 1, additionalSizes.length);
+        renderVideos(getTargets(target), sizes, events, noteIndex, tempoMap, keyStates, progress, cancelled);
+    }
+
+    /**
+     * Renders the same timeline into videos of different sizes. The key states of a frame are reconstructed once, then each video paints
+     * the frame in its own size and encodes it on its own thread. The audio track is rendered once and added to all videos.
+     * <p>
+     * Large frames are rendered in horizontal bands, see {@link #setBandHeight(int)}. The bands of a frame are painted in parallel and each band
+     * is converted to YUV and written into the picture of the encoder when it is finished, so no full size RGB frame is held.
+     * <p>
+     * If a frame cache is set, a single video rendered as whole frames is recolored from the channel maps of a previous export with the same settings
+     * except the colors, see {@link #setFrameCache(FrameCache)}. Translucent channel colors are always painted, a channel map cannot blend them.
+     *
+     * @param targets   the video files
+     * @param sizes     the size of each video, scaled by {@link #previewScale}
+     * @param events    events of the sequence, only used for the audio track
+     * @param noteIndex the notes of the sequence
+     * @param tempoMap  tempo map of the sequence
+     * @param keyStates key states of the notes on the visible channels
+     * @param progress  called with the number of rendered frames after each frame
+     * @param cancelled stops the rendering when set, the videos contain the frames rendered so far
+     * @throws Exception if a video could not be encoded
+     */
+    public void renderVideos(File[] targets, Dimension[] sizes, EventList events, NoteIndex noteIndex, TempoMap tempoMap, KeyStateIndex keyStates,
+                             IntConsumer progress, AtomicBoolean cancelled) throws Exception {
+        VideoRenderer.init();
+        RenderingPlayer renderingPlayer = new RenderingPlayer(noteIndex, tempoMap, keyStates);
+        renderingPlayer.nextTime(frameTime(0));
+        AudioRenderer audioRenderer = null;
+        if (audio) {
+            try {
+                audioRenderer = new AudioRenderer(events, tempoMap, audibleChannels, frameTime(0));
+            } catch (MidiUnavailableException e) {
+                e.printStackTrace();
+                System.err.println("exporting the video without audio");
+            }
+        }
+        VideoRenderer[] renderers = new VideoRenderer[targets.length];
+        ExecutorService[] encoders = new ExecutorService[targets.length];
+        ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        ExecutorService bandPool = null;
+        for (Dimension size : sizes)
+            if (bandPool == null && bandRows(scaled(size.width), scaled(size.height)) > 0)
+                bandPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> new Thread(runnable, "VideoExportBand"));
+        ChannelFrames channelFrames = null;
+        boolean complete = false;
+        try {
+            for (int i = 0; i < targets.length; i++) {
+                renderers[i] = new VideoRenderer(targets[i].getPath(), "mp4", null, fps, scaled(sizes[i].width), scaled(sizes[i].height),
+                        audioRenderer == null ? 0 : AudioRenderer.SAMPLE_RATE, AudioRenderer.CHANNELS, previewScale < 1 ? "ultrafast" : null);
+                encoders[i] = targets.length == 1 ? null : Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "VideoExport"));
+            }
+            NoteStrip[] strips = new NoteStrip[targets.length];
+            for (int i = 0; i < targets.length; i++)
+                strips[i] = noteTiles ? new NoteStrip() : null;
+            if (frameCache != null && targets.length == 1 && bandRows(scaled(sizes[0].width), scaled(sizes[0].height)) == 0 && isOpaque(colors))
+                channelFrames = new ChannelFrames(sizes[0], noteIndex, tempoMap);
+            if (audioRenderer != null)
+                audioRenderer.start();
+            int frame = 0;
+            do {
+                RenderingPlayer frameState = targets.length == 1 ? renderingPlayer : renderingPlayer.snapshot();
+                for (int i = 0; i < targets.length; i++) {
+                    Dimension size = sizes[i];
+                    VideoRenderer renderer = renderers[i];
+                    NoteStrip strip = strips[i];
+                    int rows = bandRows(scaled(size.width), scaled(size.height));
+                    ExecutorService bands = bandPool;
+                    ChannelFrames cached = channelFrames;
+                    Callable<Void> encode = () -> {
+                        if (rows > 0)
+                            renderBands(renderer, size, rows, frameState, strip, bands);
+                        else if (cached != null)
+                            cached.render(renderer, frameState);
+                        else {
+                            BufferedImage img = new BufferedImage(scaled(size.width), scaled(size.height), BufferedImage.TYPE_3BYTE_BGR);
+                            paintFrame(img, size.width, size.height, 0, frameState, strip, colors);
+                            renderer.addFrame(img);
+                        }
+                        return null;
+                    };
+                    if (encoders[i] == null)
+                        encode.call();
+                    else
+                        pending.add(encoders[i].submit(encode));
+                }
+                while (pending.size() > PIPELINED_FRAMES * targets.length)
+                    pending.poll().get();
+                frame++;
+                if (audioRenderer != null)
+                    audioRenderer.writeUntil(renderers, frameTime(frame) - frameTime(0));
+                renderingPlayer.nextTime(frameTime(frame));
+                progress.accept(frame);
+            } while (!cancelled.get() && !renderingPlayer.isAtEnd() && frame < partFrames && frameTime(frame) < rangeEnd);
+            while (!pending.isEmpty())
+                pending.poll().get();
+            complete = !cancelled.get();
+        } finally {
+            if (channelFrames != null)
+                channelFrames.close(complete);
+            for (ExecutorService encoder : encoders)
+                if (encoder != null)
+                    encoder.shutdownNow();
+            if (bandPool != null)
+                bandPool.shutdownNow();
+            // after a failure frames may still be encoded, the renderers can only be finished when no thread uses them anymore
+            for (ExecutorService encoder : encoders)
+                if (encoder != null)
+                    awaitTermination(encoder);
+            if (bandPool != null)
+                awaitTermination(bandPool);
+            if (audioRenderer != null)
+                audioRenderer.stop();
+            for (VideoRenderer renderer : renderers)
+                if (renderer != null)
+                    renderer.finish();
+        }
+    }
+
+    /**
+     * waits until the tasks of a shut down executor returned, an interrupt is kept for the caller
+     *
+     * @param executor the executor
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * renders the frames as png files
+     *
+     * @param directory the directory of the frames
+     * @param noteIndex the notes of the sequence
+     * @param tempoMap  tempo map of the sequence
+     * @param keyStates key states of the notes on the visible channels
+     * @param progress  called with the number of rendered frames after each frame
+     * @param cancelled stops the rendering when set
+     * @throws IOException if a frame could not be written
+     */
+    public void renderFrames(File directory, NoteIndex noteIndex, TempoMap tempoMap, KeyStateIndex keyStates, IntConsumer progress, AtomicBoolean cancelled)
+            throws IOException {
+        RenderingPlayer renderingPlayer = new RenderingPlayer(noteIndex, tempoMap, keyStates);
+        renderingPlayer.nextTime(frameTime(0));
+        NoteStrip strip = noteTiles ? new NoteStrip() : null;
+        int frame = 0;
+        do {
+            BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            paintFrame(img, width, height, 0, renderingPlayer, strip, colors);
+            ImageIO.write(img, "png", new File(directory.getAbsolutePath() + File.separator + "frame " + frame + ".png"));
+            frame++;
+            renderingPlayer.nextTime(frameTime(frame));
+            progress.accept(frame);
+        } while (!cancelled.get() && !renderingPlayer.isAtEnd() && frame < partFrames && frameTime(frame) < rangeEnd);
+    }
+
+    /**
+     * Paints the bands of a frame on the band threads, writes each band into the picture of the renderer and encodes the picture.
+     *
+     * @param renderer        renderer of the video
+     * @param size            size of the full size frame
+     * @param rows            rows of a band, even
+     * @param renderingPlayer player at the time of the frame
+     * @param strip           pre-rendered note roll or null
+     * @param bandPool        the band threads
+     * @throws Exception if a band could not be painted
+     */
+    private void renderBands(VideoRenderer renderer, Dimension size, int rows, RenderingPlayer renderingPlayer, NoteStrip strip, ExecutorService bandPool)
+            throws Exception {
+        int frameWidth = scaled(size.width), frameHeight = scaled(size.height);
+        ArrayList<Future<?>> bands = new ArrayList<>();
+        for (int top = 0; top < frameHeight; top += rows) {
+            int bandTop = top, bandRows = Math.min(rows, frameHeight - top);
+            bands.add(bandPool.submit(() -> {
+                BufferedImage img = BAND_IMAGE.get();
+                if (img == null || img.getWidth() != frameWidth || img.getHeight() != bandRows) {
+                    img = new BufferedImage(frameWidth, bandRows, BufferedImage.TYPE_INT_RGB);
+                    BAND_IMAGE.set(img);
+                }
+                paintFrame(img, size.width, size.height, bandTop, renderingPlayer, strip, colors);
+                renderer.writeBand(img, bandTop);
+            }));
+        }
+        for (Future<?> band : bands)
+            band.get();
+        renderer.encodePicture();
+    }
+
+    /**
+     * @param frameWidth  width of the encoded frames
+     * @param frameHeight height of the encoded frames
+     * @return the rows of the bands the frames are rendered in, even, or 0 to render whole frames
+     */
+    private int bandRows(int frameWidth, int frameHeight) {
+        int rows = bandHeight == AUTO_BANDS ? (frameWidth * frameHeight >= UHD_PIXELS ? AUTO_BAND_HEIGHT : 0) : bandHeight;
+        return rows <= 0 || rows >= frameHeight ? 0 : Math.max(2, rows & ~1);
+    }
+
+    /**
+     * Paints a frame or a band of it. Previews are painted with the layout of the full size frame scaled down, so they show the same section of the song.
+     *
+     * @param img             frame image, scaled by {@link #previewScale}, or band image with the width of the scaled frame
+     * @param width           width of the full size frame
+     * @param height          height of the full size frame
+     * @param top             first row of the band in the scaled frame, 0 for a whole frame
+     * @param renderingPlayer player at the time of the frame or null to paint only the background and the keyboard
+     * @param strip           pre-rendered note roll or null
+     * @param colors          display color for each midi channel
+     */
+    private void paintFrame(BufferedImage img, int width, int height, int top, RenderingPlayer renderingPlayer, NoteStrip strip, Color[] colors) {
+        Graphics2D g = img.createGraphics();
+        g.translate(0, -top);
+        if (previewScale < 1) {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+            g.scale((double) img.getWidth() / width, (double) scaled(height) / height);
+        }
+        MIDIVisualizer.paintMidiPlayer(g, renderingPlayer, width, height, leftNote, rightNote, colors, visibleChannels, null, strip);
+        g.dispose();
+    }
+
+    /**
+     * A channel map blends each pixel of a note with the base frame only, a translucent note would also show the notes and lines below it.
+     *
+     * @param colors display color for each midi channel
+     * @return true if all colors are opaque, so the frames can be recolored from channel maps
+     */
+    private static boolean isOpaque(Color[] colors) {
+        for (Color color : colors)
+            if (color.getAlpha() < 255)
+                return false;
+        return true;
+    }
+
+    /**
+     * The frames of a video rendered through the {@link #frameCache}. The channel maps are read from the frame file of the export settings
+     * if it exists, otherwise each frame is painted with the channel colors {@link ChannelMap#BLACK} and {@link ChannelMap#CODES}, split into
+     * a channel map and written to a new frame file. The maps are recolored with {@link #colors}.
+     */
+    private class ChannelFrames {
+        /** size of the full size frame */
+        private final Dimension size;
+        /** pixels of the frame without notes and pressed keys */
+        private final byte[] base;
+        /** channel map of the current frame */
+        private final ChannelMap map;
+        /** the recolored frame */
+        private final BufferedImage frame;
+        /** frame file that is read, null if the frames are painted */
+        private DataInputStream in;
+        /** new frame file, null if the frames are read or the cache cannot be written */
+        private FrameCache.Writer writer;
+        /** the frame painted in black and in code colors, null if the frames are read */
+        private BufferedImage black, coded;
+        /** pre-rendered note rolls of both paintings or null */
+        private NoteStrip blackStrip, codedStrip;
+
+        /**
+         * paints the base frame and opens the frame file of the export settings or starts a new one
+         *
+         * @param size      size of the full size frame
+         * @param noteIndex the notes of the sequence
+         * @param tempoMap  tempo map of the sequence
+         * @throws IOException if the key of the settings could not be calculated
+         */
+        ChannelFrames(Dimension size, NoteIndex noteIndex, TempoMap tempoMap) throws IOException {
+            this.size = size;
+            int frameWidth = scaled(size.width), frameHeight = scaled(size.height);
+            BufferedImage baseImage = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR);
+            paintFrame(baseImage, size.width, size.height, 0, null, null, colors);
+            base = ((DataBufferByte) baseImage.getRaster().getDataBuffer()).getData();
+            map = new ChannelMap(frameWidth, frameHeight);
+            frame = new BufferedImage(frameWidth, frameHeight, BufferedImage.TYPE_3BYTE_BGR);
+            long key = frameKey(noteIndex, tempoMap, frameWidth, frameHeight, base);
+            in = frameCache.open(key, frameWidth, frameHeight);
+            if (in == null)
+                writer = frameCache.create(key, frameWidth, frameHeight);
+        }
+
+        /**
+         * reads or paints the channel map of a frame, recolors it and encodes it
+         *
+         * @param renderer        renderer of the video
+         * @param renderingPlayer player at the time of the frame
+         * @throws IOException if the frame could not be encoded
+         */
+        void render(VideoRenderer renderer, RenderingPlayer renderingPlayer) throws IOException {
+            if (in != null) {
+                try {
+                    if (!map.read(in))
+                        throw new IOException("the frame file ends before the video");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    in.close();
+                    in = null; // the remaining frames are painted
+                }
+            }
+            if (in == null) {
+                if (black == null) {
+                    black = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+                    coded = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_INT_RGB);
+                    blackStrip = noteTiles ? new NoteStrip() : null;
+                    codedStrip = noteTiles ? new NoteStrip() : null;
+                }
+                paintFrame(black, size.width, size.height, 0, renderingPlayer, blackStrip, ChannelMap.BLACK);
+                paintFrame(coded, size.width, size.height, 0, renderingPlayer, codedStrip, ChannelMap.CODES);
+                map.split(black, coded, base);
+                if (writer != null)
+                    map.write(writer.out);
+            }
+            map.recolor(base, colors, frame);
+            renderer.addFrame(frame);
+        }
+
+        /**
+         * closes the read frame file or stores the new one
+         *
+         * @param complete true if all frames were rendered, otherwise the new frame file is discarded
+         */
+        void close(boolean complete) {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (writer != null) {
+                if (complete)
+                    writer.store();
+                else
+                    writer.discard();
+            }
+        }
+    }
+
+    /**
+     * Calculates the key of the frame file of an export. It covers all settings that change the channel maps: the notes, the tempo map, the frame size,
+     * the range and its part, the keyboard and the visible channels. The base frame covers the background and the keyboard images.
+     *
+     * @param noteIndex   the notes of the sequence
+     * @param tempoMap    tempo map of the sequence
+     * @param frameWidth  width of the encoded frames
+     * @param frameHeight height of the encoded frames
+     * @param base        pixels of the base frame
+     * @return the key
+     * @throws IOException never, the settings are hashed in memory
+     */
+    private long frameKey(NoteIndex noteIndex, TempoMap tempoMap, int frameWidth, int frameHeight, byte[] base) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        DataOutputStream out = new DataOutputStream(new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }, digest));
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(frameWidth);
+        out.writeInt(frameHeight);
+        out.writeInt(fps);
+        out.writeDouble(previewScale);
+        out.writeBoolean(noteTiles);
+        out.writeInt(leftNote);
+        out.writeInt(rightNote);
+        out.writeInt(visibleChannels);
+        out.writeLong(rangeStart);
+        out.writeLong(rangeEnd);
+        out.writeInt(firstFrame);
+        out.writeInt(partFrames);
+        out.writeInt(MIDIVisualizer.TICKS_PER_PIXEL);
+        out.writeInt(tempoMap.getResolution());
+        out.writeFloat(tempoMap.getFramesPerSecond());
+        for (long tick : tempoMap.getTicks())
+            out.writeLong(tick);
+        for (int tempo : tempoMap.getTempos())
+            out.writeInt(tempo);
+        out.writeInt(noteIndex.size());
+        for (int i = 0; i < noteIndex.size(); i++) {
+            Note note = noteIndex.get(i);
+            out.writeLong(note.getStart());
+            out.writeLong(note.getEnd());
+            out.writeByte(note.getChannel());
+            out.writeByte(note.getNote());
+        }
+        out.write(base);
+        out.flush();
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * @param size size of the full size frame
+     * @return the size scaled by {@link #previewScale}, rounded to an even number as required by the video encoder
+     */
+    private int scaled(int size) {
+        return previewScale < 1 ? Math.max(2, (int) Math.round(size * previewScale / 2) * 2) : size;
+    }
+
+    /**
+     * @param target the video file of the export size
+     * @return the video files of all sizes, the additional videos are named like the target with their size appended
+     */
+    public File[] getTargets(File target) {
+        File[] targets = new File[additionalSizes.length + 1];
+        targets[0] = target;
+        String name = target.getPath().replaceAll("\\.mp4$", "");
+        for (int i = 0; i < additionalSizes.length; i++)
+            targets[i + 1] = new File(name + "_" + additionalSizes[i].width + "x" + additionalSizes[i].height + ".mp4");
+        return targets;
+    }
+
+    /**
+     * Sets the rows of the bands the video frames are rendered in. A band image of this height is painted per band thread instead of a full
+     * frame, which bounds the memory of 4K and 8K exports. The png frames are always rendered as a whole.
+     *
+     * @param bandHeight rows of a band, 0 to render whole frames or {@link #AUTO_BANDS} to render frames of 4K and larger in bands
+     */
+    public void setBandHeight(int bandHeight) {
+        this.bandHeight = bandHeight;
+    }
+
+    /**
+     * Sets the cache of the exported frames. A single video that is rendered as whole frames is painted twice per frame to split the frames into
+     * {@link ChannelMap}s, which are stored in the cache. A later export with the same settings and other channel colors only recolors the stored maps.
+     *
+     * @param frameCache the cache or null to paint all frames
+     */
+    public void setFrameCache(FrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * setter for {@link #additionalSizes}
+     *
+     * @param additionalSizes sizes of the videos rendered together with the video of the export size
+     */
+    public void setAdditionalSizes(Dimension... additionalSizes) {
+        this.additionalSizes = additionalSizes.clone();
+    }
+
+    /**
+     * Limits the export to a time range. The first frame shows the keys and notes at the start, no earlier frames are rendered.
+     *
+     * @param start start of the range in microseconds
+     * @param end   end of the range in microseconds, {@link Long#MAX_VALUE} to export until the end of the sequence
+     */
+    public void setRange(long start, long end) {
+        rangeStart = Math.max(0, start);
+        rangeEnd = Math.max(rangeStart, end);
+    }
+
+    /**
+     * Limits the export to a part of the range, used by the {@link RenderFarm}. The frames keep the times they have in the whole range,
+     * so the parts can be concatenated without gaps or repeated frames.
+     *
+     * @param firstFrame number of the first frame of the part in the range
+     * @param frames     number of frames of the part, {@link Integer#MAX_VALUE} to render until the end of the range
+     */
+    public void setPart(int firstFrame, int frames) {
+        this.firstFrame = Math.max(0, firstFrame);
+        partFrames = Math.max(0, frames);
+    }
+
+    /**
+     * getter for {@link #fps}
+     *
+     * @return frames per second
+     */
+    public int getFps() {
+        return fps;
+    }
+
+    /**
+     * @return start of the exported range in microseconds
+     */
+    public long getRangeStart() {
+        return rangeStart;
+    }
+
+    /**
+     * @return end of the exported range in microseconds, exclusive, {@link Long#MAX_VALUE} to export until the end of the sequence
+     */
+    public long getRangeEnd() {
+        return rangeEnd;
+    }
+
+    /**
+     * getter for {@link #audio}
+     *
+     * @return true if the video gets an audio track
+     */
+    public boolean hasAudio() {
+        return audio;
+    }
+
+    /**
+     * getter for {@link #audibleChannels}
+     *
+     * @return bit mask of the channels in the audio track
+     */
+    public int getAudibleChannels() {
+        return audibleChannels;
+    }
+
+    /**
+     * getter for {@link #previewScale}
+     *
+     * @return the scale of the frames, less than 1 for a preview
+     */
+    public double getPreviewScale() {
+        return previewScale;
+    }
+
+    /**
+     * getter for {@link #visibleChannels}
+     *
+     * @return bit mask of the visible channels
+     */
+    public int getVisibleChannels() {
+        return visibleChannels;
+    }
+}
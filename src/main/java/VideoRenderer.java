@@ -3,17 +3,21 @@ import io.humble.video.awt.MediaPictureConverter;
 import io.humble.video.awt.MediaPictureConverterFactory;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * renders a video from BufferedImages
+ * renders a video from BufferedImages and optionally an audio stream from 16 bit PCM samples
  */
 public final class VideoRenderer {
 
     private static boolean initialized = false;
 
-    public static void init() {
+    public static synchronized void init() {
         if (initialized || !System.getProperty("os.name").toLowerCase().contains("win"))
             return;
         File file = new File(MIDIVisualizer.executionDirectory + File.separator + "libhumblevideo-0.dll");
@@ -37,11 +41,27 @@ public final class VideoRenderer {
     /** true if finished was already called to disallow new frames after finish was called */
     private boolean finished = false;
     private final Muxer muxer;
+    /** video encoder, null if the packets of an encoded video stream are copied */
     private final Encoder encoder;
     private MediaPictureConverter converter;
     private final MediaPicture picture;
     private final MediaPacket packet;
     private int frame = 0;
+    /** stream index of the video stream */
+    private final int videoStream;
+
+    /** audio encoder, null if the video has no audio stream */
+    private Encoder audioEncoder;
+    /** audio frame that is filled by {@link #addAudio(byte[], int, int)}, encoded when it is full */
+    private MediaAudio audio;
+    /** stream index of the audio stream */
+    private int audioStream = -1;
+    /** number of audio channels */
+    private int audioChannels;
+    /** number of samples per channel in {@link #audio} */
+    private int audioSamples;
+    /** number of samples per channel that were already encoded */
+    private long audioTimeStamp;
 
     /**
      * create a video renderer
@@ -52,6 +72,38 @@ public final class VideoRenderer {
      * @throws InterruptedException when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
      */
     public VideoRenderer(String outputFile, String formatName, String codecName, int fps, int width, int height) throws InterruptedException, IOException {
+        this(outputFile, formatName, codecName, fps, width, height, 0, 0);
+    }
+
+    /**
+     * create a video renderer with an audio stream
+     *
+     * @param outputFile      the output file
+     * @param fps             frames per second
+     * @param audioSampleRate sample rate of the audio stream or 0 to create a video without audio
+     * @param audioChannels   number of audio channels
+     * @throws IOException          when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
+     * @throws InterruptedException when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
+     */
+    public VideoRenderer(String outputFile, String formatName, String codecName, int fps, int width, int height, int audioSampleRate, int audioChannels)
+            throws InterruptedException, IOException {
+        this(outputFile, formatName, codecName, fps, width, height, audioSampleRate, audioChannels, null);
+    }
+
+    /**
+     * create a video renderer with an audio stream and an encoder preset
+     *
+     * @param outputFile      the output file
+     * @param fps             frames per second
+     * @param audioSampleRate sample rate of the audio stream or 0 to create a video without audio
+     * @param audioChannels   number of audio channels
+     * @param preset          preset of the video encoder, e.g. ultrafast for quick previews, or null for the default preset.
+     *                        Ignored by encoders without presets.
+     * @throws IOException          when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
+     * @throws InterruptedException when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
+     */
+    public VideoRenderer(String outputFile, String formatName, String codecName, int fps, int width, int height, int audioSampleRate, int audioChannels,
+                         String preset) throws InterruptedException, IOException {
         muxer = Muxer.make(outputFile, null, formatName);
         Codec codec = (codecName == null) ? Codec.findEncodingCodec(muxer.getFormat().getDefaultVideoCodecId()) : Codec.findEncodingCodecByName(codecName);
         encoder = Encoder.make(codec);
@@ -64,8 +116,15 @@ public final class VideoRenderer {
 
         if (muxer.getFormat().getFlag(MuxerFormat.Flag.GLOBAL_HEADER))
             encoder.setFlag(Encoder.Flag.FLAG_GLOBAL_HEADER, true);
-        encoder.open(null, null);
-        muxer.addNewStream(encoder);
+        KeyValueBag videoOptions = null;
+        if (preset != null) {
+            videoOptions = KeyValueBag.make();
+            videoOptions.setValue("preset", preset);
+        }
+        encoder.open(videoOptions, null);
+        videoStream = muxer.addNewStream(encoder).getIndex();
+        if (audioSampleRate > 0)
+            addAudioStream(audioSampleRate, audioChannels);
         muxer.open(null, null);
 
         picture = MediaPicture.make(width, height, pixelFormat);
@@ -73,6 +132,62 @@ public final class VideoRenderer {
         packet = MediaPacket.make();
     }
 
+    /**
+     * create a renderer that copies the packets of an encoded video stream, see {@link #addPacket(MediaPacket)}, and encodes an audio stream
+     *
+     * @param outputFile      the output file
+     * @param formatName      format of the output file
+     * @param video           opened decoder of the copied stream, it describes the stream
+     * @param audioSampleRate sample rate of the audio stream or 0 to create a video without audio
+     * @param audioChannels   number of audio channels
+     * @throws IOException          when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
+     * @throws InterruptedException when {@link Muxer#open(KeyValueBag, KeyValueBag)} fails
+     */
+    private VideoRenderer(String outputFile, String formatName, Decoder video, int audioSampleRate, int audioChannels) throws InterruptedException, IOException {
+        muxer = Muxer.make(outputFile, null, formatName);
+        encoder = null;
+        videoStream = muxer.addNewStream(video).getIndex();
+        if (audioSampleRate > 0)
+            addAudioStream(audioSampleRate, audioChannels);
+        muxer.open(null, null);
+        picture = null;
+        packet = MediaPacket.make();
+    }
+
+    /**
+     * adds an aac stream to the muxer before it is opened
+     *
+     * @param audioSampleRate sample rate of the audio stream
+     * @param audioChannels   number of audio channels
+     */
+    private void addAudioStream(int audioSampleRate, int audioChannels) {
+        this.audioChannels = audioChannels;
+        audioEncoder = Encoder.make(Codec.findEncodingCodec(muxer.getFormat().getDefaultAudioCodecId()));
+        AudioChannel.Layout layout = audioChannels == 1 ? AudioChannel.Layout.CH_LAYOUT_MONO : AudioChannel.Layout.CH_LAYOUT_STEREO;
+        audioEncoder.setSampleRate(audioSampleRate);
+        audioEncoder.setChannels(audioChannels);
+        audioEncoder.setChannelLayout(layout);
+        audioEncoder.setSampleFormat(AudioFormat.Type.SAMPLE_FMT_FLTP);
+        audioEncoder.setTimeBase(Rational.make(1, audioSampleRate));
+        if (muxer.getFormat().getFlag(MuxerFormat.Flag.GLOBAL_HEADER))
+            audioEncoder.setFlag(Encoder.Flag.FLAG_GLOBAL_HEADER, true);
+        KeyValueBag options = KeyValueBag.make();
+        options.setValue("strict", "experimental"); // the built-in aac encoder is marked as experimental
+        audioEncoder.open(options, null);
+        audioStream = muxer.addNewStream(audioEncoder).getIndex();
+        audio = MediaAudio.make(audioEncoder.getFrameSize(), audioSampleRate, audioChannels, layout, AudioFormat.Type.SAMPLE_FMT_FLTP);
+        audio.setTimeBase(audioEncoder.getTimeBase());
+    }
+
+    /**
+     * adds a packet of the copied video stream, see {@link #VideoRenderer(String, String, Decoder, int, int)}
+     *
+     * @param packet complete packet with the time base of the stream
+     */
+    public synchronized void addPacket(MediaPacket packet) {
+        write(packet, videoStream);
+    }
+
     /**
      * add frame to the video
      *
@@ -84,24 +199,202 @@ public final class VideoRenderer {
         converter.toPicture(picture, img, frame);
         do {
             encoder.encode(packet, picture);
-            if (packet.isComplete())
-                muxer.write(packet, false);
+            write(packet, videoStream);
         } while (packet.isComplete());
         frame++;
     }
 
+    /**
+     * Converts a horizontal band of a frame to YUV 4:2:0 and writes it into the picture of the next frame, see {@link #encodePicture()}.
+     * Bands of different rows may be written in parallel. The conversion uses the limited range BT.601 coefficients of the converter of
+     * {@link #addFrame(BufferedImage)}, the chroma of each 2x2 block is taken from the mean of its colors.
+     *
+     * @param band image of the band with the width of the video and an even number of rows, unless it is the last band
+     * @param top  first row of the band in the frame, even
+     */
+    public void writeBand(BufferedImage band, int top) {
+        int width = band.getWidth(), rows = band.getHeight(), chromaWidth = (width + 1) / 2, chromaRows = (rows + 1) / 2;
+        int[] rgb = band.getType() == BufferedImage.TYPE_INT_RGB && band.getRaster().getDataBuffer().getSize() == width * rows
+                ? ((DataBufferInt) band.getRaster().getDataBuffer()).getData() : band.getRGB(0, 0, width, rows, null, 0, width);
+        byte[] y = new byte[width];
+        byte[] u = new byte[chromaWidth], v = new byte[chromaWidth];
+        int yStride = picture.getLineSize(0), uStride = picture.getLineSize(1), vStride = picture.getLineSize(2);
+        ByteBuffer yPlane = picture.getData(0).getByteBuffer(top * yStride, rows * yStride);
+        ByteBuffer uPlane = picture.getData(1).getByteBuffer(top / 2 * uStride, chromaRows * uStride);
+        ByteBuffer vPlane = picture.getData(2).getByteBuffer(top / 2 * vStride, chromaRows * vStride);
+        for (int row = 0; row < rows; row++) {
+            for (int x = 0, i = row * width; x < width; x++, i++) {
+                int r = rgb[i] >> 16 & 0xFF, g = rgb[i] >> 8 & 0xFF, b = rgb[i] & 0xFF;
+                y[x] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+            }
+            yPlane.position(row * yStride);
+            yPlane.put(y);
+            if ((row & 1) != 0)
+                continue;
+            int above = row, below = Math.min(row + 1, rows - 1); // the last row of an odd height is its own pair
+            for (int x = 0; x < chromaWidth; x++) {
+                int left = 2 * x, right = Math.min(2 * x + 1, width - 1);
+                int c00 = rgb[above * width + left], c01 = rgb[above * width + right], c10 = rgb[below * width + left], c11 = rgb[below * width + right];
+                int r = ((c00 >> 16 & 0xFF) + (c01 >> 16 & 0xFF) + (c10 >> 16 & 0xFF) + (c11 >> 16 & 0xFF) + 2) >> 2;
+                int g = ((c00 >> 8 & 0xFF) + (c01 >> 8 & 0xFF) + (c10 >> 8 & 0xFF) + (c11 >> 8 & 0xFF) + 2) >> 2;
+                int b = ((c00 & 0xFF) + (c01 & 0xFF) + (c10 & 0xFF) + (c11 & 0xFF) + 2) >> 2;
+                u[x] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                v[x] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+            }
+            uPlane.position(above / 2 * uStride);
+            uPlane.put(u);
+            vPlane.position(above / 2 * vStride);
+            vPlane.put(v);
+        }
+    }
+
+    /**
+     * encodes the picture whose bands were written by {@link #writeBand(BufferedImage, int)} as the next frame
+     */
+    public synchronized void encodePicture() {
+        picture.setTimeStamp(frame);
+        picture.setComplete(true);
+        do {
+            encoder.encode(packet, picture);
+            write(packet, videoStream);
+        } while (packet.isComplete());
+        frame++;
+    }
+
+    /**
+     * Add audio samples. The audio is encoded whenever a complete audio frame is available.
+     * Audio and video packets are interleaved by the muxer, so the audio should be added roughly in sync with the frames.
+     *
+     * @param pcm    16 bit signed little endian samples, interleaved channels
+     * @param offset start position in bytes
+     * @param length number of bytes
+     */
+    public synchronized void addAudio(byte[] pcm, int offset, int length) {
+        if (audioEncoder == null)
+            throw new IllegalStateException("no audio stream");
+        int frameSize = audioEncoder.getFrameSize();
+        for (int position = offset; position < offset + length; ) {
+            int samples = Math.min(frameSize - audioSamples, (offset + length - position) / (2 * audioChannels));
+            if (samples <= 0)
+                break;
+            for (int channel = 0; channel < audioChannels; channel++) {
+                ByteBuffer plane = audio.getData(channel).getByteBuffer(audioSamples * 4, samples * 4).order(ByteOrder.nativeOrder());
+                for (int i = 0, p = position + channel * 2; i < samples; i++, p += 2 * audioChannels)
+                    plane.putFloat((short) ((pcm[p] & 0xFF) | pcm[p + 1] << 8) / 32768f);
+            }
+            position += samples * 2 * audioChannels;
+            audioSamples += samples;
+            if (audioSamples == frameSize)
+                encodeAudio();
+        }
+    }
+
+    /**
+     * encodes the samples in {@link #audio}
+     */
+    private void encodeAudio() {
+        audio.setNumSamples(audioSamples);
+        audio.setTimeStamp(audioTimeStamp);
+        audio.setComplete(true);
+        do {
+            audioEncoder.encode(packet, audio);
+            write(packet, audioStream);
+        } while (packet.isComplete());
+        audioTimeStamp += audioSamples;
+        audioSamples = 0;
+    }
+
+    /**
+     * writes a packet to the muxer if it is complete
+     *
+     * @param packet the packet
+     * @param stream stream index of the packet
+     */
+    private void write(MediaPacket packet, int stream) {
+        if (!packet.isComplete())
+            return;
+        packet.setStreamIndex(stream);
+        muxer.write(packet, audioEncoder != null);
+    }
+
     /**
      * finish rendering
      */
     public synchronized void finish() {
         if (finished)
             return;
-        do {
-            encoder.encode(packet, null);
-            if (packet.isComplete())
-                muxer.write(packet, false);
-        } while (packet.isComplete());
+        if (encoder != null) {
+            do {
+                encoder.encode(packet, null);
+                write(packet, videoStream);
+            } while (packet.isComplete());
+        }
+        if (audioEncoder != null) {
+            if (audioSamples > 0)
+                encodeAudio();
+            do {
+                audioEncoder.encode(packet, null);
+                write(packet, audioStream);
+            } while (packet.isComplete());
+        }
         muxer.close();
         finished = true;
     }
+
+    /**
+     * Concatenates videos with the same video stream and encoder settings into one video without encoding them again. The packets of each video are
+     * shifted by its start time, a packet that would not be decoded after the previous packet is moved behind it. The audio track is rendered
+     * for the whole video and encoded as one stream, so it has no gaps or repeated notes where the videos meet.
+     *
+     * @param segments the videos in playing order, each with a video stream only
+     * @param starts   start time of each video in the concatenated video in microseconds
+     * @param target   the concatenated video
+     * @param audio    started renderer of the audio track from the start of the first video or null for a video without audio
+     * @throws InterruptedException when reading or writing is interrupted
+     * @throws IOException          if a video could not be read, the audio rendering stopped or the concatenated video could not be written
+     */
+    public static void concatenate(File[] segments, long[] starts, File target, AudioRenderer audio) throws InterruptedException, IOException {
+        init();
+        Rational micros = Rational.make(1, 1000000);
+        MediaPacket packet = MediaPacket.make();
+        VideoRenderer renderer = null;
+        long lastDts = Long.MIN_VALUE, end = 0;
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                Demuxer demuxer = Demuxer.make();
+                demuxer.open(segments[i].getPath(), null, false, true, null, null);
+                try {
+                    if (demuxer.getNumStreams() != 1)
+                        throw new IOException(segments[i] + " has " + demuxer.getNumStreams() + " streams instead of one video stream");
+                    if (renderer == null) {
+                        Decoder decoder = demuxer.getStream(0).getDecoder();
+                        decoder.open(null, null);
+                        renderer = new VideoRenderer(target.getPath(), "mp4", decoder, audio == null ? 0 : AudioRenderer.SAMPLE_RATE, AudioRenderer.CHANNELS);
+                    }
+                    while (demuxer.read(packet) >= 0) {
+                        if (!packet.isComplete())
+                            continue;
+                        Rational timeBase = packet.getTimeBase();
+                        long offset = timeBase.rescale(starts[i], micros);
+                        long dts = Math.max(packet.getDts() + offset, lastDts + 1);
+                        packet.setPts(Math.max(packet.getPts() + offset, dts));
+                        packet.setDts(dts);
+                        lastDts = dts;
+                        end = Math.max(end, micros.rescale(packet.getPts() + packet.getDuration(), timeBase));
+                        // the audio is added up to the decoding time of each packet, so the muxer interleaves both streams
+                        if (audio != null)
+                            audio.writeUntil(renderer, micros.rescale(dts, timeBase));
+                        renderer.addPacket(packet);
+                    }
+                } finally {
+                    demuxer.close();
+                }
+            }
+            if (audio != null && renderer != null)
+                audio.writeUntil(renderer, end);
+        } finally {
+            if (renderer != null)
+                renderer.finish();
+        }
+    }
 }
@@ -0,0 +1,108 @@
+/**
+ * The time shown by the window while a {@link MidiPlayer} plays. The position of the playback engine is sampled when a frame is painted,
+ * the clock runs on {@link System#nanoTime()} between the samples and is pulled towards them slowly, so the notes move smoothly even if the
+ * engine position advances in steps. The output latency of the synthesizer is subtracted, so the keys light up when the notes are heard.
+ * <p>
+ * Only the painting thread samples the clock with {@link #micros(long, boolean)}, other threads read the shown time with {@link #shownMicros()},
+ * so the correction does not depend on how many threads ask for the time.
+ * <p>
+ * The differences between the samples and the clock are collected, {@link #getJitter()} reports them.
+ */
+public class VisualClock {
+    /** a sample further off than this is taken as a jump of the position, the clock restarts at the sample */
+    private static final long JUMP_MICROS = 100000;
+    /** share of the difference between a sample and the clock that is corrected per sample */
+    private static final double CORRECTION = 0.05;
+
+    /** output latency of the synthesizer in microseconds */
+    private final long latency;
+    /** true while the clock runs */
+    private boolean running;
+    /** position in microseconds at {@link #baseNanos}, without latency */
+    private double baseMicros;
+    /** {@link System#nanoTime()} of {@link #baseMicros} */
+    private long baseNanos;
+    /** position when the clock started or jumped, the shown time does not go back behind it */
+    private long startMicros;
+    /** the time returned by the last sample while the clock did not run */
+    private long stoppedMicros;
+    /** number, sum and sum of squares of the differences between the samples and the clock in microseconds */
+    private long samples;
+    private double sum, squareSum;
+
+    /**
+     * create a clock
+     *
+     * @param latency output latency of the synthesizer in microseconds
+     */
+    public VisualClock(long latency) {
+        this.latency = Math.max(0, latency);
+    }
+
+    /**
+     * Updates the clock with a sample of the engine position and returns the shown time. Called by the painting thread only.
+     *
+     * @param sampledMicros position of the engine in microseconds
+     * @param playing       true if the engine is playing, otherwise the position is shown directly
+     * @return the time to show in microseconds
+     */
+    public synchronized long micros(long sampledMicros, boolean playing) {
+        long now = System.nanoTime();
+        if (!playing) {
+            running = false;
+            stoppedMicros = sampledMicros;
+            return sampledMicros;
+        }
+        double predicted = baseMicros + (now - baseNanos) / 1000.0;
+        double difference = sampledMicros - predicted;
+        if (!running || Math.abs(difference) > JUMP_MICROS) { // started or seeked, the new position is shown until its sound is heard
+            startMicros = sampledMicros;
+            running = true;
+            baseMicros = sampledMicros;
+            baseNanos = now;
+            predicted = sampledMicros;
+        } else {
+            samples++;
+            sum += difference;
+            squareSum += difference * difference;
+            baseMicros += difference * CORRECTION;
+            predicted += difference * CORRECTION;
+        }
+        return Math.max(startMicros, (long) predicted - latency);
+    }
+
+    /**
+     * @return the time shown now in microseconds, continued from the last sample without correcting the clock
+     */
+    public synchronized long shownMicros() {
+        if (!running)
+            return stoppedMicros;
+        return Math.max(startMicros, (long) (baseMicros + (System.nanoTime() - baseNanos) / 1000.0) - latency);
+    }
+
+    /**
+     * getter for {@link #latency}
+     *
+     * @return the subtracted output latency in microseconds
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the standard deviation of the differences between the samples and the clock in microseconds, 0 without samples
+     */
+    public synchronized double getJitter() {
+        if (samples < 2)
+            return 0;
+        double mean = sum / samples;
+        return Math.sqrt(Math.max(0, squareSum / samples - mean * mean));
+    }
+
+    /**
+     * @return the mean difference between the samples and the clock in microseconds, positive if the samples are ahead
+     */
+    public synchronized double getOffset() {
+        return samples == 0 ? 0 : sum / samples;
+    }
+}